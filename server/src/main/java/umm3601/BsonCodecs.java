@@ -0,0 +1,162 @@
+package umm3601;
+
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Helpers for getting a controller's collection, and for writing the
+ * hand-written BSON codecs that collection can use.
+ *
+ * By default the controllers' collections go through MongoJack, which
+ * turns each BSON document into a stream of Jackson tokens, and then
+ * Jackson fills in the fields of a `Todo` or `User` by reflection. With
+ * `Config.bsonCodecs()` on, they use plain driver collections instead,
+ * with a `Codec` for each of our classes that reads (and writes) the
+ * fields straight from (and to) the BSON.
+ *
+ * The codecs follow the same rules MongoJack does for our classes:
+ * `_id`s are `ObjectId`s in the database and hex strings in Java, a
+ * missing field is left at its default, fields we don't know about
+ * are ignored, and (like Jackson) a number or boolean that was stored
+ * as a string is still read as a number or boolean.
+ */
+public final class BsonCodecs {
+
+  private BsonCodecs() {
+  }
+
+  /**
+   * Get the collection a controller should use.
+   *
+   * @param <T> the type of the documents in the collection
+   * @param database the database the collection is in
+   * @param name the name of the collection
+   * @param type the class of the documents in the collection
+   * @param config the server's settings, which say whether to use MongoJack
+   *   or our own codecs
+   * @param codecs the codecs for `type`, and for any other classes the
+   *   controller reads from the collection (e.g., aggregation results)
+   * @return the collection
+   */
+  public static <T> MongoCollection<T> collection(
+      MongoDatabase database, String name, Class<T> type, Config config, List<Codec<?>> codecs) {
+    if (!config.bsonCodecs()) {
+      return JacksonMongoCollection.builder().build(database, name, type, UuidRepresentation.STANDARD);
+    }
+    // Our codecs come first; the driver's own ones handle everything else
+    // (e.g., the `Document`s and `Bson`s we build filters and pipelines with).
+    return database
+      .getCollection(name, type)
+      .withCodecRegistry(CodecRegistries.fromRegistries(
+        CodecRegistries.fromCodecs(codecs),
+        database.getCodecRegistry()));
+  }
+
+  /**
+   * Read an `_id`, as a hex string if it's an `ObjectId`.
+   *
+   * @param reader a reader positioned at the value of an `_id` field
+   * @return the ID, or `null` if it's `null`
+   */
+  public static String readId(BsonReader reader) {
+    return switch (reader.getCurrentBsonType()) {
+      case OBJECT_ID -> reader.readObjectId().toHexString();
+      case NULL -> {
+        reader.readNull();
+        yield null;
+      }
+      default -> reader.readString();
+    };
+  }
+
+  /**
+   * Write an `_id` (if there is one) as an `ObjectId`.
+   *
+   * @param writer the writer to write the field with
+   * @param id the (hex string) ID, or `null` to not write an `_id`
+   * @throws IllegalArgumentException if `id` isn't a legal `ObjectId`
+   */
+  public static void writeId(BsonWriter writer, String id) {
+    if (id != null) {
+      writer.writeObjectId("_id", new ObjectId(id));
+    }
+  }
+
+  /**
+   * Read a string field's value.
+   *
+   * @param reader a reader positioned at the value of a string field
+   * @return the string, or `null` if it's `null`
+   */
+  public static String readString(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    return reader.readString();
+  }
+
+  /**
+   * Write a string field, which may be `null`.
+   *
+   * @param writer the writer to write the field with
+   * @param name the name of the field
+   * @param value the value of the field
+   */
+  public static void writeString(BsonWriter writer, String name, String value) {
+    if (value == null) {
+      writer.writeNull(name);
+    } else {
+      writer.writeString(name, value);
+    }
+  }
+
+  /**
+   * Read a whole-number field's value, which (like Jackson does) we'll
+   * take whether it's stored as a 32-bit, 64-bit, or floating-point number,
+   * or as a string.
+   *
+   * @param reader a reader positioned at the value of a number field
+   * @return the number, or 0 if it's `null`
+   */
+  public static int readInt(BsonReader reader) {
+    return switch (reader.getCurrentBsonType()) {
+      case INT64 -> (int) reader.readInt64();
+      case DOUBLE -> (int) reader.readDouble();
+      case STRING -> Integer.parseInt(reader.readString());
+      case NULL -> {
+        reader.readNull();
+        yield 0;
+      }
+      default -> reader.readInt32();
+    };
+  }
+
+  /**
+   * Read a boolean field's value, which may be stored as a string.
+   *
+   * @param reader a reader positioned at the value of a boolean field
+   * @return the boolean, or `false` if it's `null`
+   */
+  public static boolean readBoolean(BsonReader reader) {
+    return switch (reader.getCurrentBsonType()) {
+      case STRING -> Boolean.parseBoolean(reader.readString());
+      case NULL -> {
+        reader.readNull();
+        yield false;
+      }
+      default -> reader.readBoolean();
+    };
+  }
+}
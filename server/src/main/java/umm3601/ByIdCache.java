@@ -0,0 +1,151 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.bson.types.ObjectId;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * A bounded, read-through cache of documents by `_id`, for the "get one
+ * thing by its ID" endpoints.
+ *
+ * Our documents are never changed once they've been added, only deleted,
+ * so the only thing that can make a cached document wrong is deleting it;
+ * the controllers call `invalidate()` when they do. (As with the other
+ * caches, changes made by anything other than this server aren't seen.)
+ * Documents that don't exist aren't cached, so adding a document never
+ * has to touch the cache.
+ *
+ * Entries are keyed by `ObjectIdKey`s rather than our hex string `_id`s
+ * to keep the per-entry overhead down.
+ *
+ * @param <T> the type of the cached documents
+ */
+public final class ByIdCache<T> {
+
+  private final Cache<ObjectIdKey, T> cache;
+
+  // Bumped on every invalidation, so a lookup that was running while a
+  // document was deleted knows not to leave its (possibly deleted) result
+  // behind. (See `QueryResultCache`, which does the same thing.)
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Construct a cache of documents by ID.
+   *
+   * @param maxEntries the most documents the cache may hold
+   */
+  public ByIdCache(long maxEntries) {
+    cache = Caffeine.newBuilder()
+      .maximumSize(maxEntries)
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * Get the document with ID `id`, running `lookup` to find it (and adding
+   * it to the cache) if it isn't already cached.
+   *
+   * @param id the ID of the document
+   * @param lookup finds the document in the database, or returns `null`
+   *   if there isn't one
+   * @return the document, or `null` if there isn't one with ID `id`
+   */
+  public T get(ObjectId id, Supplier<T> lookup) {
+    ObjectIdKey key = ObjectIdKey.of(id);
+    T cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    long startingGeneration = generation.get();
+    T found = lookup.get();
+    if (found == null) {
+      return null;
+    }
+    cache.put(key, found);
+    if (generation.get() != startingGeneration) {
+      cache.invalidate(key);
+    }
+    return found;
+  }
+
+  /**
+   * Get the documents with the IDs in `ids`, running `lookup` (once) to
+   * find all the ones that aren't already cached, and caching what it
+   * finds.
+   *
+   * @param ids the IDs of the documents
+   * @param lookup finds the documents with the given IDs in the database,
+   *   leaving out any that don't exist
+   * @return the documents with IDs in `ids` that exist, by ID
+   */
+  public Map<ObjectId, T> getAll(Collection<ObjectId> ids, Function<List<ObjectId>, Map<ObjectId, T>> lookup) {
+    Map<ObjectId, T> found = new HashMap<>();
+    List<ObjectId> uncached = new ArrayList<>();
+    for (ObjectId id : ids) {
+      T cached = cache.getIfPresent(ObjectIdKey.of(id));
+      if (cached == null) {
+        uncached.add(id);
+      } else {
+        found.put(id, cached);
+      }
+    }
+    if (uncached.isEmpty()) {
+      return found;
+    }
+
+    long startingGeneration = generation.get();
+    Map<ObjectId, T> lookedUp = lookup.apply(uncached);
+    lookedUp.forEach((id, document) -> cache.put(ObjectIdKey.of(id), document));
+    if (generation.get() != startingGeneration) {
+      lookedUp.keySet().forEach(id -> cache.invalidate(ObjectIdKey.of(id)));
+    }
+    found.putAll(lookedUp);
+    return found;
+  }
+
+  /**
+   * Throw out the document with ID `id`, if it's cached. This should be
+   * called *after* it has been deleted from the database.
+   *
+   * @param id the ID of the document that was deleted
+   */
+  public void invalidate(ObjectId id) {
+    generation.incrementAndGet();
+    cache.invalidate(ObjectIdKey.of(id));
+  }
+
+  /**
+   * Include this cache's hit, miss, and eviction counts (and its size)
+   * in the server's metrics.
+   *
+   * @param metrics the server's metrics
+   * @param name the start of the names of this cache's metrics, e.g.,
+   *   `todo_by_id_cache`
+   */
+  public void registerMetrics(ServerMetrics metrics, String name) {
+    metrics.addCounter(name + "_hits_total", "Lookups found in the " + name + ".", () -> stats().hitCount());
+    metrics.addCounter(name + "_misses_total", "Lookups not found in the " + name + ".", () -> stats().missCount());
+    metrics.addCounter(name + "_evictions_total", "Entries evicted from the " + name + " to make room.",
+      () -> stats().evictionCount());
+    metrics.addGauge(name + "_entries", "Entries currently in the " + name + ".", cache::estimatedSize);
+  }
+
+  /**
+   * @return the hit, miss, and eviction counts for this cache
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+}
@@ -0,0 +1,104 @@
+package umm3601;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A count of the changes this server has made to a collection, which we
+ * use to give responses built from that collection (strong) ETags.
+ *
+ * Every response built from the collection is tagged with the current
+ * version. A client that sends that tag back in `If-None-Match` while the
+ * version hasn't moved gets a `304 Not Modified` straight away, without
+ * us querying the database or serializing anything. Most of our clients
+ * poll for data that hardly ever changes, so that's most requests.
+ *
+ * Each write bumps the version both before and after it runs, so a read
+ * that overlaps a write never gets the tag the collection will have once
+ * the write is done. The tags also include a random "epoch" for this
+ * server process, so a restart (which starts counting again from 0)
+ * can't make an old tag look current.
+ *
+ * Like the rest of our caching, this only sees the changes this server
+ * makes, so it's only right when this server is the only one changing
+ * the collection.
+ */
+public final class CollectionVersion {
+
+  private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+  private final AtomicLong version = new AtomicLong();
+
+  /**
+   * Make a change to the collection.
+   *
+   * @param <T> the type of result of the change
+   * @param write the change to make
+   * @return the result of `write`
+   */
+  public <T> T change(Supplier<T> write) {
+    version.incrementAndGet();
+    try {
+      return write.get();
+    } finally {
+      version.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return the current version of the collection, which moves both
+   *   before and after each change is made
+   */
+  public long current() {
+    return version.get();
+  }
+
+  /**
+   * Tag the response with the ETag for the current version of the
+   * collection, and respond with `304 Not Modified` if the client
+   * already has that version.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param representation what (beyond the URL's path) decides what's in
+   *   the response, e.g., the query string or the requested ID
+   * @return true if the response is a `304` (and so there's nothing left
+   *   to do), or false if the caller should go ahead and build the
+   *   response as usual
+   */
+  public boolean notModified(Context ctx, String representation) {
+    String etag = "\"" + epoch + "-" + version.get()
+      + "-" + Integer.toHexString(Objects.hashCode(representation)) + "\"";
+    ctx.header(Header.ETAG, etag);
+    if (!matches(ctx.header(Header.IF_NONE_MATCH), etag)) {
+      return false;
+    }
+    ctx.status(HttpStatus.NOT_MODIFIED);
+    return true;
+  }
+
+  /**
+   * Check whether an `If-None-Match` header matches `etag`. The header
+   * can be `*`, or a comma-separated list of tags, which (for
+   * `If-None-Match`) match if they're the same apart from being weak.
+   */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      String trimmed = tag.trim();
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (trimmed.equals("*") || trimmed.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,167 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A limit on how many requests may be running at once, which adjusts
+ * itself to what the server (and, mostly, MongoDB) can actually keep up
+ * with.
+ *
+ * Rather than us guessing a fixed limit, the limit is learned from how
+ * long requests take, the way TCP Vegas (and Netflix's "gradient" limit)
+ * do it: we keep a long-running average of request latency, and compare
+ * each new request's latency to it. While requests are about as fast as
+ * usual, the limit creeps up (by about its square root, the "queue" we
+ * allow for); once they start taking noticeably longer, which is what
+ * happens when requests are queueing up somewhere (e.g., waiting for a
+ * MongoDB connection), the limit is cut in proportion (by at most half)
+ * so that less work is queued up. Requests over the limit are turned away
+ * straight away (see `LoadShedder`), rather than waiting in a queue and
+ * timing out anyway.
+ *
+ * Taking a permit (`tryAcquire()`) doesn't take a lock; only updating
+ * the limit when a request finishes does, and that's just arithmetic.
+ */
+public final class ConcurrencyLimit {
+
+  // How many requests the long-running average latency is (roughly)
+  // averaged over
+  private static final int LONG_WINDOW = 600;
+  private static final double LONG_FACTOR = 2.0 / (LONG_WINDOW + 1);
+
+  // How much slower than usual a request may be before we take it as a
+  // sign of queueing
+  private static final double TOLERANCE = 1.5;
+
+  // The most the limit is cut by in response to one slow request
+  private static final double MIN_GRADIENT = 0.5;
+
+  // How far the limit moves towards each new estimate, so that one odd
+  // request doesn't swing it too far
+  private static final double SMOOTHING = 0.2;
+
+  // If the average is this many times the latest latency, it's left over
+  // from a slow patch that's now over, so we let it drift back down faster
+  private static final double RECOVERY_RATIO = 2.0;
+  private static final double RECOVERY_DECAY = 0.95;
+
+  private final int maxLimit;
+
+  // The current limit; only changed (under the lock) in `onSample()`
+  private volatile double limit;
+  // The long-running average latency, in nanoseconds (0 until the first
+  // request finishes)
+  private double longLatencyNanos = 0;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * Construct a limit that starts at `initialLimit`, and never goes above
+   * `maxLimit` (or below 1).
+   *
+   * @param initialLimit how many concurrent requests to allow to start with
+   * @param maxLimit the most concurrent requests ever to allow
+   */
+  public ConcurrencyLimit(int initialLimit, int maxLimit) {
+    this.maxLimit = maxLimit;
+    this.limit = Math.max(1, Math.min(initialLimit, maxLimit));
+  }
+
+  /**
+   * Take a permit for a request, if we're under the limit.
+   *
+   * @return how many requests were already running (to be handed back
+   *   to `release()`), or -1 if we're at the limit and the request should
+   *   be turned away
+   */
+  public int tryAcquire() {
+    while (true) {
+      int running = inFlight.get();
+      if (running >= (int) limit) {
+        rejected.increment();
+        return -1;
+      }
+      if (inFlight.compareAndSet(running, running + 1)) {
+        return running;
+      }
+    }
+  }
+
+  /**
+   * Give back the permit for a request that has finished, and learn from
+   * how long it took.
+   *
+   * @param latencyNanos how long the request took, in nanoseconds
+   * @param runningAtStart what `tryAcquire()` returned for this request
+   */
+  public void release(long latencyNanos, int runningAtStart) {
+    inFlight.decrementAndGet();
+    onSample(latencyNanos, runningAtStart + 1);
+  }
+
+  /**
+   * Adjust the limit given how long a request took, and how many requests
+   * (including it) were running when it started.
+   */
+  synchronized void onSample(long latencyNanos, int inFlightAtStart) {
+    double latency = Math.max(1, latencyNanos);
+    if (longLatencyNanos == 0) {
+      longLatencyNanos = latency;
+    } else {
+      longLatencyNanos += (latency - longLatencyNanos) * LONG_FACTOR;
+    }
+    if (longLatencyNanos / latency > RECOVERY_RATIO) {
+      longLatencyNanos *= RECOVERY_DECAY;
+    }
+
+    // With this few requests running, how long they took doesn't tell us
+    // anything about what would happen with more of them.
+    double current = limit;
+    if (inFlightAtStart < current / 2) {
+      return;
+    }
+
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longLatencyNanos / latency));
+    double estimate = current * gradient + Math.sqrt(current);
+    double smoothed = current * (1 - SMOOTHING) + estimate * SMOOTHING;
+    limit = Math.max(1, Math.min(maxLimit, smoothed));
+  }
+
+  /**
+   * Include this limit, how many requests are running, and how many have
+   * been turned away in the server's metrics.
+   *
+   * @param metrics the server's metrics
+   * @param name the start of the names of these metrics, e.g.,
+   *   `concurrency_reads`
+   */
+  public void registerMetrics(ServerMetrics metrics, String name) {
+    metrics.addGauge(name + "_limit", "How many " + name + " requests may run at once right now.", this::limit);
+    metrics.addGauge(name + "_in_flight", name + " requests running right now.", this::inFlight);
+    metrics.addCounter(name + "_rejected_total", name + " requests turned away for being over the limit.",
+      rejected::sum);
+  }
+
+  /**
+   * @return how many requests may be running at once right now
+   */
+  public int limit() {
+    return (int) limit;
+  }
+
+  /**
+   * @return how many requests are running right now
+   */
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return how many requests have been turned away for being over the limit
+   */
+  public long rejected() {
+    return rejected.sum();
+  }
+}
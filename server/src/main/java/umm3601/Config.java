@@ -0,0 +1,705 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Settings that tune how the server (and the controllers it hosts) behave.
+ *
+ * `Main` builds one of these from environment variables (see
+ * `Main.loadConfig()`), and hands it to the `Server` and to each
+ * `Controller`. Tests and other callers that don't care about any of
+ * this can just use `Config.defaults()`, which gives the same behavior
+ * the server has always had.
+ *
+ * A `Config` can't be changed once it's built; use `Config.builder()`
+ * to make a new one.
+ */
+public final class Config {
+
+  private static final Duration DEFAULT_TODO_CACHE_TTL = Duration.ofSeconds(60);
+  private static final int DEFAULT_BULK_INSERT_BATCH_SIZE = 1000;
+  private static final Duration DEFAULT_REGEX_TIME_LIMIT = Duration.ofSeconds(2);
+  private static final Duration DEFAULT_WRITE_BEHIND_MAX_DELAY = Duration.ofMillis(5);
+  private static final int DEFAULT_WRITE_BEHIND_QUEUE_CAPACITY = 10_000;
+  private static final int DEFAULT_INITIAL_CONCURRENCY_LIMIT = 20;
+  private static final int DEFAULT_RATE_LIMIT_BURST = 50;
+
+  // Whether Javalin should run request handlers on virtual threads
+  // instead of Jetty's (bounded) pool of platform threads.
+  private final boolean virtualThreads;
+
+  // Whether to watch for virtual threads being pinned to their carrier
+  // thread (using the JFR `jdk.VirtualThreadPinned` event).
+  private final boolean detectPinning;
+
+  // How many documents to ask MongoDB for at a time when streaming list
+  // results straight to the response; 0 turns streaming off.
+  private final int streamBatchSize;
+
+  // The most memory (in bytes) the cache of `GET /api/todo` results may
+  // use, and how long a result may stay in it; 0 bytes turns it off.
+  private final long todoCacheMaxBytes;
+  private final Duration todoCacheTtl;
+
+  // The MongoDB connection pool, timeout, and compression settings
+  private final MongoPoolConfig mongoPool;
+
+  // How many todos `POST /api/todo/bulk` sends to MongoDB per `insertMany`
+  private final int bulkInsertBatchSize;
+
+  // Whether to serve `GET /api/usersByCompany` from an in-memory copy of
+  // the groups (kept up to date as users are added and deleted).
+  private final boolean usersByCompanyView;
+
+  // Whether the controllers should read and write their documents with
+  // our own BSON codecs instead of through MongoJack (and so Jackson).
+  private final boolean bsonCodecs;
+
+  // Whether read endpoints should send documents straight from their BSON
+  // (see `RawJson`) instead of decoding them into objects first.
+  private final boolean rawJson;
+
+  // Whether read endpoints should tag their responses with ETags (see
+  // `CollectionVersion`), and answer `If-None-Match` with `304`s.
+  private final boolean etags;
+
+  // The most todos (and, separately, users) to keep in the by-ID caches
+  // (see `ByIdCache`); 0 turns them off.
+  private final long byIdCacheSize;
+
+  // How long MongoDB may spend on a query with a "real" regular expression
+  // in it (see `RegexPlan`); 0 lets it take as long as it likes.
+  private final Duration regexTimeLimit;
+
+  // How `POST /api/todo` batches up its inserts (see `GroupCommit`): the
+  // most todos per `insertMany` (0 turns batching off), the longest a
+  // todo may wait for its batch, and the most todos that may be waiting.
+  private final int writeBehindBatchSize;
+  private final Duration writeBehindMaxDelay;
+  private final int writeBehindQueueCapacity;
+
+  // Whether the todo and user endpoints should be served by the controllers
+  // built on MongoDB's reactive-streams driver instead of the sync one.
+  private final boolean reactiveDriver;
+
+  // Whether identical list reads that arrive while one is already running
+  // should share its result (see `SingleFlight`).
+  private final boolean coalesceReads;
+
+  // The most API reads (and, separately, writes) that may run at once
+  // (see `LoadShedder`), and what that limit starts at before it has
+  // learned anything; a most of 0 turns the limits off.
+  private final int maxConcurrencyLimit;
+  private final int initialConcurrencyLimit;
+
+  // How many tokens a second each client gets to spend on requests (see
+  // `RateLimiter`), and the most it can save up; 0 a second turns rate
+  // limiting off.
+  private final double rateLimitPerSecond;
+  private final int rateLimitBurst;
+
+  // The API keys (sent in `X-API-Key`) that clients may be rate limited
+  // by; a client sending any other key is rate limited by its IP address.
+  private final Set<String> rateLimitApiKeys;
+
+  private Config(Builder builder) {
+    this.virtualThreads = builder.virtualThreads;
+    this.detectPinning = builder.detectPinning;
+    this.streamBatchSize = builder.streamBatchSize;
+    this.todoCacheMaxBytes = builder.todoCacheMaxBytes;
+    this.todoCacheTtl = builder.todoCacheTtl;
+    this.mongoPool = builder.mongoPool;
+    this.bulkInsertBatchSize = builder.bulkInsertBatchSize;
+    this.usersByCompanyView = builder.usersByCompanyView;
+    this.bsonCodecs = builder.bsonCodecs;
+    this.rawJson = builder.rawJson;
+    this.etags = builder.etags;
+    this.byIdCacheSize = builder.byIdCacheSize;
+    this.regexTimeLimit = builder.regexTimeLimit;
+    this.writeBehindBatchSize = builder.writeBehindBatchSize;
+    this.writeBehindMaxDelay = builder.writeBehindMaxDelay;
+    this.writeBehindQueueCapacity = builder.writeBehindQueueCapacity;
+    this.reactiveDriver = builder.reactiveDriver;
+    this.coalesceReads = builder.coalesceReads;
+    this.maxConcurrencyLimit = builder.maxConcurrencyLimit;
+    this.initialConcurrencyLimit = builder.initialConcurrencyLimit;
+    this.rateLimitPerSecond = builder.rateLimitPerSecond;
+    this.rateLimitBurst = builder.rateLimitBurst;
+    this.rateLimitApiKeys = builder.rateLimitApiKeys;
+  }
+
+  /**
+   * Get a `Config` with all the default settings.
+   *
+   * @return a `Config` with all the default settings
+   */
+  public static Config defaults() {
+    return builder().build();
+  }
+
+  /**
+   * Get a `Builder` for constructing a `Config`, starting from the defaults.
+   *
+   * @return a new `Builder`
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return true if request handlers should run on virtual threads
+   */
+  public boolean useVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * @return true if we should log virtual threads that get pinned
+   *   to their carrier thread
+   */
+  public boolean detectPinning() {
+    return detectPinning;
+  }
+
+  /**
+   * @return the cursor batch size to use when streaming list results,
+   *   or 0 if list results shouldn't be streamed
+   */
+  public int streamBatchSize() {
+    return streamBatchSize;
+  }
+
+  /**
+   * @return the most memory (in bytes) the todo query cache may use,
+   *   or 0 if todo query results shouldn't be cached
+   */
+  public long todoCacheMaxBytes() {
+    return todoCacheMaxBytes;
+  }
+
+  /**
+   * @return how long a todo query result may be served from the cache
+   */
+  public Duration todoCacheTtl() {
+    return todoCacheTtl;
+  }
+
+  /**
+   * @return the MongoDB connection pool, timeout, and compression settings
+   */
+  public MongoPoolConfig mongoPool() {
+    return mongoPool;
+  }
+
+  /**
+   * @return how many todos a bulk insert sends to MongoDB at a time
+   */
+  public int bulkInsertBatchSize() {
+    return bulkInsertBatchSize;
+  }
+
+  /**
+   * @return true if users grouped by company should be served from memory
+   */
+  public boolean usersByCompanyView() {
+    return usersByCompanyView;
+  }
+
+  /**
+   * @return true if the controllers should use our own BSON codecs
+   *   instead of MongoJack
+   */
+  public boolean bsonCodecs() {
+    return bsonCodecs;
+  }
+
+  /**
+   * @return true if read endpoints should turn documents' BSON straight
+   *   into JSON
+   */
+  public boolean rawJson() {
+    return rawJson;
+  }
+
+  /**
+   * @return true if read endpoints should use ETags
+   */
+  public boolean etags() {
+    return etags;
+  }
+
+  /**
+   * @return the most todos (or users) to cache by ID, or 0 if they
+   *   shouldn't be cached
+   */
+  public long byIdCacheSize() {
+    return byIdCacheSize;
+  }
+
+  /**
+   * @return how long a query with a "real" regular expression in it may
+   *   run for, or 0 if there's no limit
+   */
+  public Duration regexTimeLimit() {
+    return regexTimeLimit;
+  }
+
+  /**
+   * @return the most new todos to insert at once, or 0 if each one
+   *   should be inserted as it arrives
+   */
+  public int writeBehindBatchSize() {
+    return writeBehindBatchSize;
+  }
+
+  /**
+   * @return the longest a new todo may wait for its batch to fill up
+   */
+  public Duration writeBehindMaxDelay() {
+    return writeBehindMaxDelay;
+  }
+
+  /**
+   * @return the most new todos that may be waiting to be inserted
+   */
+  public int writeBehindQueueCapacity() {
+    return writeBehindQueueCapacity;
+  }
+
+  /**
+   * @return true if the todo and user endpoints should use the
+   *   reactive-streams MongoDB driver
+   */
+  public boolean reactiveDriver() {
+    return reactiveDriver;
+  }
+
+  /**
+   * @return true if identical concurrent list reads should share one query
+   */
+  public boolean coalesceReads() {
+    return coalesceReads;
+  }
+
+  /**
+   * @return the most API reads (or writes) that may run at once, or 0 if
+   *   there's no limit
+   */
+  public int maxConcurrencyLimit() {
+    return maxConcurrencyLimit;
+  }
+
+  /**
+   * @return how many API reads (or writes) may run at once before the
+   *   limit has adjusted itself
+   */
+  public int initialConcurrencyLimit() {
+    return initialConcurrencyLimit;
+  }
+
+  /**
+   * @return how many tokens a second each client may spend on requests,
+   *   or 0 if clients' request rates aren't limited
+   */
+  public double rateLimitPerSecond() {
+    return rateLimitPerSecond;
+  }
+
+  /**
+   * @return the most tokens a client may save up
+   */
+  public int rateLimitBurst() {
+    return rateLimitBurst;
+  }
+
+  /**
+   * @return the API keys clients may be rate limited by (rather than by
+   *   their IP address)
+   */
+  public Set<String> rateLimitApiKeys() {
+    return rateLimitApiKeys;
+  }
+
+  /**
+   * Builder for `Config` objects. Every setting starts at its default
+   * value, so you only need to call the methods for the settings you
+   * want to change.
+   */
+  public static final class Builder {
+    private boolean virtualThreads = false;
+    private boolean detectPinning = false;
+    private int streamBatchSize = 0;
+    private long todoCacheMaxBytes = 0;
+    private Duration todoCacheTtl = DEFAULT_TODO_CACHE_TTL;
+    private MongoPoolConfig mongoPool = MongoPoolConfig.defaults();
+    private int bulkInsertBatchSize = DEFAULT_BULK_INSERT_BATCH_SIZE;
+    private boolean usersByCompanyView = false;
+    private boolean bsonCodecs = false;
+    private boolean rawJson = false;
+    private boolean etags = false;
+    private long byIdCacheSize = 0;
+    private Duration regexTimeLimit = DEFAULT_REGEX_TIME_LIMIT;
+    private int writeBehindBatchSize = 0;
+    private Duration writeBehindMaxDelay = DEFAULT_WRITE_BEHIND_MAX_DELAY;
+    private int writeBehindQueueCapacity = DEFAULT_WRITE_BEHIND_QUEUE_CAPACITY;
+    private boolean reactiveDriver = false;
+    private boolean coalesceReads = false;
+    private int maxConcurrencyLimit = 0;
+    private int initialConcurrencyLimit = DEFAULT_INITIAL_CONCURRENCY_LIMIT;
+    private double rateLimitPerSecond = 0;
+    private int rateLimitBurst = DEFAULT_RATE_LIMIT_BURST;
+    private Set<String> rateLimitApiKeys = Set.of();
+
+    private Builder() {
+    }
+
+    /**
+     * Run request handlers on virtual threads (`true`) or on Jetty's
+     * platform thread pool (`false`, the default).
+     *
+     * Our handlers spend almost all of their time blocked waiting on the
+     * (synchronous) MongoDB driver, so with platform threads we run out
+     * of Jetty threads long before we run out of CPU.
+     *
+     * @param enabled whether to use virtual threads
+     * @return this builder
+     */
+    public Builder virtualThreads(boolean enabled) {
+      this.virtualThreads = enabled;
+      return this;
+    }
+
+    /**
+     * Log (with a stack trace) any virtual thread that is pinned to its
+     * carrier thread for a noticeable amount of time.
+     *
+     * @param enabled whether to watch for pinned virtual threads
+     * @return this builder
+     */
+    public Builder detectPinning(boolean enabled) {
+      this.detectPinning = enabled;
+      return this;
+    }
+
+    /**
+     * Stream list results to the client as MongoDB hands them to us,
+     * fetching `batchSize` documents per round trip, instead of collecting
+     * every matching document into a list before serializing it.
+     *
+     * Streaming keeps memory use flat no matter how many documents match,
+     * at the cost of not being able to change the response (e.g., to an
+     * error) once we've started sending it. A batch size of 0 (the default)
+     * turns streaming off.
+     *
+     * @param batchSize the number of documents to fetch per round trip,
+     *   or 0 to turn streaming off
+     * @return this builder
+     */
+    public Builder streamBatchSize(int batchSize) {
+      if (batchSize < 0) {
+        throw new IllegalArgumentException("The stream batch size can't be negative; it was " + batchSize);
+      }
+      this.streamBatchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Cache the (serialized) results of `GET /api/todo` queries in memory,
+     * using at most `maxBytes` bytes, and keeping each result for at most
+     * `timeToLive`. Adding or deleting a todo throws out any cached results
+     * it could affect, so this server never serves stale results for its
+     * own changes. A `maxBytes` of 0 (the default) turns the cache off.
+     *
+     * @param maxBytes the most memory (in bytes) the cache may use, or 0
+     *   to turn the cache off
+     * @param timeToLive how long a result may be served from the cache
+     * @return this builder
+     */
+    public Builder todoCache(long maxBytes, Duration timeToLive) {
+      if (maxBytes < 0) {
+        throw new IllegalArgumentException("The todo cache size can't be negative; it was " + maxBytes);
+      }
+      this.todoCacheMaxBytes = maxBytes;
+      this.todoCacheTtl = timeToLive;
+      return this;
+    }
+
+    /**
+     * Use these connection pool, timeout, and compression settings for
+     * the MongoDB client (instead of the driver's defaults).
+     *
+     * @param poolConfig the MongoDB client settings to use
+     * @return this builder
+     */
+    public Builder mongoPool(MongoPoolConfig poolConfig) {
+      this.mongoPool = poolConfig;
+      return this;
+    }
+
+    /**
+     * Send bulk-inserted todos to MongoDB `batchSize` at a time (1000 by
+     * default). Bigger batches mean fewer round trips, but more todos held
+     * in memory (per request) while a batch is being collected.
+     *
+     * @param batchSize the number of todos to insert per round trip
+     * @return this builder
+     */
+    public Builder bulkInsertBatchSize(int batchSize) {
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("The bulk insert batch size must be at least 1; it was " + batchSize);
+      }
+      this.bulkInsertBatchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Serve `GET /api/usersByCompany` from an in-memory copy of the
+     * groups, which is loaded once and then kept up to date as this
+     * server adds and deletes users, instead of grouping the whole user
+     * collection on every request.
+     *
+     * Only turn this on if this server is the only thing changing the
+     * users, since it won't see anyone else's changes until it restarts.
+     *
+     * @param enabled whether to keep the groups in memory
+     * @return this builder
+     */
+    public Builder usersByCompanyView(boolean enabled) {
+      this.usersByCompanyView = enabled;
+      return this;
+    }
+
+    /**
+     * Read and write todos and users with hand-written BSON codecs (see
+     * `BsonCodecs`) instead of MongoJack, which turns every document into
+     * a stream of Jackson tokens and then fills in the object's fields
+     * by reflection.
+     *
+     * @param enabled whether to use our own codecs
+     * @return this builder
+     */
+    public Builder bsonCodecs(boolean enabled) {
+      this.bsonCodecs = enabled;
+      return this;
+    }
+
+    /**
+     * Have `GET /api/todo`, `GET /api/todo/{id}`, and `GET /api/users` send
+     * the documents they find as they are in the database, turning their
+     * BSON straight into JSON (see `RawJson`), instead of making a `Todo`
+     * or `User` out of each one and then serializing that.
+     *
+     * The JSON only has the fields each document actually has, with the
+     * types they were stored with, so only turn this on if the documents
+     * in the database are all well-formed.
+     *
+     * @param enabled whether to send documents straight from their BSON
+     * @return this builder
+     */
+    public Builder rawJson(boolean enabled) {
+      this.rawJson = enabled;
+      return this;
+    }
+
+    /**
+     * Tag the responses of the todo and user read endpoints with ETags
+     * that change whenever this server changes the todos (or users), and
+     * answer requests whose `If-None-Match` has the current tag with a
+     * `304 Not Modified`, without going to the database at all.
+     *
+     * Only turn this on if this server is the only thing changing the
+     * todos and users, since it can't see anyone else's changes.
+     *
+     * @param enabled whether to use ETags
+     * @return this builder
+     */
+    public Builder etags(boolean enabled) {
+      this.etags = enabled;
+      return this;
+    }
+
+    /**
+     * Cache up to `maxEntries` todos (and, separately, up to `maxEntries`
+     * users) in memory, so `GET /api/todo/{id}` and `GET /api/users/{id}`
+     * don't have to go to the database for the ones that are asked for
+     * most. Deleting a todo or user throws it out of the cache. A size of
+     * 0 (the default) turns the caches off.
+     *
+     * @param maxEntries the most documents each cache may hold, or 0 to
+     *   turn the caches off
+     * @return this builder
+     */
+    public Builder byIdCacheSize(long maxEntries) {
+      if (maxEntries < 0) {
+        throw new IllegalArgumentException("The by-ID cache size can't be negative; it was " + maxEntries);
+      }
+      this.byIdCacheSize = maxEntries;
+      return this;
+    }
+
+    /**
+     * Stop MongoDB from spending more than `timeLimit` (2 seconds by
+     * default) on a todo query whose `category` or `contains` is a "real"
+     * regular expression (see `RegexPlan`), rather than just a string.
+     * Those are the queries a client can make arbitrarily expensive. A
+     * time limit of 0 lets them run for as long as they take.
+     *
+     * @param timeLimit how long those queries may run for
+     * @return this builder
+     */
+    public Builder regexTimeLimit(Duration timeLimit) {
+      if (timeLimit.isNegative()) {
+        throw new IllegalArgumentException("The regex time limit can't be negative; it was " + timeLimit);
+      }
+      this.regexTimeLimit = timeLimit;
+      return this;
+    }
+
+    /**
+     * Have `POST /api/todo` add new todos in batches (see `GroupCommit`):
+     * each todo waits in a queue until `batchSize` todos are waiting, or
+     * it has waited `maxDelay`, and then they're all inserted at once. A
+     * request finishes once its todo has been inserted. When `capacity`
+     * todos are already waiting, new ones are turned away with a `503`.
+     * A batch size of 0 (the default) turns batching off.
+     *
+     * @param batchSize the most todos to insert at once, or 0 to turn
+     *   batching off
+     * @param maxDelay the longest a todo may wait for its batch to fill up
+     * @param capacity the most todos that may be waiting at once
+     * @return this builder
+     */
+    public Builder todoWriteBehind(int batchSize, Duration maxDelay, int capacity) {
+      if (batchSize < 0) {
+        throw new IllegalArgumentException("The write-behind batch size can't be negative; it was " + batchSize);
+      }
+      if (maxDelay.isNegative()) {
+        throw new IllegalArgumentException("The write-behind delay can't be negative; it was " + maxDelay);
+      }
+      if (capacity < batchSize) {
+        throw new IllegalArgumentException("The write-behind queue has to hold at least one batch; it holds "
+          + capacity + " todos, but a batch is " + batchSize);
+      }
+      this.writeBehindBatchSize = batchSize;
+      this.writeBehindMaxDelay = maxDelay;
+      this.writeBehindQueueCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * Serve the todo and user endpoints with `ReactiveTodoController` and
+     * `ReactiveUserController` (`true`), which use MongoDB's reactive-streams
+     * driver and don't hold a request thread while they wait on the
+     * database, or with the sync `TodoController` and `UserController`
+     * (`false`, the default).
+     *
+     * The reactive controllers answer the same routes with the same
+     * checks, except for `POST /api/todo/bulk` and the list endpoints'
+     * `ids`, paging, `fields`, and `withTotal` parameters (which they
+     * answer with a `400`). They also ignore the caching, ETag, raw JSON,
+     * streaming, and batching settings.
+     *
+     * @param enabled whether to use the reactive-streams driver
+     * @return this builder
+     */
+    public Builder reactiveDriver(boolean enabled) {
+      this.reactiveDriver = enabled;
+      return this;
+    }
+
+    /**
+     * Have identical `GET /api/todo`, `GET /api/users`, and
+     * `GET /api/usersByCompany` requests that arrive while the same query
+     * is already running wait for that query and share its (serialized)
+     * result, rather than each running their own (see `SingleFlight`).
+     * Results that are shared are never streamed.
+     *
+     * @param enabled whether to coalesce identical reads
+     * @return this builder
+     */
+    public Builder coalesceReads(boolean enabled) {
+      this.coalesceReads = enabled;
+      return this;
+    }
+
+    /**
+     * Limit how many API reads, and separately how many writes, may run at
+     * once, turning the rest away with a `503` (see `LoadShedder`). Each
+     * limit starts at `initialLimit` and then adjusts itself (up to
+     * `maxLimit`) to how long requests are taking, so it drops when
+     * MongoDB slows down. A most of 0 (the default) turns the limits off.
+     *
+     * @param initialLimit how many reads (or writes) may run at once to
+     *   start with
+     * @param maxLimit the most reads (or writes) that may ever run at once,
+     *   or 0 for no limit
+     * @return this builder
+     */
+    public Builder concurrencyLimit(int initialLimit, int maxLimit) {
+      if (maxLimit < 0) {
+        throw new IllegalArgumentException("The concurrency limit can't be negative; it was " + maxLimit);
+      }
+      if (maxLimit > 0 && (initialLimit < 1 || initialLimit > maxLimit)) {
+        throw new IllegalArgumentException("The initial concurrency limit has to be between 1 and "
+          + maxLimit + "; it was " + initialLimit);
+      }
+      this.initialConcurrencyLimit = initialLimit;
+      this.maxConcurrencyLimit = maxLimit;
+      return this;
+    }
+
+    /**
+     * Limit how fast each client (by a known API key, or else by IP
+     * address) may make requests, turning the rest away with a `429` (see
+     * `RateLimiter`). Each client gets `tokensPerSecond` tokens a second
+     * and may save up to `burst` of them; most requests cost one token,
+     * and expensive ones (like `GET /api/usersByCompany`) cost more. A
+     * rate of 0 (the default) turns rate limiting off.
+     *
+     * @param tokensPerSecond how many tokens each client gets a second,
+     *   or 0 for no limit
+     * @param burst the most tokens a client may save up
+     * @return this builder
+     */
+    public Builder rateLimit(double tokensPerSecond, int burst) {
+      if (!(tokensPerSecond >= 0) || Double.isInfinite(tokensPerSecond)) {
+        throw new IllegalArgumentException("The rate limit has to be a number of at least 0; it was "
+          + tokensPerSecond);
+      }
+      if (burst < 1) {
+        throw new IllegalArgumentException("The rate limit burst has to be at least 1; it was " + burst);
+      }
+      this.rateLimitPerSecond = tokensPerSecond;
+      this.rateLimitBurst = burst;
+      return this;
+    }
+
+    /**
+     * Rate limit clients that send one of `apiKeys` in their `X-API-Key`
+     * header by that key, wherever they're connecting from (see
+     * `RateLimiter`). Clients that send no key, or any other key, are
+     * rate limited by their IP address. By default there are no keys.
+     *
+     * @param apiKeys the API keys clients may be rate limited by
+     * @return this builder
+     */
+    public Builder rateLimitApiKeys(Collection<String> apiKeys) {
+      for (String apiKey : apiKeys) {
+        if (apiKey == null || apiKey.isBlank()) {
+          throw new IllegalArgumentException("Rate limit API keys can't be blank");
+        }
+      }
+      this.rateLimitApiKeys = Set.copyOf(apiKeys);
+      return this;
+    }
+
+    /**
+     * @return a `Config` with the settings given to this builder
+     */
+    public Config build() {
+      return new Config(this);
+    }
+  }
+}
@@ -21,7 +21,9 @@ import io.javalin.Javalin;
  * Note that this interface definition is _complete_ and you shouldn't need to
  * add anything to it. You just need to make sure that any new controllers
  * you implement also implement this interface, providing their own `addRoutes()`
- * method.
+ * method (and, if their queries need indexes, their own `reconcileIndexes()`,
+ * if they have metrics of their own, their own `registerMetrics()`, and if
+ * some of their routes are expensive, their own `registerRequestCosts()`).
  */
 public interface Controller {
   /**
@@ -35,4 +37,42 @@ public interface Controller {
    * @param server The Javalin server to add routes to
    */
   void addRoutes(Javalin server);
+
+  /**
+   * Make sure the database has the indexes this controller's queries need.
+   *
+   * The server calls this (in the background) once it has started, so
+   * building indexes on a big collection doesn't hold up the server. A
+   * controller whose queries need indexes should override this to pass
+   * the indexes it declares to `IndexReconciler.reconcile()`. By default
+   * a controller doesn't need any.
+   */
+  default void reconcileIndexes() {
+  }
+
+  /**
+   * Add this controller's own numbers (e.g., how well its caches are
+   * doing) to the server's metrics.
+   *
+   * The server calls this once, before it starts taking requests. By
+   * default a controller doesn't have any metrics of its own.
+   *
+   * @param metrics the server's metrics
+   */
+  default void registerMetrics(ServerMetrics metrics) {
+  }
+
+  /**
+   * Tell the server's rate limiter which of this controller's routes cost
+   * more (or less) than the default of one token a request (see
+   * `RateLimiter`).
+   *
+   * The server calls this once, before it starts taking requests, if it's
+   * limiting clients' request rates. By default every route costs the
+   * same.
+   *
+   * @param rateLimiter the server's rate limiter
+   */
+  default void registerRequestCosts(RateLimiter rateLimiter) {
+  }
 }
@@ -0,0 +1,72 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Projections;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Lets clients of list endpoints ask for just some of the fields of each
+ * result, e.g., `?fields=owner,status`.
+ *
+ * The fields become a MongoDB projection, so the fields that weren't
+ * asked for are never read, sent to us, or serialized. Results with only
+ * some of their fields can't be turned into (say) `Todo`s without making
+ * up values for the rest, so projected results are always sent straight
+ * from their BSON (see `RawJson`). `_id` is always included.
+ */
+public final class FieldProjection {
+
+  public static final String FIELDS_KEY = "fields";
+
+  private FieldProjection() {
+  }
+
+  /**
+   * Work out which fields (if any) the client asked for.
+   *
+   * @param ctx a Javalin HTTP context, which contains the `fields` query
+   *   parameter (if any)
+   * @param allowedFields the fields clients may ask for
+   * @return the projection for the requested fields, or `null` if the
+   *   client didn't ask for particular fields
+   * @throws BadRequestResponse if the client asked for a field that isn't
+   *   one of `allowedFields`, or for no fields at all
+   */
+  public static Bson fromContext(Context ctx, List<String> allowedFields) {
+    String fields = ctx.queryParam(FIELDS_KEY);
+    if (fields == null) {
+      return null;
+    }
+
+    // Sorted, so asking for the same fields in a different order gives the
+    // same projection (the fields come back in the document's order anyway).
+    Set<String> requested = new TreeSet<>();
+    for (String field : fields.split(",")) {
+      String trimmed = field.trim();
+      if (!allowedFields.contains(trimmed)) {
+        throw new BadRequestResponse("Unknown field '" + trimmed + "'; fields must be from " + allowedFields);
+      }
+      requested.add(trimmed);
+    }
+    return Projections.include(new ArrayList<>(requested));
+  }
+
+  /**
+   * Describe a projection, for use in cache keys and the like.
+   *
+   * @param projection the projection (as given by `fromContext()`), or `null`
+   * @return a string that's the same for two projections exactly when
+   *   they ask for the same fields
+   */
+  public static String describe(Bson projection) {
+    return projection == null ? "all" : projection.toBsonDocument().toJson();
+  }
+}
@@ -0,0 +1,183 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+
+/**
+ * Write-behind batching ("group commit") for single-document inserts.
+ *
+ * Instead of each request doing its own `insertOne` (one round trip to
+ * MongoDB, and one journal write, per document), requests `submit()`
+ * their documents to a queue, and a single flusher thread writes them
+ * out with one `insertMany` whenever `maxBatchSize` documents are
+ * waiting or the oldest has waited `maxDelay`, whichever comes first.
+ * Each request finishes when the batch its document was in has been
+ * written (or has failed), so a client is never told a document was
+ * added before it has been.
+ *
+ * The queue is a (lock-free) `ConcurrentLinkedQueue`, bounded by a
+ * separate count of the documents in it; `submit()` returns `null`
+ * rather than waiting when it's full, so a burst of writes can't pile
+ * up an unbounded number of waiting requests.
+ *
+ * Documents need their `_id` set before they're submitted, since the
+ * caller usually wants to tell the client what it is, and we can't wait
+ * for the database to make one up.
+ *
+ * @param <T> the type of the documents
+ */
+public final class GroupCommit<T> {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommit.class);
+
+  // A submitted document and the future for the request waiting on it
+  private record Entry<T>(T document, long submittedAt, CompletableFuture<Void> written) {
+  }
+
+  private final Consumer<List<T>> write;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+  private final int capacity;
+
+  private final Queue<Entry<T>> queue = new ConcurrentLinkedQueue<>();
+  // How many documents are in `queue` (which doesn't keep count itself)
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Thread flusher;
+
+  /**
+   * Start batching documents, writing them with `write`.
+   *
+   * @param name the name of the flusher thread
+   * @param write writes a batch of documents (e.g., with an unordered
+   *   `insertMany`); if it throws a `MongoBulkWriteException`, only the
+   *   documents it lists errors for are taken to have failed
+   * @param maxBatchSize the most documents to write at once
+   * @param maxDelay the longest a document may wait for its batch to fill up
+   * @param capacity the most documents that may be waiting at once
+   */
+  public GroupCommit(String name, Consumer<List<T>> write, int maxBatchSize, Duration maxDelay, int capacity) {
+    this.write = write;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = maxDelay.toNanos();
+    this.capacity = capacity;
+    this.flusher = Thread.ofPlatform().name(name).daemon().start(this::flushForever);
+  }
+
+  /**
+   * Add `document` to the next batch.
+   *
+   * @param document the document to write, with its `_id` already set
+   * @return a future that completes once the document has been written
+   *   (or completes exceptionally if writing it failed), or `null` if
+   *   the queue is full and the document wasn't accepted
+   */
+  public CompletableFuture<Void> submit(T document) {
+    int waiting = pending.incrementAndGet();
+    if (waiting > capacity) {
+      pending.decrementAndGet();
+      return null;
+    }
+    Entry<T> entry = new Entry<>(document, System.nanoTime(), new CompletableFuture<>());
+    queue.add(entry);
+    // Wake the flusher for every document: `waiting` counts documents
+    // that other requests haven't added to the queue yet, so the flusher
+    // may have found the queue empty (and gone to sleep) after we counted
+    // ours, and only waking it for, say, the first document could leave
+    // this one waiting forever. Unparking a thread that's awake is cheap.
+    LockSupport.unpark(flusher);
+    return entry.written();
+  }
+
+  /**
+   * @return how many documents are waiting to be written
+   */
+  public int pending() {
+    return pending.get();
+  }
+
+  private void flushForever() {
+    while (true) {
+      Entry<T> oldest = queue.peek();
+      if (oldest == null) {
+        LockSupport.park(this);
+        continue;
+      }
+      long wait = oldest.submittedAt() + maxDelayNanos - System.nanoTime();
+      if (pending.get() < maxBatchSize && wait > 0) {
+        LockSupport.parkNanos(this, wait);
+        continue;
+      }
+      flush();
+    }
+  }
+
+  /**
+   * Write (up to) one batch of the waiting documents, and let each of
+   * their requests know how it went.
+   */
+  private void flush() {
+    List<Entry<T>> batch = new ArrayList<>(maxBatchSize);
+    while (batch.size() < maxBatchSize) {
+      Entry<T> entry = queue.poll();
+      if (entry == null) {
+        break;
+      }
+      batch.add(entry);
+    }
+    pending.addAndGet(-batch.size());
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    List<T> documents = new ArrayList<>(batch.size());
+    batch.forEach(waiting -> documents.add(waiting.document()));
+    Set<Integer> failed = new HashSet<>();
+    Throwable failure = null;
+    try {
+      write.accept(documents);
+    } catch (MongoBulkWriteException e) {
+      failure = e;
+      for (BulkWriteError error : e.getWriteErrors()) {
+        failed.add(error.getIndex());
+      }
+      // A write concern error means we can't tell which writes stuck
+      if (e.getWriteConcernError() != null) {
+        failed.clear();
+        for (int i = 0; i < batch.size(); i++) {
+          failed.add(i);
+        }
+      }
+    } catch (Throwable e) {
+      // Even an `Error` only fails this batch; the flusher is the only
+      // thread writing these documents, so it has to keep going.
+      LOGGER.warn("Couldn't write a batch of {} documents", batch.size(), e);
+      failure = e;
+      for (int i = 0; i < batch.size(); i++) {
+        failed.add(i);
+      }
+    }
+
+    for (int i = 0; i < batch.size(); i++) {
+      if (failed.contains(i)) {
+        batch.get(i).written().completeExceptionally(failure);
+      } else {
+        batch.get(i).written().complete(null);
+      }
+    }
+  }
+}
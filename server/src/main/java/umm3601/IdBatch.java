@@ -0,0 +1,147 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.in;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A request for a batch of documents by ID, e.g., `GET /api/todo?ids=a,b,c`,
+ * for clients that would otherwise ask for each of them separately (like
+ * our UI does for lists of linked todos).
+ *
+ * All of the documents that aren't in the controller's by-ID cache (see
+ * `ByIdCache`), if it has one, are found with a single `$in` query, so a
+ * batch costs one round trip to the database however big it is. The
+ * response is `{"items": [...], "missing": [...]}`, with the documents
+ * in the order their IDs were asked for (leaving out repeats), and the
+ * IDs of any that don't exist in `missing`.
+ */
+public final class IdBatch {
+
+  // The query parameter with the (comma-separated) IDs
+  public static final String IDS_KEY = "ids";
+
+  // The most IDs a client can ask for at once
+  static final int MAX_IDS = 100;
+
+  /**
+   * The documents in a batch.
+   *
+   * @param <T> the type of the documents
+   * @param items the documents that exist, in the order they were asked for
+   * @param missing the IDs of the documents that don't exist
+   */
+  public record Result<T>(List<T> items, List<String> missing) {
+  }
+
+  private final List<ObjectId> ids;
+
+  private IdBatch(List<ObjectId> ids) {
+    this.ids = ids;
+  }
+
+  /**
+   * Get the batch of IDs the client asked for.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the batch, or `null` if the client didn't ask for one
+   * @throws BadRequestResponse if any of the IDs aren't legal `ObjectId`s,
+   *   there are too many of them, or there are other query parameters
+   *   (like filters) that a batch can't honor
+   */
+  public static IdBatch fromContext(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(IDS_KEY)) {
+      return null;
+    }
+    if (ctx.queryParamMap().size() > 1) {
+      throw new BadRequestResponse("Asking for " + IDS_KEY + " can't be combined with other query parameters");
+    }
+
+    Set<ObjectId> ids = new LinkedHashSet<>();
+    for (String id : ctx.queryParam(IDS_KEY).split(",")) {
+      String trimmed = id.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      ObjectId objectId = RequestChecks.objectId(trimmed);
+      if (objectId == null) {
+        throw new BadRequestResponse("'" + trimmed + "' isn't a legal Mongo Object ID.");
+      }
+      ids.add(objectId);
+    }
+    if (ids.size() > MAX_IDS) {
+      throw new BadRequestResponse("You can ask for at most " + MAX_IDS + " " + IDS_KEY
+        + " at a time; you asked for " + ids.size());
+    }
+    return new IdBatch(new ArrayList<>(ids));
+  }
+
+  /**
+   * @return the IDs in this batch, in the order they were asked for
+   */
+  public List<ObjectId> ids() {
+    return ids;
+  }
+
+  /**
+   * Find the documents in this batch.
+   *
+   * @param <T> the type of the documents
+   * @param collection the collection to find the documents in
+   * @param idOf gets the (hex string) `_id` of a document
+   * @param cache the by-ID cache to check first, or `null` if there isn't one
+   * @return the documents that exist, and the IDs of those that don't
+   */
+  public <T> Result<T> find(MongoCollection<T> collection, Function<T, String> idOf, ByIdCache<T> cache) {
+    Function<List<ObjectId>, Map<ObjectId, T>> lookup = uncached -> {
+      Map<ObjectId, T> found = new HashMap<>();
+      for (T document : collection.find(in("_id", uncached))) {
+        found.put(new ObjectId(idOf.apply(document)), document);
+      }
+      return found;
+    };
+    Map<ObjectId, T> found = ids.isEmpty() ? Map.of()
+      : cache == null ? lookup.apply(ids) : cache.getAll(ids, lookup);
+
+    List<T> items = new ArrayList<>(found.size());
+    List<String> missing = new ArrayList<>();
+    for (ObjectId id : ids) {
+      T document = found.get(id);
+      if (document == null) {
+        missing.add(id.toHexString());
+      } else {
+        items.add(document);
+      }
+    }
+    return new Result<>(items, missing);
+  }
+
+  /**
+   * Set the JSON body of the response to be the documents in this batch
+   * (see `find()`).
+   *
+   * @param <T> the type of the documents
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to find the documents in
+   * @param idOf gets the (hex string) `_id` of a document
+   * @param cache the by-ID cache to check first, or `null` if there isn't one
+   */
+  public <T> void respond(Context ctx, MongoCollection<T> collection, Function<T, String> idOf, ByIdCache<T> cache) {
+    ctx.json(find(collection, idOf, cache));
+    ctx.status(HttpStatus.OK);
+  }
+}
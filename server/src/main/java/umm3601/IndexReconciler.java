@@ -0,0 +1,159 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * Makes a collection's indexes match the indexes a controller declares.
+ *
+ * Each controller lists the indexes its queries need (as `IndexModel`s,
+ * each with a name), and `reconcile()` compares that list with the
+ * indexes the collection actually has:
+ *   - A declared index that's missing is built.
+ *   - A declared index whose name is taken by an index with different
+ *     keys or options is dropped and rebuilt with the declared ones.
+ *   - A declared index that already exists (under any name) is left alone.
+ *
+ * Indexes that aren't declared are never dropped, since something other
+ * than this server (a person, or another app) may be relying on them.
+ */
+public final class IndexReconciler {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexReconciler.class);
+
+  // How a text index marks its fields when it's declared, and the keys
+  // MongoDB lists it with instead
+  private static final BsonString TEXT = new BsonString("text");
+  private static final String TEXT_KEY = "_fts";
+  private static final String TEXT_INDEX_VERSION_KEY = "_ftsx";
+
+  private IndexReconciler() {
+  }
+
+  /**
+   * Build (or rebuild) any of the `declared` indexes that `collection`
+   * doesn't already have.
+   *
+   * This can take a while on a big collection, so it's best not to call
+   * it anywhere that's waiting on it.
+   *
+   * @param collection the collection to check the indexes of
+   * @param declared the indexes the collection should have; each must
+   *   have a name (set with `IndexOptions.name()`)
+   * @return the names of the indexes that were built
+   */
+  public static List<String> reconcile(MongoCollection<?> collection, List<IndexModel> declared) {
+    Map<String, String> existingByName = new HashMap<>();
+    Set<String> existingSpecs = new HashSet<>();
+    for (Document index : collection.listIndexes()) {
+      String spec = existingSpec(index);
+      existingByName.put(index.getString("name"), spec);
+      existingSpecs.add(spec);
+    }
+
+    List<IndexModel> toBuild = new ArrayList<>();
+    List<String> builtNames = new ArrayList<>();
+    for (IndexModel index : declared) {
+      IndexOptions options = index.getOptions();
+      String name = options.getName();
+      if (name == null) {
+        throw new IllegalArgumentException("Declared index " + index.getKeys() + " on "
+          + collection.getNamespace() + " must have a name");
+      }
+      String spec = declaredSpec(index);
+      if (existingSpecs.contains(spec)) {
+        continue;
+      }
+      if (existingByName.containsKey(name)) {
+        LOGGER.info("Index {} on {} doesn't match its declaration; rebuilding it", name, collection.getNamespace());
+        collection.dropIndex(name);
+      }
+      toBuild.add(index);
+      builtNames.add(name);
+    }
+
+    if (!toBuild.isEmpty()) {
+      LOGGER.info("Building indexes {} on {}", builtNames, collection.getNamespace());
+      collection.createIndexes(toBuild);
+    }
+    return builtNames;
+  }
+
+  /**
+   * Describe an index we've declared (see `spec()`).
+   *
+   * @param index the declared index
+   * @return a description of the index's keys and options
+   */
+  private static String declaredSpec(IndexModel index) {
+    BsonDocument keys = new BsonDocument();
+    Set<String> textFields = new TreeSet<>();
+    index.getKeys().toBsonDocument().forEach((field, direction) -> {
+      if (direction.equals(TEXT)) {
+        textFields.add(field);
+      } else {
+        keys.append(field, direction);
+      }
+    });
+    IndexOptions options = index.getOptions();
+    return spec(keys, textFields, options.getPartialFilterExpression(), options.isUnique());
+  }
+
+  /**
+   * Describe an index that's in the database (see `spec()`).
+   *
+   * MongoDB doesn't list a text index with the keys it was declared with:
+   * all the text fields are folded into the special `_fts` and `_ftsx` keys,
+   * and the fields themselves are listed in the index's `weights`.
+   *
+   * @param index the index, as given by `listIndexes()`
+   * @return a description of the index's keys and options
+   */
+  private static String existingSpec(Document index) {
+    BsonDocument keys = new BsonDocument();
+    index.get("key", Document.class).toBsonDocument().forEach((field, direction) -> {
+      if (!field.equals(TEXT_KEY) && !field.equals(TEXT_INDEX_VERSION_KEY)) {
+        keys.append(field, direction);
+      }
+    });
+    Document weights = index.get("weights", Document.class);
+    Set<String> textFields = weights == null ? Set.of() : new TreeSet<>(weights.keySet());
+    return spec(keys, textFields,
+      index.get("partialFilterExpression", Document.class), index.getBoolean("unique", false));
+  }
+
+  /**
+   * Describe an index in a way that lets us tell whether two indexes
+   * are the same. (The order of the keys matters, so this compares the
+   * JSON of the key documents rather than the documents themselves.)
+   *
+   * @param keys the index's (non-text) keys
+   * @param textFields the (sorted) fields of the index's text key, if any
+   * @param partialFilter the index's partial filter expression, or `null`
+   * @param unique whether the index is unique
+   * @return a string that's the same for two indexes exactly when they
+   *   have the same keys and options
+   */
+  private static String spec(BsonDocument keys, Set<String> textFields, Bson partialFilter, boolean unique) {
+    return keys.toJson()
+      + " text " + textFields
+      + " partial " + (partialFilter == null ? "none" : partialFilter.toBsonDocument().toJson())
+      + " unique " + unique;
+  }
+}
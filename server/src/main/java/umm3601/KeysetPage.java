@@ -0,0 +1,255 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Sorts;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Keyset (a.k.a. "cursor-based") pagination for list endpoints.
+ *
+ * Instead of skipping over the first N results (which makes MongoDB walk
+ * past all N of them, so deep pages get slower and slower), each page
+ * ends with an opaque "page token" that records the sort value and `_id`
+ * of the last result on that page. The next page is then just "the
+ * results that sort *after* that (value, `_id`) pair", which MongoDB can
+ * jump straight to, so every page costs about the same as the first one.
+ *
+ * Clients ask for a page with the `pageSize` query parameter, and get
+ * the following page by passing the token from the `X-Next-Page-Token`
+ * response header back as the `pageToken` query parameter. When there
+ * are no more results, the response doesn't include that header.
+ *
+ * Paging is only allowed on fields that have a consistent type across
+ * the collection, since MongoDB's range queries only compare values of
+ * the same type.
+ *
+ * @param <T> the type of the documents being paged through
+ */
+public final class KeysetPage<T> {
+
+  public static final String PAGE_SIZE_KEY = "pageSize";
+  public static final String PAGE_TOKEN_KEY = "pageToken";
+  public static final String NEXT_PAGE_TOKEN_HEADER = "X-Next-Page-Token";
+
+  // The largest page we're willing to hand back, no matter what the
+  // client asks for, and the page size we use if they don't say.
+  public static final int MAX_PAGE_SIZE = 1000;
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  // The keys used inside the (encoded) page token
+  private static final String TOKEN_FIELD = "f";
+  private static final String TOKEN_ORDER = "o";
+  private static final String TOKEN_VALUE = "v";
+  private static final String TOKEN_ID = "id";
+
+  private final String sortField;
+  private final boolean descending;
+  private final int pageSize;
+  private final Function<T, Object> sortValue;
+  private final Function<T, String> idOf;
+
+  // The (sort value, `_id`) of the last result on the previous page, or
+  // a `null` `afterId` if this is the first page.
+  private final Object afterValue;
+  private final ObjectId afterId;
+
+  private KeysetPage(String sortField, boolean descending, int pageSize,
+      Function<T, Object> sortValue, Function<T, String> idOf, Object afterValue, ObjectId afterId) {
+    this.sortField = sortField;
+    this.descending = descending;
+    this.pageSize = pageSize;
+    this.sortValue = sortValue;
+    this.idOf = idOf;
+    this.afterValue = afterValue;
+    this.afterId = afterId;
+  }
+
+  /**
+   * Work out which page (if any) the client asked for.
+   *
+   * @param <T> the type of the documents being paged through
+   * @param ctx a Javalin HTTP context, which contains the `pageSize`
+   *   and `pageToken` query parameters (if any)
+   * @param sortField the field the results are being sorted by
+   * @param descending whether the results are sorted in descending order
+   * @param sortableFields the fields we can page on, each mapped to a
+   *   function that gets that field's value from a result
+   * @param idOf a function that gets a result's `_id` (as a hex string)
+   * @return the requested page, or `null` if the client didn't ask for
+   *   paged results
+   */
+  public static <T> KeysetPage<T> fromContext(Context ctx, String sortField, boolean descending,
+      Map<String, Function<T, Object>> sortableFields, Function<T, String> idOf) {
+    Map<String, List<String>> queryParams = ctx.queryParamMap();
+    if (!queryParams.containsKey(PAGE_SIZE_KEY) && !queryParams.containsKey(PAGE_TOKEN_KEY)) {
+      return null;
+    }
+
+    Function<T, Object> sortValue = sortableFields.get(sortField);
+    if (sortValue == null) {
+      throw new BadRequestResponse("Results can't be paged when sorted by " + sortField
+        + "; they can be paged when sorted by one of " + sortableFields.keySet());
+    }
+
+    int pageSize = DEFAULT_PAGE_SIZE;
+    if (queryParams.containsKey(PAGE_SIZE_KEY)) {
+      pageSize = ctx.queryParamAsClass(PAGE_SIZE_KEY, Integer.class)
+        .check(it -> it > 0, "The page size must be greater than zero")
+        .check(it -> it <= MAX_PAGE_SIZE, "The page size must be at most " + MAX_PAGE_SIZE)
+        .get();
+    }
+
+    String token = ctx.queryParam(PAGE_TOKEN_KEY);
+    if (token == null || token.isEmpty()) {
+      return new KeysetPage<>(sortField, descending, pageSize, sortValue, idOf, null, null);
+    }
+
+    Document decoded = decode(token);
+    if (!sortField.equals(decoded.getString(TOKEN_FIELD))
+        || descending != decoded.getBoolean(TOKEN_ORDER, false)) {
+      throw new BadRequestResponse("The page token is for a differently sorted list of results");
+    }
+    return new KeysetPage<>(sortField, descending, pageSize, sortValue, idOf,
+      decoded.get(TOKEN_VALUE), decoded.getObjectId(TOKEN_ID));
+  }
+
+  /**
+   * Set the JSON body of the response to be this page of the results
+   * from `collection` that match `filter`, and (if there are more
+   * results) set the `X-Next-Page-Token` header to the token for the
+   * next page.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to get the results from
+   * @param filter the filter built from the client's other query parameters
+   */
+  public void respond(Context ctx, MongoCollection<T> collection, Bson filter) {
+    respond(ctx, collection, filter, 0);
+  }
+
+  /**
+   * Like `respond(ctx, collection, filter)`, but with a limit on how long
+   * MongoDB may spend finding the page.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to get the results from
+   * @param filter the filter built from the client's other query parameters
+   * @param maxTimeMillis how long the query may run for (0 for no limit)
+   */
+  public void respond(Context ctx, MongoCollection<T> collection, Bson filter, long maxTimeMillis) {
+    List<T> results = collection
+      .find(filter(filter))
+      .sort(sort())
+      .limit(pageSize)
+      .maxTime(maxTimeMillis, TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>());
+
+    String nextPageToken = nextPageToken(results);
+    if (nextPageToken != null) {
+      ctx.header(NEXT_PAGE_TOKEN_HEADER, nextPageToken);
+    }
+    ctx.json(results);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * @return the maximum number of results on this page
+   */
+  public int pageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Narrow `filter` down to just the results that come after the previous page.
+   *
+   * @param filter the filter built from the client's other query parameters
+   * @return a filter that matches the same results as `filter`, but only
+   *   those on or after this page
+   */
+  public Bson filter(Bson filter) {
+    if (afterId == null) {
+      return filter;
+    }
+
+    Bson sameValueLaterId = and(eq(sortField, afterValue), descending ? lt("_id", afterId) : gt("_id", afterId));
+    Bson range;
+    if (afterValue == null) {
+      // `null` (or missing) values sort before everything else, so after
+      // a `null` an ascending sort moves on to all the non-null values,
+      // while a descending sort has only the remaining `null`s left.
+      range = descending ? sameValueLaterId : or(sameValueLaterId, ne(sortField, null));
+    } else if (descending) {
+      range = or(lt(sortField, afterValue), sameValueLaterId, eq(sortField, null));
+    } else {
+      range = or(gt(sortField, afterValue), sameValueLaterId);
+    }
+    return and(filter, range);
+  }
+
+  /**
+   * The sort order for paged results. We break ties on `_id` so that
+   * every result has a distinct position, which is what lets us say
+   * exactly where the previous page stopped.
+   *
+   * @return a Bson sorting document for the paged results
+   */
+  public Bson sort() {
+    return descending
+      ? Sorts.descending(sortField, "_id")
+      : Sorts.ascending(sortField, "_id");
+  }
+
+  /**
+   * Get the token for the page after this one.
+   *
+   * @param results the results on this page
+   * @return the token for the next page, or `null` if this is the last page
+   */
+  public String nextPageToken(List<T> results) {
+    if (results.size() < pageSize) {
+      return null;
+    }
+    T last = results.get(results.size() - 1);
+    Document token = new Document(TOKEN_FIELD, sortField)
+      .append(TOKEN_ORDER, descending)
+      .append(TOKEN_VALUE, sortValue.apply(last))
+      .append(TOKEN_ID, new ObjectId(idOf.apply(last)));
+    return Base64.getUrlEncoder().withoutPadding()
+      .encodeToString(token.toJson().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Document decode(String token) {
+    try {
+      Document decoded = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+      if (decoded.getObjectId(TOKEN_ID) == null || decoded.getString(TOKEN_FIELD) == null) {
+        throw new BadRequestResponse("The page token isn't one we handed out");
+      }
+      return decoded;
+    } catch (IllegalArgumentException | JsonParseException | ClassCastException e) {
+      throw new BadRequestResponse("The page token isn't one we handed out");
+    }
+  }
+}
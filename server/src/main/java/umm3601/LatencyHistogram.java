@@ -0,0 +1,136 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies (in microseconds), in the style of
+ * an HDR histogram.
+ *
+ * Values below 64 each get their own bucket. Above that, each power of
+ * two is split into 32 equal buckets, so every recorded value is off by
+ * at most about 3% from the bucket it lands in, while the whole range
+ * from 1 microsecond to about 19 hours fits in roughly a thousand buckets.
+ *
+ * Recording a value is just a couple of atomic increments: no locks and
+ * no allocation. That makes it cheap enough to leave on for every
+ * request in production. Reading percentiles walks all the buckets, but
+ * that only happens when someone asks for the metrics.
+ */
+public final class LatencyHistogram {
+
+  // Each power of two is split into 2^SUB_BUCKET_BITS buckets
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  // Values below this each get their own bucket
+  private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+
+  // The largest value we keep track of precisely; anything bigger is
+  // counted as this (2^36 microseconds is about 19 hours).
+  private static final int MAX_EXPONENT = 36;
+  private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+  private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder totalCount = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+
+  /**
+   * Record a single latency.
+   *
+   * @param micros the latency in microseconds
+   */
+  public void record(long micros) {
+    long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.increment();
+    totalMicros.add(value);
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long count() {
+    return totalCount.sum();
+  }
+
+  /**
+   * @return the sum of all the latencies recorded, in microseconds
+   */
+  public long sumMicros() {
+    return totalMicros.sum();
+  }
+
+  /**
+   * Get (an upper bound on) the latency that `fraction` of the recorded
+   * latencies are at or below. For example, `percentile(0.99)` is the
+   * p99 latency.
+   *
+   * Since other threads may be recording while we read, this is only
+   * as consistent as a single pass over the buckets can be, which is
+   * plenty for monitoring.
+   *
+   * @param fraction the fraction (between 0 and 1) of latencies
+   * @return the latency (in microseconds) at that percentile, or 0 if
+   *   nothing has been recorded
+   */
+  public long percentile(double fraction) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long target = Math.max(1, (long) Math.ceil(fraction * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= target) {
+        return highestValueIn(i);
+      }
+    }
+    return MAX_VALUE;
+  }
+
+  /**
+   * Work out which bucket a value belongs in.
+   *
+   * @param value a (non-negative, at most `MAX_VALUE`) latency
+   * @return the index of the bucket for that value
+   */
+  static int bucketIndex(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    // `exponent` is the position of the highest set bit; we then keep the
+    // SUB_BUCKET_BITS bits just below it to pick the bucket in that range.
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * The inverse of `bucketIndex()`: the largest value that ends up in
+   * bucket `index`.
+   *
+   * @param index the index of a bucket
+   * @return the largest value that belongs in that bucket
+   */
+  static long highestValueIn(int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+    int offset = index - LINEAR_LIMIT;
+    int exponent = offset / SUB_BUCKET_COUNT + SUB_BUCKET_BITS + 1;
+    int shift = exponent - SUB_BUCKET_BITS;
+    long lowest = (long) (offset % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
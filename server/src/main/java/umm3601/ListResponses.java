@@ -0,0 +1,232 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Facet;
+import com.mongodb.client.model.Projections;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Helpers for sending a list of database results back as the JSON body
+ * of a response.
+ *
+ * This is shared by all the controllers so that they all handle (large)
+ * lists of results the same way.
+ */
+public final class ListResponses {
+
+  // The query parameter that asks for `{total, items}` instead of just the items
+  public static final String WITH_TOTAL_KEY = "withTotal";
+
+  // The query parameters for how many matches to skip, and the most to return
+  public static final String SKIP_KEY = "skip";
+  public static final String LIMIT_KEY = "limit";
+
+  // The most items a client may ask for along with their total; the
+  // answer is a single document, so it has to stay well under MongoDB's
+  // 16MB document limit
+  public static final int MAX_LIMIT_WITH_TOTAL = 1000;
+
+  private ListResponses() {
+  }
+
+  /**
+   * Set the JSON body of the response to be the list of `results`.
+   *
+   * If `streamBatchSize` is 0, this collects all the results into a list
+   * and hands that to `ctx.json()`, which is simple, but means the whole
+   * list (and then the whole JSON string) is in memory at once.
+   *
+   * Otherwise, this writes each result to the response's output stream
+   * (using Jackson's `JsonGenerator` via `ctx.writeJsonStream()`) as the
+   * database cursor hands it to us, fetching `streamBatchSize` documents
+   * per round trip to the database. That way only one batch of results
+   * is ever in memory, no matter how many documents match.
+   *
+   * @param <T> the type of the results
+   * @param ctx a Javalin HTTP context
+   * @param results the (not yet executed) database query
+   * @param streamBatchSize the cursor batch size to use when streaming,
+   *   or 0 to not stream
+   */
+  public static <T> void respond(Context ctx, MongoIterable<T> results, int streamBatchSize) {
+    // We have to set the status *before* streaming, since it's part of
+    // what gets sent as soon as we start writing the body.
+    ctx.status(HttpStatus.OK);
+
+    if (streamBatchSize == 0) {
+      // Set the JSON body of the response to be the list of results returned by the database.
+      // According to the Javalin documentation (https://javalin.io/documentation#context),
+      // this calls result(jsonString), and also sets content type to json
+      ctx.json(results.into(new ArrayList<>()));
+      return;
+    }
+
+    // Closing the cursor (even if the client goes away partway through)
+    // releases the server-side cursor in MongoDB.
+    try (MongoCursor<T> cursor = results.batchSize(streamBatchSize).cursor()) {
+      ctx.writeJsonStream(StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL),
+        false));
+    }
+  }
+
+  /**
+   * @param ctx a Javalin HTTP context
+   * @return true if the client asked (with `withTotal=true`) for the total
+   *   number of matching documents along with the list of them
+   */
+  public static boolean wantsTotal(Context ctx) {
+    return Boolean.parseBoolean(ctx.queryParam(WITH_TOTAL_KEY));
+  }
+
+  /**
+   * Get how many matches to skip, from the `skip` query parameter.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return how many matches to skip (0 if the client didn't say)
+   */
+  public static int skip(Context ctx) {
+    return nonNegativeParam(ctx, SKIP_KEY);
+  }
+
+  /**
+   * Get the most matches to return, from the `limit` query parameter.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return the most matches to return, or 0 for no limit
+   */
+  public static int limit(Context ctx) {
+    return nonNegativeParam(ctx, LIMIT_KEY);
+  }
+
+  private static int nonNegativeParam(Context ctx, String key) {
+    if (!ctx.queryParamMap().containsKey(key)) {
+      return 0;
+    }
+    return ctx.queryParamAsClass(key, Integer.class)
+      .check(it -> it >= 0, "The " + key + " can't be negative; you provided " + ctx.queryParam(key))
+      .get();
+  }
+
+  /**
+   * Make sure a client asking for a total (see `respondWithTotal()`) has
+   * limited how many items come with it, since they all have to fit in
+   * one document.
+   *
+   * @param limit the most items to return (0 for no limit)
+   * @throws BadRequestResponse if there's no limit, or it's more than
+   *   `MAX_LIMIT_WITH_TOTAL`
+   */
+  public static void checkLimitForTotal(int limit) {
+    if (limit < 1 || limit > MAX_LIMIT_WITH_TOTAL) {
+      throw new BadRequestResponse("Asking for the " + WITH_TOTAL_KEY + " needs a " + LIMIT_KEY
+        + " between 1 and " + MAX_LIMIT_WITH_TOTAL + "; page through the rest with " + SKIP_KEY);
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be `{"count": n}`, where `n` is
+   * the number of documents in `collection` that match `filter`.
+   *
+   * Counting *every* document doesn't need to look at any of them (MongoDB
+   * keeps track of how many documents each collection has), so we only
+   * use the slower `countDocuments()` if there's something to filter on.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to count the documents of
+   * @param filter the filter for the documents to count
+   */
+  public static void respondWithCount(Context ctx, MongoCollection<?> collection, Bson filter) {
+    respondWithCount(ctx, collection, filter, 0);
+  }
+
+  /**
+   * Like `respondWithCount(ctx, collection, filter)`, but with a limit on
+   * how long MongoDB may spend counting.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to count the documents of
+   * @param filter the filter for the documents to count
+   * @param maxTimeMillis how long the count may run for (0 for no limit)
+   */
+  public static void respondWithCount(Context ctx, MongoCollection<?> collection, Bson filter, long maxTimeMillis) {
+    long count = filter.toBsonDocument().isEmpty()
+      ? collection.estimatedDocumentCount()
+      : collection.countDocuments(filter, new CountOptions().maxTime(maxTimeMillis, TimeUnit.MILLISECONDS));
+    ctx.json(Map.of("count", count));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be `{"total": n, "items": [...]}`,
+   * where `items` are (a page of) the documents in `collection` that match
+   * `filter`, and `total` is the number of documents that match.
+   *
+   * Both come from a single `$facet` aggregation, so the client gets them
+   * in one request and we get them in one round trip to the database, and
+   * the total always agrees with the items. The whole answer is a single
+   * document, though, so it has to fit in MongoDB's 16MB document limit;
+   * callers should make sure the items are limited (see
+   * `checkLimitForTotal()`), and let clients `skip` through the rest.
+   *
+   * The items are sent straight from their BSON (see `RawJson`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to get the documents from
+   * @param filter the filter for the documents to count and return
+   * @param itemStages the stages (sorting, limiting, projecting, etc.) that
+   *   turn the matching documents into the items to return
+   */
+  public static void respondWithTotal(
+      Context ctx, MongoCollection<RawBsonDocument> collection, Bson filter, List<Bson> itemStages) {
+    respondWithTotal(ctx, collection, filter, itemStages, 0);
+  }
+
+  /**
+   * Like `respondWithTotal(ctx, collection, filter, itemStages)`, but with
+   * a limit on how long MongoDB may spend on the aggregation.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param collection the collection to get the documents from
+   * @param filter the filter for the documents to count and return
+   * @param itemStages the stages that turn the matching documents into
+   *   the items to return
+   * @param maxTimeMillis how long the aggregation may run for (0 for no limit)
+   */
+  public static void respondWithTotal(Context ctx, MongoCollection<RawBsonDocument> collection, Bson filter,
+      List<Bson> itemStages, long maxTimeMillis) {
+    RawBsonDocument result = collection.aggregate(List.of(
+      Aggregates.match(filter),
+      Aggregates.facet(
+        new Facet("total", Aggregates.count("total")),
+        new Facet("items", itemStages)),
+      // `$count` doesn't give us anything at all if nothing matched
+      Aggregates.project(Projections.fields(
+        Projections.excludeId(),
+        Projections.computed("total",
+          new Document("$ifNull", List.of(new Document("$first", "$total.total"), 0))),
+        Projections.include("items")))))
+      .maxTime(maxTimeMillis, TimeUnit.MILLISECONDS)
+      .first();
+    RawJson.respond(ctx, result);
+  }
+}
@@ -0,0 +1,118 @@
+package umm3601;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Turns API requests away (with a quick `503 Service Unavailable`) when
+ * more of them are running than the server can keep up with.
+ *
+ * When MongoDB slows down, requests don't fail, they just take longer,
+ * so they pile up (in Jetty's queue and in the connection pool's wait
+ * queue) until everything is timing out, including requests that would
+ * have been quick. Each request instead has to get a permit from an
+ * adaptive `ConcurrencyLimit` before it's handled; once the limit is
+ * reached the client is told to come back shortly (`Retry-After`), and
+ * the requests we did let in stay fast.
+ *
+ * Reads (`GET`, `HEAD`, `OPTIONS`) and writes get separate limits, since
+ * they put quite different loads on MongoDB, and a flood of one shouldn't
+ * starve the other. `Server` calls `admit()` before each API request's
+ * handler and `release()` after it (whether or not it succeeded).
+ */
+public final class LoadShedder {
+
+  static final String RETRY_AFTER_HEADER = "Retry-After";
+
+  // How long (in seconds) we ask a client we've turned away to wait
+  static final String RETRY_AFTER_SECONDS = "1";
+
+  // The name of the request attribute holding its permit
+  private static final String PERMIT_ATTRIBUTE = "umm3601.loadShedderPermit";
+
+  // A request's permit: which limit it came from, when the request
+  // started, and how many requests were already running
+  private record Permit(ConcurrencyLimit limit, long startedAt, int runningAtStart) {
+  }
+
+  private final ConcurrencyLimit reads;
+  private final ConcurrencyLimit writes;
+
+  /**
+   * Construct a load shedder whose read and write limits each start at
+   * `initialLimit` and never go above `maxLimit`.
+   *
+   * @param initialLimit how many concurrent reads (and writes) to allow
+   *   to start with
+   * @param maxLimit the most concurrent reads (and writes) ever to allow
+   */
+  public LoadShedder(int initialLimit, int maxLimit) {
+    this.reads = new ConcurrencyLimit(initialLimit, maxLimit);
+    this.writes = new ConcurrencyLimit(initialLimit, maxLimit);
+  }
+
+  /**
+   * Let a request through if we're under the limit for its kind (read
+   * or write), and otherwise answer it with a `503`, skipping its handler.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void admit(Context ctx) {
+    ConcurrencyLimit limit = isRead(ctx.method()) ? reads : writes;
+    long startedAt = System.nanoTime();
+    int running = limit.tryAcquire();
+    if (running < 0) {
+      ctx.header(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+      ctx.status(HttpStatus.SERVICE_UNAVAILABLE);
+      ctx.result("The server is busy; try again shortly");
+      ctx.skipRemainingHandlers();
+      return;
+    }
+    ctx.attribute(PERMIT_ATTRIBUTE, new Permit(limit, startedAt, running));
+  }
+
+  /**
+   * Give back the permit (if any) a request was given by `admit()`, now
+   * that it has been handled.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void release(Context ctx) {
+    Permit permit = ctx.attribute(PERMIT_ATTRIBUTE);
+    if (permit == null) {
+      return;
+    }
+    ctx.attribute(PERMIT_ATTRIBUTE, null);
+    permit.limit().release(System.nanoTime() - permit.startedAt(), permit.runningAtStart());
+  }
+
+  private static boolean isRead(HandlerType method) {
+    return method == HandlerType.GET || method == HandlerType.HEAD || method == HandlerType.OPTIONS;
+  }
+
+  /**
+   * Include the read and write limits (see `ConcurrencyLimit`) in the
+   * server's metrics, as `concurrency_reads_*` and `concurrency_writes_*`.
+   *
+   * @param metrics the server's metrics
+   */
+  public void registerMetrics(ServerMetrics metrics) {
+    reads.registerMetrics(metrics, "concurrency_reads");
+    writes.registerMetrics(metrics, "concurrency_writes");
+  }
+
+  /**
+   * @return the limit on concurrent reads
+   */
+  public ConcurrencyLimit reads() {
+    return reads;
+  }
+
+  /**
+   * @return the limit on concurrent writes
+   */
+  public ConcurrencyLimit writes() {
+    return writes;
+  }
+}
@@ -1,9 +1,16 @@
 package umm3601;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.MongoClients;
 
+import umm3601.todo.ReactiveTodoController;
 import umm3601.todo.TodoController;
+import umm3601.user.ReactiveUserController;
 import umm3601.user.UserController;
 
 
@@ -15,18 +22,34 @@ public class Main {
     String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
     String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
 
-    // Set up the MongoDB client
-    MongoClient mongoClient = Server.configureDatabase(mongoAddr);
+    // Read the server's settings from environment variables
+    Config config = Main.loadConfig();
+
+    // Set up the MongoDB client, with a monitor so we can see what its
+    // connection pool is doing
+    MongoPoolMonitor poolMonitor = new MongoPoolMonitor();
+    MongoClient mongoClient = Server.configureDatabase(mongoAddr, config.mongoPool(), poolMonitor);
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
+    // If the controllers are to use the reactive-streams driver, they need a
+    // client of their own, with the same settings (and the same pool monitor,
+    // which then counts both clients' connections).
+    com.mongodb.reactivestreams.client.MongoDatabase reactiveDatabase = null;
+    if (config.reactiveDriver()) {
+      com.mongodb.reactivestreams.client.MongoClient reactiveClient =
+        MongoClients.create(Server.clientSettings(mongoAddr, config.mongoPool(), poolMonitor));
+      Runtime.getRuntime().addShutdownHook(new Thread(reactiveClient::close));
+      reactiveDatabase = reactiveClient.getDatabase(databaseName);
+    }
+
     // The implementations of `Controller` used for the server. These will presumably
     // be one or more controllers, each of which implements the `Controller` interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+    final Controller[] controllers = Main.getControllers(database, reactiveDatabase, config);
 
     // Construct the server
-    Server server = new Server(mongoClient, controllers);
+    Server server = new Server(mongoClient, controllers, config, poolMonitor);
 
     // Start the server
     server.startServer();
@@ -44,6 +67,137 @@ public class Main {
     return System.getenv().getOrDefault(envName, defaultValue);
   }
 
+  /**
+   * Get the value of an environment variable as an `int`, or return a default
+   * value if it's not set.
+   *
+   * @param envName The name of the environment variable to get
+   * @param defaultValue The default value to use if the environment variable isn't set
+   *
+   * @return The value of the environment variable, or the default value if it's not set
+   */
+  static int getIntEnvOrDefault(String envName, int defaultValue) {
+    return Integer.parseInt(Main.getEnvOrDefault(envName, String.valueOf(defaultValue)));
+  }
+
+  /**
+   * Get the value of an environment variable as a `Duration` (given as a
+   * number of milliseconds), or return a default value if it's not set.
+   *
+   * @param envName The name of the environment variable to get
+   * @param defaultValue The default value to use if the environment variable isn't set
+   *
+   * @return The value of the environment variable, or the default value if it's not set
+   */
+  static Duration getMillisEnvOrDefault(String envName, Duration defaultValue) {
+    return Duration.ofMillis(Long.parseLong(Main.getEnvOrDefault(envName, String.valueOf(defaultValue.toMillis()))));
+  }
+
+  /**
+   * Build the server's `Config` from environment variables, using the
+   * default for any setting whose variable isn't set.
+   *
+   * The environment variables are:
+   *   - `SERVER_THREADS`: `virtual` to run request handlers on virtual
+   *     threads, or `platform` (the default) to use Jetty's thread pool
+   *   - `DETECT_PINNING`: `true` to log virtual threads that get pinned
+   *     to their carrier thread (default `false`)
+   *   - `STREAM_BATCH_SIZE`: stream list results to clients, fetching this
+   *     many documents from MongoDB at a time (default `0`, i.e., don't stream)
+   *   - `TODO_CACHE_MAX_BYTES`: cache `GET /api/todo` results in up to this
+   *     many bytes of memory (default `0`, i.e., don't cache)
+   *   - `TODO_CACHE_TTL_SECONDS`: how long a cached todo result may be
+   *     served (default `60`)
+   *   - `MONGO_MIN_POOL_SIZE`, `MONGO_MAX_POOL_SIZE`, `MONGO_MAX_CONNECTING`:
+   *     the MongoDB connection pool limits (see `MongoPoolConfig`)
+   *   - `MONGO_MAX_WAIT_MS`, `MONGO_MAX_IDLE_MS`, `MONGO_CONNECT_TIMEOUT_MS`,
+   *     `MONGO_READ_TIMEOUT_MS`: the MongoDB pool and socket timeouts
+   *   - `MONGO_COMPRESSORS`: a comma-separated list of wire compressors
+   *     (`zstd`, `snappy`, `zlib`) to offer the MongoDB server (default none)
+   *   - `BULK_INSERT_BATCH_SIZE`: how many todos `POST /api/todo/bulk`
+   *     inserts per round trip to MongoDB (default `1000`)
+   *   - `USERS_BY_COMPANY_VIEW`: `true` to serve `/api/usersByCompany` from
+   *     memory (default `false`)
+   *   - `BSON_CODECS`: `true` to read and write todos and users with our own
+   *     BSON codecs instead of MongoJack (default `false`)
+   *   - `RAW_JSON`: `true` to turn documents' BSON straight into JSON on the
+   *     read endpoints (default `false`)
+   *   - `ETAGS`: `true` to tag todo and user responses with ETags, and answer
+   *     matching `If-None-Match` headers with `304 Not Modified` (default `false`)
+   *   - `BY_ID_CACHE_SIZE`: cache up to this many todos (and users) by ID
+   *     (default `0`, i.e., don't cache)
+   *   - `REGEX_TIME_LIMIT_MS`: how long a todo query with a "real" regular
+   *     expression in it may run for (default `2000`; `0` for no limit)
+   *   - `WRITE_BEHIND_BATCH_SIZE`: insert new todos in batches of up to this
+   *     many (default `0`, i.e., insert each one as it arrives)
+   *   - `WRITE_BEHIND_MAX_DELAY_MS`, `WRITE_BEHIND_QUEUE_CAPACITY`: the longest
+   *     a new todo may wait for its batch (default `5`), and the most new
+   *     todos that may be waiting (default `10000`)
+   *   - `MONGO_DRIVER`: `reactive` to serve the todo and user endpoints with
+   *     the reactive-streams MongoDB driver, or `sync` (the default)
+   *   - `COALESCE_READS`: `true` to have identical list reads that arrive
+   *     together share one query (default `false`)
+   *   - `CONCURRENCY_LIMIT_MAX`: the most API reads (and, separately, writes)
+   *     that may run at once, turning the rest away with a `503` (default
+   *     `0`, i.e., no limit)
+   *   - `CONCURRENCY_LIMIT_INITIAL`: how many API reads (or writes) may run
+   *     at once before that limit has adjusted itself to the server's
+   *     latency (default `20`)
+   *   - `RATE_LIMIT_PER_SECOND`: how many tokens a second each client (by
+   *     `X-API-Key` header, or else by IP address) may spend on requests,
+   *     turning the rest away with a `429` (default `0`, i.e., no limit)
+   *   - `RATE_LIMIT_BURST`: the most tokens a client may save up (default `50`)
+   *   - `RATE_LIMIT_API_KEYS`: a comma-separated list of the `X-API-Key`s
+   *     clients may be rate limited by; any other key is ignored, and the
+   *     client is rate limited by its IP address (default none)
+   *
+   * @return the `Config` to use for this server
+   */
+  static Config loadConfig() {
+    MongoPoolConfig poolDefaults = MongoPoolConfig.defaults();
+    String compressors = Main.getEnvOrDefault("MONGO_COMPRESSORS", "");
+    String apiKeys = Main.getEnvOrDefault("RATE_LIMIT_API_KEYS", "");
+    MongoPoolConfig mongoPool = new MongoPoolConfig(
+      Main.getIntEnvOrDefault("MONGO_MIN_POOL_SIZE", poolDefaults.minPoolSize()),
+      Main.getIntEnvOrDefault("MONGO_MAX_POOL_SIZE", poolDefaults.maxPoolSize()),
+      Main.getIntEnvOrDefault("MONGO_MAX_CONNECTING", poolDefaults.maxConnecting()),
+      Main.getMillisEnvOrDefault("MONGO_MAX_WAIT_MS", poolDefaults.maxWaitTime()),
+      Main.getMillisEnvOrDefault("MONGO_MAX_IDLE_MS", poolDefaults.maxIdleTime()),
+      Main.getMillisEnvOrDefault("MONGO_CONNECT_TIMEOUT_MS", poolDefaults.connectTimeout()),
+      Main.getMillisEnvOrDefault("MONGO_READ_TIMEOUT_MS", poolDefaults.readTimeout()),
+      compressors.isBlank() ? List.of() : Arrays.asList(compressors.split("\\s*,\\s*")));
+
+    return Config.builder()
+      .virtualThreads("virtual".equalsIgnoreCase(Main.getEnvOrDefault("SERVER_THREADS", "platform")))
+      .detectPinning(Boolean.parseBoolean(Main.getEnvOrDefault("DETECT_PINNING", "false")))
+      .streamBatchSize(Main.getIntEnvOrDefault("STREAM_BATCH_SIZE", 0))
+      .todoCache(
+        Long.parseLong(Main.getEnvOrDefault("TODO_CACHE_MAX_BYTES", "0")),
+        Duration.ofSeconds(Long.parseLong(Main.getEnvOrDefault("TODO_CACHE_TTL_SECONDS", "60"))))
+      .mongoPool(mongoPool)
+      .bulkInsertBatchSize(Main.getIntEnvOrDefault("BULK_INSERT_BATCH_SIZE", Config.defaults().bulkInsertBatchSize()))
+      .usersByCompanyView(Boolean.parseBoolean(Main.getEnvOrDefault("USERS_BY_COMPANY_VIEW", "false")))
+      .bsonCodecs(Boolean.parseBoolean(Main.getEnvOrDefault("BSON_CODECS", "false")))
+      .rawJson(Boolean.parseBoolean(Main.getEnvOrDefault("RAW_JSON", "false")))
+      .etags(Boolean.parseBoolean(Main.getEnvOrDefault("ETAGS", "false")))
+      .byIdCacheSize(Long.parseLong(Main.getEnvOrDefault("BY_ID_CACHE_SIZE", "0")))
+      .regexTimeLimit(Main.getMillisEnvOrDefault("REGEX_TIME_LIMIT_MS", Config.defaults().regexTimeLimit()))
+      .todoWriteBehind(
+        Main.getIntEnvOrDefault("WRITE_BEHIND_BATCH_SIZE", 0),
+        Main.getMillisEnvOrDefault("WRITE_BEHIND_MAX_DELAY_MS", Config.defaults().writeBehindMaxDelay()),
+        Main.getIntEnvOrDefault("WRITE_BEHIND_QUEUE_CAPACITY", Config.defaults().writeBehindQueueCapacity()))
+      .reactiveDriver("reactive".equalsIgnoreCase(Main.getEnvOrDefault("MONGO_DRIVER", "sync")))
+      .coalesceReads(Boolean.parseBoolean(Main.getEnvOrDefault("COALESCE_READS", "false")))
+      .concurrencyLimit(
+        Main.getIntEnvOrDefault("CONCURRENCY_LIMIT_INITIAL", Config.defaults().initialConcurrencyLimit()),
+        Main.getIntEnvOrDefault("CONCURRENCY_LIMIT_MAX", 0))
+      .rateLimit(
+        Double.parseDouble(Main.getEnvOrDefault("RATE_LIMIT_PER_SECOND", "0")),
+        Main.getIntEnvOrDefault("RATE_LIMIT_BURST", Config.defaults().rateLimitBurst()))
+      .rateLimitApiKeys(apiKeys.isBlank() ? List.of() : Arrays.asList(apiKeys.trim().split("\\s*,\\s*")))
+      .build();
+  }
+
   /**
    * Get the implementations of `Controller` used for the server.
    *
@@ -53,17 +207,28 @@ public class Main {
    *
    * @param database The MongoDB database object used by the controllers
    *               to access the database.
+   * @param reactiveDatabase The same database through the reactive-streams
+   *               driver, for the reactive controllers (see
+   *               `Config.reactiveDriver()`), or `null` if they aren't used
+   * @param config The settings the controllers should use
    * @return An array of implementations of `Controller` for the server.
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(
+      MongoDatabase database, com.mongodb.reactivestreams.client.MongoDatabase reactiveDatabase, Config config) {
+    if (config.reactiveDriver()) {
+      return new Controller[] {
+        new ReactiveUserController(database, reactiveDatabase),
+        new ReactiveTodoController(database, reactiveDatabase, config)
+      };
+    }
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
       // You can also remove this UserController once you don't need it.
-      new UserController(database),
-      new TodoController(database)
+      new UserController(database, config),
+      new TodoController(database, config)
     };
     return controllers;
   }
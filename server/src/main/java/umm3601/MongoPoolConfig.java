@@ -0,0 +1,75 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Settings for the MongoDB client's connection pool, socket timeouts,
+ * and wire compression.
+ *
+ * The defaults (`MongoPoolConfig.defaults()`) are the same as the
+ * MongoDB driver's own defaults, so using them doesn't change anything.
+ *
+ * @param minPoolSize the number of connections to keep open (and to
+ *   open before the server starts taking requests)
+ * @param maxPoolSize the most connections to open at once
+ * @param maxConnecting the most connections that may be in the middle of
+ *   being opened at once
+ * @param maxWaitTime how long a request may wait for a free connection
+ *   before giving up
+ * @param maxIdleTime how long a connection may sit unused before it is
+ *   closed (zero means forever)
+ * @param connectTimeout how long to wait when opening a connection
+ * @param readTimeout how long to wait for a reply to a query (zero means
+ *   forever)
+ * @param compressors the wire compressors to offer the server, in order
+ *   of preference; each one of `zstd`, `snappy`, or `zlib`
+ */
+public record MongoPoolConfig(
+    int minPoolSize,
+    int maxPoolSize,
+    int maxConnecting,
+    Duration maxWaitTime,
+    Duration maxIdleTime,
+    Duration connectTimeout,
+    Duration readTimeout,
+    List<String> compressors) {
+
+  // The names of the compressors the driver knows about
+  public static final Set<String> KNOWN_COMPRESSORS = Set.of("zstd", "snappy", "zlib");
+
+  // The MongoDB driver's defaults
+  private static final int DEFAULT_MAX_POOL_SIZE = 100;
+  private static final int DEFAULT_MAX_CONNECTING = 2;
+  private static final Duration DEFAULT_MAX_WAIT_TIME = Duration.ofMinutes(2);
+  private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+  /**
+   * Check that the settings make sense.
+   */
+  public MongoPoolConfig {
+    if (minPoolSize < 0 || maxPoolSize < 1 || minPoolSize > maxPoolSize) {
+      throw new IllegalArgumentException("The Mongo pool size must have 0 <= min <= max and max >= 1; it was min "
+        + minPoolSize + " and max " + maxPoolSize);
+    }
+    if (maxConnecting < 1) {
+      throw new IllegalArgumentException("Mongo max connecting must be at least 1; it was " + maxConnecting);
+    }
+    for (String compressor : compressors) {
+      if (!KNOWN_COMPRESSORS.contains(compressor)) {
+        throw new IllegalArgumentException("Unknown Mongo compressor " + compressor
+          + "; it should be one of " + KNOWN_COMPRESSORS);
+      }
+    }
+    compressors = List.copyOf(compressors);
+  }
+
+  /**
+   * @return the MongoDB driver's default settings
+   */
+  public static MongoPoolConfig defaults() {
+    return new MongoPoolConfig(0, DEFAULT_MAX_POOL_SIZE, DEFAULT_MAX_CONNECTING,
+      DEFAULT_MAX_WAIT_TIME, Duration.ZERO, DEFAULT_CONNECT_TIMEOUT, Duration.ZERO, List.of());
+  }
+}
@@ -0,0 +1,122 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import com.mongodb.event.ConnectionReadyEvent;
+
+/**
+ * Keeps track of what the MongoDB connection pool is doing: how many
+ * connections are open and in use, and how many requests are waiting
+ * for a connection.
+ *
+ * Without this, requests that are stuck waiting for a free connection
+ * just look like slow requests. These numbers are included in the
+ * server's metrics (`/api/metrics`), and are also used to wait for the
+ * pool to fill up before the server starts taking requests.
+ */
+public final class MongoPoolMonitor implements ConnectionPoolListener {
+
+  // How often to check whether the pool has filled up while warming it up
+  private static final long WARM_UP_POLL_MILLIS = 10;
+
+  private final AtomicLong openConnections = new AtomicLong();
+  private final AtomicLong readyConnections = new AtomicLong();
+  private final AtomicLong checkedOutConnections = new AtomicLong();
+  private final AtomicLong waitingForConnection = new AtomicLong();
+  private final LongAdder checkOutFailures = new LongAdder();
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    openConnections.incrementAndGet();
+  }
+
+  @Override
+  public void connectionReady(ConnectionReadyEvent event) {
+    readyConnections.incrementAndGet();
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    openConnections.decrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    waitingForConnection.incrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    waitingForConnection.decrementAndGet();
+    checkedOutConnections.incrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    waitingForConnection.decrementAndGet();
+    checkOutFailures.increment();
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    checkedOutConnections.decrementAndGet();
+  }
+
+  /**
+   * @return the number of connections currently open (in use or idle)
+   */
+  public long openConnections() {
+    return openConnections.get();
+  }
+
+  /**
+   * @return the number of connections currently being used by a request
+   */
+  public long checkedOutConnections() {
+    return checkedOutConnections.get();
+  }
+
+  /**
+   * @return the number of requests currently waiting for a free connection
+   */
+  public long waitingForConnection() {
+    return waitingForConnection.get();
+  }
+
+  /**
+   * @return the number of times a request gave up waiting for a connection
+   *   (or couldn't get one for some other reason)
+   */
+  public long checkOutFailures() {
+    return checkOutFailures.sum();
+  }
+
+  /**
+   * Wait until at least `connections` connections have been opened and
+   * are ready to use, or until `timeout` has passed.
+   *
+   * @param connections the number of ready connections to wait for
+   * @param timeout the longest to wait
+   * @return true if that many connections are ready, false if we gave up
+   * @throws InterruptedException if we're interrupted while waiting
+   */
+  public boolean awaitReadyConnections(int connections, Duration timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (readyConnections.get() < connections) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      Thread.sleep(WARM_UP_POLL_MILLIS);
+    }
+    return true;
+  }
+}
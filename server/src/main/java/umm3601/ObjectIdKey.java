@@ -0,0 +1,31 @@
+package umm3601;
+
+import java.nio.ByteBuffer;
+
+import org.bson.types.ObjectId;
+
+/**
+ * The 12 bytes of an `ObjectId`, packed into a `long` and an `int`, for
+ * use as a (small) map or cache key.
+ *
+ * Keying on our hex string `_id`s instead would cost a 24-character
+ * `String` (and its backing array) per key, which is about three times
+ * the memory of one of these, and would make every lookup compare
+ * strings instead of two numbers.
+ *
+ * @param high the first 8 bytes of the ID
+ * @param low the last 4 bytes of the ID
+ */
+public record ObjectIdKey(long high, int low) {
+
+  /**
+   * Get the key for `id`.
+   *
+   * @param id the ID to get the key for
+   * @return the key for `id`
+   */
+  public static ObjectIdKey of(ObjectId id) {
+    ByteBuffer bytes = ByteBuffer.wrap(id.toByteArray());
+    return new ObjectIdKey(bytes.getLong(), bytes.getInt());
+  }
+}
@@ -0,0 +1,84 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Watches for virtual threads that get "pinned" to their carrier thread.
+ *
+ * A virtual thread that blocks while holding a monitor (i.e., inside a
+ * `synchronized` block) or while in native code can't be unmounted, so
+ * it ties up one of the (few) carrier threads for as long as it is
+ * blocked. If that happens a lot, running handlers on virtual threads
+ * can end up *slower* than using platform threads.
+ *
+ * This uses a JFR `RecordingStream` to listen for the JDK's
+ * `jdk.VirtualThreadPinned` event, and logs each one (with a stack trace
+ * so we can tell where it happened).
+ */
+final class PinnedThreadMonitor implements AutoCloseable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PinnedThreadMonitor.class);
+
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+  // Only report pinning that lasts at least this long. Very short pins
+  // are harmless, and recording every one of them would be expensive.
+  private static final Duration PINNED_THRESHOLD = Duration.ofMillis(20);
+
+  private final RecordingStream recordingStream;
+  private final LongAdder pinnedCount = new LongAdder();
+
+  PinnedThreadMonitor() {
+    recordingStream = new RecordingStream();
+    recordingStream.enable(PINNED_EVENT).withThreshold(PINNED_THRESHOLD).withStackTrace();
+    recordingStream.onEvent(PINNED_EVENT, this::report);
+  }
+
+  /**
+   * Start listening for pinned threads. This returns immediately; the
+   * events are processed on a background thread.
+   */
+  void start() {
+    recordingStream.startAsync();
+  }
+
+  /**
+   * @return the number of pinned virtual threads seen so far
+   */
+  long pinnedCount() {
+    return pinnedCount.sum();
+  }
+
+  private void report(RecordedEvent event) {
+    pinnedCount.increment();
+
+    StringBuilder frames = new StringBuilder();
+    RecordedStackTrace stackTrace = event.getStackTrace();
+    if (stackTrace != null) {
+      for (RecordedFrame frame : stackTrace.getFrames()) {
+        frames.append("\n    at ")
+          .append(frame.getMethod().getType().getName())
+          .append('.')
+          .append(frame.getMethod().getName())
+          .append(':')
+          .append(frame.getLineNumber());
+      }
+    }
+    LOGGER.warn("Virtual thread was pinned to its carrier thread for {} ms{}",
+      event.getDuration().toMillis(), frames);
+  }
+
+  @Override
+  public void close() {
+    recordingStream.close();
+  }
+}
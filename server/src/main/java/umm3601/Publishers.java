@@ -0,0 +1,101 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Helpers for turning the `Publisher`s the reactive-streams MongoDB driver
+ * hands back into `CompletableFuture`s, which is what Javalin's
+ * `ctx.future()` waits on.
+ *
+ * Nothing here blocks: the futures are completed on whichever of the
+ * driver's threads delivers the results, so the request thread that
+ * started the query is free as soon as it has handed Javalin the future.
+ */
+public final class Publishers {
+
+  private Publishers() {
+  }
+
+  /**
+   * Get the first item `publisher` publishes, and then cancel it.
+   *
+   * @param <T> the type of the items
+   * @param publisher the publisher (e.g., a `find(...).first()`, a
+   *   `countDocuments()`, or an `insertOne()`)
+   * @return a future for the first item, which is `null` if there wasn't
+   *   one, or which completes exceptionally if the publisher fails
+   */
+  public static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      private Subscription subscription;
+
+      @Override
+      public void onSubscribe(Subscription s) {
+        subscription = s;
+        s.request(1);
+      }
+
+      @Override
+      public void onNext(T item) {
+        result.complete(item);
+        subscription.cancel();
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        result.completeExceptionally(t);
+      }
+
+      @Override
+      public void onComplete() {
+        // Does nothing if we already have the first item
+        result.complete(null);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Collect everything `publisher` publishes into a list.
+   *
+   * @param <T> the type of the items
+   * @param publisher the publisher (e.g., a `find(...)` or `aggregate(...)`)
+   * @return a future for the list of items, in the order they were
+   *   published, which completes exceptionally if the publisher fails
+   */
+  public static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher) {
+    CompletableFuture<List<T>> result = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      // The driver calls these one at a time, so this needn't be thread-safe
+      private final List<T> items = new ArrayList<>();
+
+      @Override
+      public void onSubscribe(Subscription s) {
+        s.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(T item) {
+        items.add(item);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        result.completeExceptionally(t);
+      }
+
+      @Override
+      public void onComplete() {
+        result.complete(items);
+      }
+    });
+    return result;
+  }
+}
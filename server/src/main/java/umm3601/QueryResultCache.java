@@ -0,0 +1,117 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * An in-memory cache of (serialized JSON) query results.
+ *
+ * This is backed by a Caffeine cache, which decides what to keep using
+ * W-TinyLFU: a new result only gets into the cache if it looks like
+ * it'll be asked for more often than whatever it would push out. The
+ * cache is bounded by the total size (in bytes) of the results it holds,
+ * and results also expire after a fixed time to live.
+ *
+ * Each result is stored under a `Key` made up of a "partition" (some
+ * value that the query is restricted to, e.g., a todo owner, or `null`
+ * if it isn't restricted) and the normalized query itself. When a
+ * document is added or removed, `invalidate(partition)` throws out just
+ * the results that could include that document, i.e., the ones in that
+ * document's partition and the ones that aren't restricted to a partition.
+ */
+public final class QueryResultCache {
+
+  /**
+   * The key for a cached result.
+   *
+   * @param partition the value the query is restricted to, or `null`
+   *   if it isn't restricted
+   * @param query the normalized query (filter, sort order, limit, ...)
+   */
+  public record Key(String partition, String query) {
+  }
+
+  // Roughly how much memory each entry takes up, beyond the bytes of
+  // the result itself (the key, the Caffeine node, etc.).
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+  private final Cache<Key, byte[]> cache;
+
+  // Bumped on every invalidation, so a query that was running while the
+  // data changed knows not to leave its (possibly stale) result behind.
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Construct a cache of query results.
+   *
+   * @param maxBytes the most (approximate) bytes the cache may hold
+   * @param timeToLive how long a result may be served from the cache
+   */
+  public QueryResultCache(long maxBytes, Duration timeToLive) {
+    cache = Caffeine.newBuilder()
+      .maximumWeight(maxBytes)
+      .weigher((Key key, byte[] json) -> ENTRY_OVERHEAD_BYTES + key.query().length() + json.length)
+      .expireAfterWrite(timeToLive)
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * Get the result for `key`, running `query` to compute it (and adding
+   * it to the cache) if it isn't already cached.
+   *
+   * @param key the key for the result
+   * @param query computes the (serialized JSON) result if it isn't cached
+   * @return the result for `key`
+   */
+  public byte[] get(Key key, Supplier<byte[]> query) {
+    byte[] cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    long startingGeneration = generation.get();
+    byte[] result = query.get();
+    cache.put(key, result);
+    // If something changed while we were running the query, our result
+    // may already be out of date, so don't leave it in the cache. (If the
+    // change comes after this check, its invalidation will remove it.)
+    if (generation.get() != startingGeneration) {
+      cache.invalidate(key);
+    }
+    return result;
+  }
+
+  /**
+   * Throw out every cached result that could include a document in
+   * `partition`. This should be called *after* the change to the
+   * database has been made.
+   *
+   * @param partition the partition of the document that was added or removed
+   */
+  public void invalidate(String partition) {
+    generation.incrementAndGet();
+    cache.asMap().keySet().removeIf(key -> key.partition() == null || Objects.equals(key.partition(), partition));
+  }
+
+  /**
+   * Throw out every cached result.
+   */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return the hit, miss, and eviction counts for this cache
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+}
@@ -0,0 +1,222 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Per-client rate limiting, so that one client (e.g., an integration
+ * polling `/api/usersByCompany` in a tight loop) can't use up the server
+ * for everyone else.
+ *
+ * Each client (identified by its `X-API-Key` header if it sends one we
+ * know, and otherwise by its IP address) has a bucket of tokens that
+ * refills at a steady rate, up to a most of `burst` tokens. Each request takes some
+ * tokens out of its client's bucket, and one that finds too few there is
+ * turned away with a `429 Too Many Requests` (and a `Retry-After` saying
+ * when there will be enough). Requests cost one token unless a controller
+ * says otherwise (see `Controller.registerRequestCosts()`), so that, e.g.,
+ * an aggregation or a regular expression search can cost more than
+ * looking a todo up by its ID.
+ *
+ * Rather than keeping a token count and a last-refilled time (which would
+ * need a lock to update together), each bucket is a single number: the
+ * time at which it will be full again (the "generic cell rate algorithm",
+ * which behaves just like a token bucket). Taking tokens pushes that time
+ * later, and is a compare-and-set on an `AtomicLong`, so requests never
+ * wait on a lock, and the buckets live in a `ConcurrentHashMap`, so
+ * different clients don't get in each other's way either.
+ *
+ * Only the API keys we've been configured with count; a client that
+ * sends any other key is known by its IP address, as if it hadn't sent
+ * one. Otherwise a client could send a new made-up key with each request
+ * and get a fresh, full bucket every time (and fill the map with them).
+ * So each IP address only ever gets the one bucket, and the only other
+ * buckets are the ones for the known keys.
+ *
+ * A full bucket is no different from one we've never made, so a background
+ * thread regularly throws the full ones away; the map only holds clients
+ * that have made requests recently.
+ */
+public final class RateLimiter {
+
+  public static final int DEFAULT_COST = 1;
+  static final String API_KEY_HEADER = "X-API-Key";
+
+  private static final Duration SWEEP_INTERVAL = Duration.ofSeconds(30);
+  private static final long NANOS_PER_SECOND = Duration.ofSeconds(1).toNanos();
+
+  // How long it takes to refill one token, and to refill an empty bucket
+  private final long nanosPerToken;
+  private final long burstNanos;
+  private final int burst;
+
+  // The API keys clients may be known by
+  private final Set<String> apiKeys;
+
+  // For each client, the (`System.nanoTime()`) time its bucket will be full
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+  // How many tokens a request to each route costs, by method and route
+  // path (e.g., "GET /api/todo/{id}")
+  private final Map<String, ToIntFunction<Context>> costs = new ConcurrentHashMap<>();
+
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * Start limiting clients (all of them by IP address) to
+   * `tokensPerSecond` tokens a second, with bursts of up to `burst` tokens.
+   *
+   * @param tokensPerSecond how fast each client's bucket refills
+   * @param burst how many tokens each client's bucket holds
+   */
+  public RateLimiter(double tokensPerSecond, int burst) {
+    this(tokensPerSecond, burst, Set.of());
+  }
+
+  /**
+   * Start limiting clients to `tokensPerSecond` tokens a second, with
+   * bursts of up to `burst` tokens.
+   *
+   * @param tokensPerSecond how fast each client's bucket refills
+   * @param burst how many tokens each client's bucket holds
+   * @param apiKeys the API keys clients may be known by, rather than by
+   *   their IP address
+   */
+  public RateLimiter(double tokensPerSecond, int burst, Set<String> apiKeys) {
+    this.nanosPerToken = Math.max(1, (long) (NANOS_PER_SECOND / tokensPerSecond));
+    this.burst = burst;
+    this.apiKeys = Set.copyOf(apiKeys);
+    this.burstNanos = nanosPerToken * burst;
+    Thread.ofPlatform().name("rate-limit-sweeper").daemon().start(this::sweepForever);
+  }
+
+  /**
+   * Say how many tokens a request to a route costs.
+   *
+   * @param method the route's HTTP method
+   * @param path the route's path, as it was given to Javalin (e.g.,
+   *   `/api/todo/{id}`)
+   * @param cost how many tokens a given request to that route costs
+   */
+  public void setCost(HandlerType method, String path, ToIntFunction<Context> cost) {
+    costs.put(method.name() + " " + path, cost);
+  }
+
+  /**
+   * Take the tokens for a request out of its client's bucket, or turn
+   * it away with a `429` if there aren't enough.
+   *
+   * @param ctx a Javalin HTTP context, for a request that has been
+   *   matched to a route
+   */
+  public void check(Context ctx) {
+    ToIntFunction<Context> cost = costs.get(ctx.method().name() + " " + ctx.endpointHandlerPath());
+    int tokens = cost == null ? DEFAULT_COST : cost.applyAsInt(ctx);
+    long wait = take(clientOf(ctx), tokens, System.nanoTime());
+    if (wait > 0) {
+      rejected.increment();
+      long seconds = (wait + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+      ctx.header(LoadShedder.RETRY_AFTER_HEADER, Long.toString(seconds));
+      throw new HttpResponseException(HttpStatus.TOO_MANY_REQUESTS.getCode(),
+        "Too many requests; try again in " + seconds + " seconds");
+    }
+  }
+
+  /**
+   * Get the key we know the client that made a request by: its API key,
+   * if it sent one we know, or else its IP address.
+   */
+  private String clientOf(Context ctx) {
+    String apiKey = ctx.header(API_KEY_HEADER);
+    if (apiKey != null && apiKeys.contains(apiKey)) {
+      return "key " + apiKey;
+    }
+    return "ip " + ctx.ip();
+  }
+
+  /**
+   * Take `cost` tokens from `client`'s bucket (or as many as the bucket
+   * holds, if it's more than that).
+   *
+   * @param client the client making the request
+   * @param cost how many tokens the request costs
+   * @param now the current `System.nanoTime()`
+   * @return 0 if the tokens were taken, or how long (in nanoseconds) the
+   *   client has to wait until there are enough
+   */
+  long take(String client, int cost, long now) {
+    long needed = Math.max(0, Math.min(cost, burst)) * nanosPerToken;
+    AtomicLong bucket = buckets.computeIfAbsent(client, newClient -> new AtomicLong(now));
+    while (true) {
+      long fullAt = bucket.get();
+      // A bucket can't be any fuller than full
+      long from = fullAt - now < 0 ? now : fullAt;
+      long next = from + needed;
+      if (next - now > burstNanos) {
+        return next - now - burstNanos;
+      }
+      if (bucket.compareAndSet(fullAt, next)) {
+        return 0;
+      }
+    }
+  }
+
+  private void sweepForever() {
+    while (true) {
+      try {
+        Thread.sleep(SWEEP_INTERVAL);
+      } catch (InterruptedException e) {
+        return;
+      }
+      sweep(System.nanoTime());
+    }
+  }
+
+  /**
+   * Throw away the buckets that are full (as of `now`).
+   *
+   * A request that looked its bucket up just before we threw it away
+   * takes its tokens from the old bucket, so that client gets (at most)
+   * one request for free; that's cheaper than making every request lock
+   * its bucket.
+   */
+  void sweep(long now) {
+    buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+  }
+
+  /**
+   * Include how many clients we're keeping track of, and how many
+   * requests have been turned away, in the server's metrics.
+   *
+   * @param metrics the server's metrics
+   */
+  public void registerMetrics(ServerMetrics metrics) {
+    metrics.addGauge("rate_limit_clients", "Clients whose request rate is being tracked.", buckets::size);
+    metrics.addCounter("rate_limit_rejected_total", "Requests turned away for going over their client's rate limit.",
+      rejected::sum);
+  }
+
+  /**
+   * @return how many clients we're keeping track of
+   */
+  public int clients() {
+    return buckets.size();
+  }
+
+  /**
+   * @return how many requests have been turned away
+   */
+  public long rejected() {
+    return rejected.sum();
+  }
+}
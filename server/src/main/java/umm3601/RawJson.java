@@ -0,0 +1,135 @@
+package umm3601;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.bson.RawBsonDocument;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Sends documents to the client exactly as they come from the database,
+ * turning their BSON straight into JSON without making a `Todo` or `User`
+ * (or anything else) out of them first.
+ *
+ * The read endpoints never look at the documents they return; they just
+ * decode each one into an object and then have Jackson turn that object
+ * back into JSON. Reading `RawBsonDocument`s (which are just the bytes
+ * MongoDB sent) and piping them through the driver's `JsonWriter` skips
+ * all of that, and doesn't allocate anything per field.
+ *
+ * `_id`s are written as plain hex strings, like Jackson writes them, and
+ * numbers as plain JSON numbers. Unlike Jackson, though, this writes the
+ * fields each document actually has: a missing field is left out (rather
+ * than written as `null`), and a value is written with whatever type it
+ * was stored with.
+ */
+public final class RawJson {
+
+  private static final JsonWriterSettings SETTINGS = JsonWriterSettings.builder()
+    .outputMode(JsonMode.RELAXED)
+    .objectIdConverter((id, writer) -> writer.writeString(id.toHexString()))
+    .build();
+  private static final RawBsonDocumentCodec CODEC = new RawBsonDocumentCodec();
+  private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+  private RawJson() {
+  }
+
+  /**
+   * Set the JSON body of the response to be the single document `document`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param document the document to send
+   */
+  public static void respond(Context ctx, RawBsonDocument document) {
+    ctx.status(HttpStatus.OK);
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    try (Writer writer = writerFor(ctx.outputStream())) {
+      write(writer, document);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be the list of `results`,
+   * writing each one to the response's output stream as the database
+   * cursor hands it to us.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param results the (not yet executed) database query
+   * @param batchSize the cursor batch size to use, or 0 to use the
+   *   driver's default
+   */
+  public static void respond(Context ctx, MongoIterable<RawBsonDocument> results, int batchSize) {
+    // We have to set the status *before* streaming, since it's part of
+    // what gets sent as soon as we start writing the body.
+    ctx.status(HttpStatus.OK);
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    writeArray(ctx.outputStream(), batchSize == 0 ? results : results.batchSize(batchSize));
+  }
+
+  /**
+   * Get the JSON for the list of `results`.
+   *
+   * @param results the (not yet executed) database query
+   * @return the (UTF-8) JSON for the list of results
+   */
+  public static byte[] toBytes(MongoIterable<RawBsonDocument> results) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    writeArray(bytes, results);
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Write the JSON for the list of `results` to `out`.
+   *
+   * Closing the cursor (even if the client goes away partway through)
+   * releases the server-side cursor in MongoDB.
+   */
+  private static void writeArray(OutputStream out, MongoIterable<RawBsonDocument> results) {
+    try (Writer writer = writerFor(out); MongoCursor<RawBsonDocument> cursor = results.cursor()) {
+      writer.write('[');
+      boolean first = true;
+      while (cursor.hasNext()) {
+        if (!first) {
+          writer.write(',');
+        }
+        write(writer, cursor.next());
+        first = false;
+      }
+      writer.write(']');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Writer writerFor(OutputStream out) {
+    return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Write the JSON for `document` to `writer`. The `JsonWriter` reads the
+   * document's BSON and writes its JSON as it goes.
+   */
+  private static void write(Writer writer, RawBsonDocument document) {
+    CODEC.encode(new JsonWriter(writer, SETTINGS), document, ENCODER_CONTEXT);
+  }
+}
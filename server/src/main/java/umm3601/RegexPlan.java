@@ -0,0 +1,307 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.regex;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.bson.conversions.Bson;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * How to run a regular expression a client gave us (e.g., as the todos'
+ * `category` or `contains` parameter) as a MongoDB filter.
+ *
+ * Most of the patterns clients send are really just strings, and
+ * MongoDB can't tell that from the `$regex`: `^homework$` has to be
+ * checked against every `category` in the index, where asking for
+ * `category == "homework"` goes straight to the right entries. So we
+ * look at each pattern first, and:
+ *
+ *   - `^literal$` becomes an `EQUALS` filter,
+ *   - `^literal` becomes a `PREFIX` range (`>= "literal"` and `<` the
+ *     next string that doesn't start with it),
+ *   - other literals (`literal` or `literal$`) stay `$regex`es, but as
+ *     `LITERAL`s, which can't backtrack and so are always cheap, and
+ *   - everything else is a `REGEX`, which has to fit in our budget (see
+ *     `checkBudget()`) and should be run with a time limit, since a
+ *     pattern like `(a+)+b` can keep a MongoDB thread busy for as long
+ *     as it likes.
+ *
+ * Each plan matches the same documents the pattern would. (The one
+ * exception is that PCRE's `$` also matches just before a newline at the
+ * very end, so `^homework$` would match "homework\n"; we take it to mean
+ * what people write it for.)
+ */
+public final class RegexPlan {
+
+  /**
+   * The kinds of plan, from cheapest to most expensive.
+   */
+  public enum Kind {
+    EQUALS, PREFIX, LITERAL, REGEX
+  }
+
+  // The longest "real" regular expression we'll run
+  static final int MAX_PATTERN_LENGTH = 100;
+  // The most quantifiers (`*`, `+`, `?`, `{n,m}`) one may have
+  static final int MAX_QUANTIFIERS = 10;
+
+  // The characters that mean something (unescaped) in a regular expression
+  private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+  private final Kind kind;
+  private final Bson filter;
+
+  private RegexPlan(Kind kind, Bson filter) {
+    this.kind = kind;
+    this.filter = filter;
+  }
+
+  /**
+   * @return what kind of plan this is
+   */
+  public Kind kind() {
+    return kind;
+  }
+
+  /**
+   * @return the filter that matches what the pattern matches
+   */
+  public Bson filter() {
+    return filter;
+  }
+
+  /**
+   * @return true if the query this filter is used in should be run with
+   *   a time limit
+   */
+  public boolean needsTimeLimit() {
+    return kind == Kind.REGEX;
+  }
+
+  /**
+   * Work out how to match `field` against the regular expression `pattern`.
+   *
+   * @param field the name of the field to match
+   * @param pattern the (unanchored, as with `$regex`) regular expression
+   *   the field has to match
+   * @return the plan for matching `field` against `pattern`
+   * @throws BadRequestResponse if `pattern` isn't a legal regular
+   *   expression, or is too expensive to run
+   */
+  public static RegexPlan of(String field, String pattern) {
+    boolean anchoredStart = pattern.startsWith("^");
+    boolean anchoredEnd = pattern.endsWith("$") && !pattern.endsWith("\\$")
+      && pattern.length() > (anchoredStart ? 1 : 0);
+    String body = pattern.substring(anchoredStart ? 1 : 0, pattern.length() - (anchoredEnd ? 1 : 0));
+    String literal = unescapeLiteral(body);
+
+    if (literal != null) {
+      if (anchoredStart && anchoredEnd) {
+        return new RegexPlan(Kind.EQUALS, eq(field, literal));
+      }
+      String upperBound = anchoredStart ? nextPrefix(literal) : null;
+      if (upperBound != null) {
+        return new RegexPlan(Kind.PREFIX, and(gte(field, literal), lt(field, upperBound)));
+      }
+      return new RegexPlan(Kind.LITERAL, regex(field, pattern));
+    }
+
+    checkBudget(pattern);
+    return new RegexPlan(Kind.REGEX, regex(field, pattern));
+  }
+
+  /**
+   * Get the string `pattern` matches, if it's just a string (possibly with
+   * some of its punctuation escaped, like `3\.14`).
+   *
+   * @return the string `pattern` matches, or `null` if it isn't a literal
+   */
+  private static String unescapeLiteral(String pattern) {
+    StringBuilder literal = new StringBuilder(pattern.length());
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        // `\.` is a literal `.`, but `\d`, `\b`, `\1`, etc., aren't literals
+        if (i + 1 == pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+          return null;
+        }
+        literal.append(pattern.charAt(++i));
+      } else if (METACHARACTERS.indexOf(c) >= 0) {
+        return null;
+      } else {
+        literal.append(c);
+      }
+    }
+    return literal.toString();
+  }
+
+  /**
+   * Get the first string (in MongoDB's order, i.e., by code point) after
+   * all the strings that start with `prefix`.
+   *
+   * @return the first string after all the ones starting with `prefix`,
+   *   or `null` if there isn't a simple one (in which case the caller
+   *   should fall back to a `$regex`)
+   */
+  private static String nextPrefix(String prefix) {
+    if (prefix.isEmpty()) {
+      return null;
+    }
+    char last = prefix.charAt(prefix.length() - 1);
+    char next = (char) (last + 1);
+    // Surrogates only make sense in pairs, so leave those to `$regex`
+    if (last == Character.MAX_VALUE || Character.isSurrogate(last) || Character.isSurrogate(next)) {
+      return null;
+    }
+    return prefix.substring(0, prefix.length() - 1) + next;
+  }
+
+  /**
+   * Make sure `pattern` is a legal regular expression that we're willing
+   * to run: it can't be too long, have too many quantifiers, refer back
+   * to earlier groups, or repeat a group that itself has a repeat in it
+   * (like `(a+)+`), which is what makes backtracking blow up.
+   *
+   * (MongoDB's regular expressions are PCRE's, not Java's, but the two
+   * agree about everything we allow through here.)
+   *
+   * @throws BadRequestResponse if `pattern` isn't allowed
+   */
+  static void checkBudget(String pattern) {
+    if (pattern.length() > MAX_PATTERN_LENGTH) {
+      throw new BadRequestResponse("Patterns can be at most " + MAX_PATTERN_LENGTH
+        + " characters long; yours was " + pattern.length());
+    }
+    try {
+      Pattern.compile(pattern);
+    } catch (PatternSyntaxException e) {
+      throw new BadRequestResponse("'" + pattern + "' isn't a legal regular expression: " + e.getDescription());
+    }
+
+    // For each group we're inside of, whether it has a quantifier in it
+    Deque<Boolean> groups = new ArrayDeque<>();
+    boolean lastWasQuantifiedGroup = false;
+    boolean lastWasQuantifier = false;
+    boolean quantifiable = false;
+    boolean groupHasQuantifier = false;
+    int quantifiers = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      boolean quantifier = false;
+      boolean closedQuantifiedGroup = false;
+      switch (c) {
+        case '\\' -> {
+          char escaped = i + 1 < pattern.length() ? pattern.charAt(++i) : ' ';
+          // Everything between `\Q` and `\E` is just text, not syntax
+          if (escaped == 'Q') {
+            i = endOfQuote(pattern, i);
+          }
+          if ((escaped >= '1' && escaped <= '9') || escaped == 'k') {
+            throw new BadRequestResponse("Patterns can't have backreferences");
+          }
+          quantifiable = true;
+        }
+        case '[' -> {
+          i = endOfCharacterClass(pattern, i);
+          quantifiable = true;
+        }
+        case '(' -> {
+          groups.push(groupHasQuantifier);
+          groupHasQuantifier = false;
+          quantifiable = false;
+        }
+        case ')' -> {
+          closedQuantifiedGroup = groupHasQuantifier;
+          boolean outerHasQuantifier = !groups.isEmpty() && groups.pop();
+          groupHasQuantifier = outerHasQuantifier || groupHasQuantifier;
+          quantifiable = true;
+        }
+        case '*', '+', '?', '{' -> {
+          if (c == '{') {
+            int end = pattern.indexOf('}', i);
+            // A `{` that isn't closed can't be a repeat, so it's just text
+            if (end < 0) {
+              quantifiable = true;
+              break;
+            }
+            i = end;
+          }
+          // `a+?` (lazy) and `a++` (possessive) are one quantifier, and
+          // `(?` starts a special group rather than quantifying anything
+          if (quantifiable && !lastWasQuantifier) {
+            quantifier = true;
+            quantifiers++;
+            // (Making such a group optional, as in `(a+)?`, is fine.)
+            if (lastWasQuantifiedGroup && c != '?') {
+              throw new BadRequestResponse(
+                "Patterns can't repeat a group that has a repeat in it, like (a+)+");
+            }
+          }
+        }
+        default -> quantifiable = true;
+      }
+      if (quantifier) {
+        groupHasQuantifier = true;
+      }
+      lastWasQuantifiedGroup = closedQuantifiedGroup;
+      lastWasQuantifier = quantifier;
+    }
+    if (quantifiers > MAX_QUANTIFIERS) {
+      throw new BadRequestResponse("Patterns can have at most " + MAX_QUANTIFIERS
+        + " repeats (*, +, ?, or {n,m}); yours had " + quantifiers);
+    }
+  }
+
+  /**
+   * @return the index of the `]` that ends the character class that
+   *   starts at `start` in `pattern` (which we know is legal)
+   */
+  private static int endOfCharacterClass(String pattern, int start) {
+    int i = start + 1;
+    // A `]` right at the start (or after `^`) is part of the class
+    if (i < pattern.length() && pattern.charAt(i) == '^') {
+      i++;
+    }
+    if (i < pattern.length() && pattern.charAt(i) == ']') {
+      i++;
+    }
+    int depth = 1;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        i++;
+        if (i < pattern.length() && pattern.charAt(i) == 'Q') {
+          i = endOfQuote(pattern, i);
+        }
+      } else if (c == '[') {
+        depth++;
+      } else if (c == ']') {
+        depth--;
+        if (depth == 0) {
+          return i;
+        }
+      }
+      i++;
+    }
+    return pattern.length() - 1;
+  }
+
+  /**
+   * @return the index of the end of the `\E` that ends the quote whose
+   *   `Q` is at `q` in `pattern`, or of the end of `pattern` if the quote
+   *   runs to the end
+   */
+  private static int endOfQuote(String pattern, int q) {
+    int end = pattern.indexOf("\\E", q + 1);
+    return end < 0 ? pattern.length() - 1 : end + 1;
+  }
+}
@@ -0,0 +1,122 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.bson.types.ObjectId;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Checks for the values clients send us (request bodies and IDs) that
+ * don't cost anything when the values are fine.
+ *
+ * Javalin's `check(test, message)` needs the error message up front, so
+ * a message that includes the request body (which is very helpful when
+ * something *is* wrong) gets built on every request, even though almost
+ * every request is fine. Here each `Rule` has a fixed message, and the
+ * body is only added to the messages of the rules that fail.
+ */
+public final class RequestChecks {
+
+  // The key Javalin uses for errors about the request body
+  static final String REQUEST_BODY_KEY = "REQUEST_BODY";
+
+  private RequestChecks() {
+  }
+
+  /**
+   * A single thing that has to be true of a value.
+   *
+   * @param <T> the type of value being checked
+   * @param test returns true if the value is OK
+   * @param message what's wrong with the value if it isn't OK
+   */
+  public record Rule<T>(Predicate<T> test, String message) {
+  }
+
+  /**
+   * Get the body of the request as a `T`, making sure it follows all
+   * the `rules`.
+   *
+   * @param <T> the type of the body
+   * @param ctx a Javalin HTTP context with (the JSON for) a `T` as its body
+   * @param type the class of the body
+   * @param rules the rules the body has to follow
+   * @return the body of the request, as a `T`
+   * @throws ValidationException (which Javalin turns into a 400 Bad Request)
+   *   if the body isn't a legal `T`, or doesn't follow one of the rules;
+   *   there's an error for each rule it doesn't follow, which includes the
+   *   body of the request
+   */
+  public static <T> T body(Context ctx, Class<T> type, List<Rule<T>> rules) {
+    T value = ctx.bodyValidator(type).get();
+
+    List<ValidationError<Object>> errors = null;
+    for (Rule<T> rule : rules) {
+      if (!rule.test().test(value)) {
+        if (errors == null) {
+          errors = new ArrayList<>();
+        }
+        errors.add(new ValidationError<>(rule.message() + "; body was " + ctx.body(), Map.of(), value));
+      }
+    }
+    if (errors != null) {
+      throw new ValidationException(Map.of(REQUEST_BODY_KEY, errors));
+    }
+    return value;
+  }
+
+  /**
+   * Get the message of the first rule that `value` doesn't follow.
+   *
+   * @param <T> the type of value being checked
+   * @param value the value to check
+   * @param rules the rules the value has to follow
+   * @return the message for the first rule `value` doesn't follow, or
+   *   `null` if it follows all of them
+   */
+  public static <T> String firstProblem(T value, List<Rule<T>> rules) {
+    for (Rule<T> rule : rules) {
+      if (!rule.test().test(value)) {
+        return rule.message();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Turn `id` into an `ObjectId`, if it's a legal one.
+   *
+   * Unlike `new ObjectId(id)`, this doesn't throw (and so doesn't fill in
+   * a stack trace) when `id` is junk, which clients send us quite a lot.
+   *
+   * @param id the (hex string) ID to convert
+   * @return the `ObjectId`, or `null` if `id` isn't a legal one
+   */
+  public static ObjectId objectId(String id) {
+    return id != null && ObjectId.isValid(id) ? new ObjectId(id) : null;
+  }
+
+  /**
+   * Make sure the client didn't use any of the query parameters in `keys`,
+   * for handlers that can't honor them, so the client finds out rather
+   * than quietly getting something other than what they asked for.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param keys the query parameters the handler doesn't support
+   * @throws BadRequestResponse if the request has any of them
+   */
+  public static void rejectQueryParams(Context ctx, List<String> keys) {
+    for (String key : keys) {
+      if (ctx.queryParamMap().containsKey(key)) {
+        throw new BadRequestResponse("The " + key + " query parameter isn't supported by this server");
+      }
+    }
+  }
+}
@@ -1,15 +1,26 @@
 package umm3601;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.MongoException;
+import com.mongodb.MongoExecutionTimeoutException;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 
+import org.bson.Document;
 import org.bson.UuidRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.InternalServerErrorResponse;
 
 /**
@@ -20,6 +31,12 @@ public class Server {
   // The port that the server should run on.
   private static final int SERVER_PORT = 4567;
 
+  // The longest we'll wait for the MongoDB connection pool to fill up
+  // before starting the server.
+  private static final Duration POOL_WARM_UP_TIMEOUT = Duration.ofSeconds(30);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Server.class);
+
   // The `mongoClient` field is used to access the MongoDB
   private final MongoClient mongoClient;
 
@@ -27,21 +44,63 @@ public class Server {
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // The settings (thread model, etc.) used to configure the server.
+  private final Config config;
+
+  // Latency, status code, and response size metrics for every route,
+  // served at `/api/metrics`.
+  private final ServerMetrics metrics = new ServerMetrics();
+
+  // Keeps track of the MongoDB connection pool (if we were given one to watch)
+  private final MongoPoolMonitor poolMonitor;
+
+  // Limits how fast each client may make requests (if the server is
+  // configured to), or `null`
+  private final RateLimiter rateLimiter;
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
-   * and start the server.
+   * and start the server, using the default settings.
    *
    * @param mongoClient The MongoDB client object used to access to the database
    * @param controllers The implementations of `Controller` used for this server
    */
   public Server(MongoClient mongoClient, Controller[] controllers) {
+    this(mongoClient, controllers, Config.defaults(), null);
+  }
+
+  /**
+   * Construct a `Server` object that we'll use (via `startServer()`) to configure
+   * and start the server.
+   *
+   * @param mongoClient The MongoDB client object used to access to the database
+   * @param controllers The implementations of `Controller` used for this server
+   * @param config The settings used to configure the server
+   * @param poolMonitor The monitor that was attached to `mongoClient`'s connection
+   *   pool (see `configureDatabase()`), or `null` if there isn't one
+   */
+  public Server(MongoClient mongoClient, Controller[] controllers, Config config, MongoPoolMonitor poolMonitor) {
     this.mongoClient = mongoClient;
+    this.config = config;
+    this.poolMonitor = poolMonitor;
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
     // the caller could modify the array after passing it in, and then
     // we'd be using the modified array without realizing it.
     this.controllers = Arrays.copyOf(controllers, controllers.length);
+    for (Controller controller : this.controllers) {
+      controller.registerMetrics(metrics);
+    }
+    if (config.rateLimitPerSecond() > 0) {
+      rateLimiter = new RateLimiter(config.rateLimitPerSecond(), config.rateLimitBurst(), config.rateLimitApiKeys());
+      rateLimiter.registerMetrics(metrics);
+      for (Controller controller : this.controllers) {
+        controller.registerRequestCosts(rateLimiter);
+      }
+    } else {
+      rateLimiter = null;
+    }
   }
 
   /**
@@ -56,21 +115,77 @@ public class Server {
    * This sets both the `mongoClient` and `database` fields
    * so they can be used when setting up the Javalin server.
    * @param mongoAddr The address of the MongoDB server
+   * @param poolConfig The connection pool, timeout, and compression settings to use
+   * @param poolMonitor Keeps track of what the connection pool is doing
    *
    * @return The MongoDB client object
    */
-  static MongoClient configureDatabase(String mongoAddr) {
+  static MongoClient configureDatabase(String mongoAddr, MongoPoolConfig poolConfig, MongoPoolMonitor poolMonitor) {
     // Setup the MongoDB client object with the information we set earlier
-    MongoClient mongoClient = MongoClients.create(MongoClientSettings
+    MongoClient mongoClient = MongoClients.create(clientSettings(mongoAddr, poolConfig, poolMonitor));
+
+    return mongoClient;
+  }
+
+  /**
+   * Get the settings for a MongoDB client (see `configureDatabase()`).
+   *
+   * Both the sync and the reactive-streams drivers take the same settings,
+   * so a server using the reactive controllers (see `Config.reactiveDriver()`)
+   * connects the same way as one using the sync ones.
+   *
+   * @param mongoAddr The address of the MongoDB server
+   * @param poolConfig The connection pool, timeout, and compression settings to use
+   * @param poolMonitor Keeps track of what the connection pool is doing
+   *
+   * @return The MongoDB client settings
+   */
+  static MongoClientSettings clientSettings(
+      String mongoAddr, MongoPoolConfig poolConfig, MongoPoolMonitor poolMonitor) {
+    return MongoClientSettings
       .builder()
       .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      // The driver's default pool (up to 100 connections, waiting up to 2 minutes
+      // for one to come free) can fill up during traffic spikes, leaving requests
+      // queued up with nothing to show for it. These let us size the pool for our
+      // actual load, and `poolMonitor` lets us see when requests are waiting.
+      .applyToConnectionPoolSettings(builder -> builder
+        .minSize(poolConfig.minPoolSize())
+        .maxSize(poolConfig.maxPoolSize())
+        .maxConnecting(poolConfig.maxConnecting())
+        .maxWaitTime(poolConfig.maxWaitTime().toMillis(), TimeUnit.MILLISECONDS)
+        .maxConnectionIdleTime(poolConfig.maxIdleTime().toMillis(), TimeUnit.MILLISECONDS)
+        .addConnectionPoolListener(poolMonitor))
+      .applyToSocketSettings(builder -> builder
+        .connectTimeout((int) poolConfig.connectTimeout().toMillis(), TimeUnit.MILLISECONDS)
+        .readTimeout((int) poolConfig.readTimeout().toMillis(), TimeUnit.MILLISECONDS))
+      // Compressing what goes over the wire costs a little CPU, but our list
+      // responses (lots of similar documents) compress very well.
+      .compressorList(compressors(poolConfig.compressors()))
       // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
       // a non-standard way. This option says to use the standard encoding.
       // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
       .uuidRepresentation(UuidRepresentation.STANDARD)
-      .build());
+      .build();
+  }
 
-    return mongoClient;
+  /**
+   * Turn a list of compressor names into the compressors themselves.
+   *
+   * @param names the names of the compressors (`zstd`, `snappy`, or `zlib`)
+   * @return the corresponding `MongoCompressor`s, in the same order
+   */
+  private static List<MongoCompressor> compressors(List<String> names) {
+    List<MongoCompressor> compressors = new ArrayList<>();
+    for (String name : names) {
+      switch (name) {
+        case "zstd" -> compressors.add(MongoCompressor.createZstdCompressor());
+        case "snappy" -> compressors.add(MongoCompressor.createSnappyCompressor());
+        case "zlib" -> compressors.add(MongoCompressor.createZlibCompressor());
+        default -> throw new IllegalArgumentException("Unknown Mongo compressor " + name);
+      }
+    }
+    return compressors;
   }
 
   /**
@@ -83,16 +198,66 @@ public class Server {
   void startServer() {
     Javalin javalin = configureJavalin();
     setupRoutes(javalin);
+    warmUpConnectionPool();
     javalin.start(SERVER_PORT);
   }
 
+  /**
+   * Open the connection pool's minimum number of connections before we
+   * start taking requests, so the first requests don't have to wait for
+   * connections to be opened.
+   *
+   * This also adds the connection pool's numbers to the server's metrics.
+   * If the pool doesn't fill up in a reasonable time we start anyway;
+   * the driver will keep trying to open connections in the background.
+   */
+  private void warmUpConnectionPool() {
+    if (poolMonitor == null) {
+      return;
+    }
+    metrics.addGauge("mongodb_pool_connections", "Open MongoDB connections (in use or idle).",
+      poolMonitor::openConnections);
+    metrics.addGauge("mongodb_pool_connections_in_use", "MongoDB connections currently being used.",
+      poolMonitor::checkedOutConnections);
+    metrics.addGauge("mongodb_pool_wait_queue", "Requests waiting for a free MongoDB connection.",
+      poolMonitor::waitingForConnection);
+    metrics.addCounter("mongodb_pool_checkout_failures_total", "Times a request couldn't get a MongoDB connection.",
+      poolMonitor::checkOutFailures);
+
+    int minPoolSize = config.mongoPool().minPoolSize();
+    if (minPoolSize == 0) {
+      return;
+    }
+    try {
+      // The pool only starts filling once the driver has found the server,
+      // and pinging it is the quickest way to make that happen.
+      mongoClient.getDatabase("admin").runCommand(new Document("ping", 1));
+      if (!poolMonitor.awaitReadyConnections(minPoolSize, POOL_WARM_UP_TIMEOUT)) {
+        LOGGER.warn("Only opened {} of {} MongoDB connections before starting; carrying on anyway",
+          poolMonitor.openConnections(), minPoolSize);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   /**
    * Configure the Javalin server. This includes
    *
    * - Adding a route overview plugin to make it easier to see what routes
    *   are available.
+   * - Choosing whether handlers run on virtual threads or on Jetty's
+   *   pool of platform threads.
+   * - Recording metrics (latency, status code, response size) for
+   *   every request.
+   * - Turning API requests away when too many are already running, if
+   *   the server is configured to (see `LoadShedder`).
+   * - Turning requests away from clients that are making too many, if
+   *   the server is configured to (see `RateLimiter`).
    * - Setting it up to shut down gracefully if it's killed or if the
    *   JVM is shut down.
+   * - Building any indexes the controllers need (in the background)
+   *   once it has started.
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    *   error.
    *
@@ -112,14 +277,70 @@ public class Server {
      * `http://localhost:4567/api` shows all of the available endpoints and
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
+     *
+     * `useVirtualThreads` makes Jetty run each request on its own virtual
+     * thread instead of borrowing one from its (bounded) thread pool. Our
+     * handlers mostly sit blocked on the synchronous MongoDB driver, so
+     * this lets us handle many more concurrent requests with the same
+     * hardware.
+     *
+     * The request logger is called once each request has been handled
+     * (whichever route it went to, and even if it failed), so it's where
+     * we record the metrics for each request.
      */
-    Javalin server = Javalin.create(config ->
-      config.bundledPlugins.enableRouteOverview("/api")
-    );
+    Javalin server = Javalin.create(javalinConfig -> {
+      javalinConfig.bundledPlugins.enableRouteOverview("/api");
+      javalinConfig.useVirtualThreads = config.useVirtualThreads();
+      javalinConfig.requestLogger.http(metrics::record);
+    });
+
+    // If asked, limit how many API reads and writes may run at once, so
+    // that when MongoDB slows down the extra requests are turned away
+    // quickly instead of queueing up until everything times out. The
+    // metrics endpoint isn't limited, so we can still see what's going on.
+    if (config.maxConcurrencyLimit() > 0) {
+      LoadShedder loadShedder = new LoadShedder(config.initialConcurrencyLimit(), config.maxConcurrencyLimit());
+      loadShedder.registerMetrics(metrics);
+      server.before("/api/*", ctx -> {
+        if (!ServerMetrics.API_METRICS.equals(ctx.path())) {
+          loadShedder.admit(ctx);
+        }
+      });
+      server.after("/api/*", loadShedder::release);
+    }
+
+    // If asked, limit how fast each client may make requests to the
+    // controllers' routes, so one client hammering an expensive endpoint
+    // can't slow things down for everyone. This runs once the request has
+    // been matched to a route, since what a request costs depends on which
+    // route it's for.
+    if (rateLimiter != null) {
+      server.beforeMatched(ctx -> {
+        if (!ServerMetrics.API_METRICS.equals(ctx.endpointHandlerPath())) {
+          rateLimiter.check(ctx);
+        }
+      });
+    }
 
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
 
+    // If asked, report virtual threads that get pinned to their carrier
+    // threads, since that quietly undoes the benefit of using them.
+    if (config.detectPinning()) {
+      PinnedThreadMonitor pinnedThreadMonitor = new PinnedThreadMonitor();
+      server.events(event -> {
+        event.serverStarted(pinnedThreadMonitor::start);
+        event.serverStopped(pinnedThreadMonitor::close);
+      });
+    }
+
+    // Once the server is taking requests, make sure the indexes our
+    // queries rely on exist. Building an index can take a while, so we
+    // do it in the background rather than holding up the server.
+    server.events(event -> event.serverStarted(() ->
+      Thread.ofVirtual().name("index-reconciler").start(this::reconcileIndexes)));
+
     // This catches any uncaught exceptions thrown in the server
     // code and turns them into a 500 response ("Internal Server
     // Error Response"). In general you'll like to *never* actually
@@ -133,9 +354,32 @@ public class Server {
       throw new InternalServerErrorResponse(e.toString());
     });
 
+    // A query that ran past its time limit (see `RegexPlan`) was one the
+    // client made too expensive, so that's a bad request, not a crash.
+    server.exception(MongoExecutionTimeoutException.class, (e, ctx) -> {
+      throw new BadRequestResponse("The query took too long to run; try a simpler pattern");
+    });
+
     return server;
   }
 
+  /**
+   * Have each controller make sure the indexes its queries need exist.
+   *
+   * A failure here (e.g., the database being unreachable) doesn't stop the
+   * server; the queries just run more slowly until the indexes are built
+   * (by the next restart, or by hand).
+   */
+  private void reconcileIndexes() {
+    for (Controller controller : controllers) {
+      try {
+        controller.reconcileIndexes();
+      } catch (MongoException e) {
+        LOGGER.warn("Couldn't reconcile the indexes for {}", controller.getClass().getSimpleName(), e);
+      }
+    }
+  }
+
   /**
    * Configure the server and the MongoDB client to shut down gracefully.
    *
@@ -172,5 +416,7 @@ public class Server {
     for (Controller controller : controllers) {
       controller.addRoutes(server);
     }
+    // Add the route for getting the server's metrics
+    metrics.addRoutes(server);
   }
 }
@@ -0,0 +1,220 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Per-route request metrics: latency histograms, request counts by
+ * status code, and response sizes.
+ *
+ * `Server` hands every finished request to `record()` (via Javalin's
+ * request logger), and this (as a `Controller`) serves everything it
+ * has collected at `GET /api/metrics` in the Prometheus text format,
+ * so it can be scraped by Prometheus or just read by a person.
+ *
+ * Recording doesn't take any locks or allocate any memory (once a
+ * route has been seen for the first time), so it's fine to leave on
+ * in production.
+ */
+public final class ServerMetrics implements Controller {
+
+  static final String API_METRICS = "/api/metrics";
+  static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // The route name we use for requests that didn't match any route (404s)
+  private static final String UNMATCHED_ROUTE = "unmatched";
+
+  // Status codes run from 100 to 599
+  private static final int STATUS_CODE_LIMIT = 600;
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final double MICROS_PER_SECOND = 1_000_000.0;
+  private static final double MICROS_PER_MILLI = 1_000.0;
+
+  // The metrics for each route, grouped by HTTP method (e.g., "GET")
+  // and then by route path (e.g., "/api/todo/{id}"). Looking the route
+  // up in two steps means we never have to build a combined key.
+  private final Map<String, Map<String, RouteMetrics>> routes = new ConcurrentHashMap<>();
+
+  // Other values (e.g., from the MongoDB connection pool or a cache) to
+  // report along with the route metrics, by metric name.
+  private final Map<String, ExtraMetric> extraMetrics = new ConcurrentSkipListMap<>();
+
+  /**
+   * Include a value that goes up and down (e.g., the number of open
+   * connections) in the metrics.
+   *
+   * @param name the Prometheus metric name
+   * @param help a short description of the metric
+   * @param value gets the current value of the metric
+   */
+  public void addGauge(String name, String help, LongSupplier value) {
+    extraMetrics.put(name, new ExtraMetric("gauge", help, value));
+  }
+
+  /**
+   * Include a value that only ever goes up (e.g., the number of cache
+   * misses) in the metrics.
+   *
+   * @param name the Prometheus metric name
+   * @param help a short description of the metric
+   * @param value gets the current value of the metric
+   */
+  public void addCounter(String name, String help, LongSupplier value) {
+    extraMetrics.put(name, new ExtraMetric("counter", help, value));
+  }
+
+  /**
+   * Record a finished request.
+   *
+   * @param ctx the Javalin HTTP context for the (finished) request
+   * @param executionTimeMs how long the request took, in milliseconds
+   */
+  public void record(Context ctx, float executionTimeMs) {
+    String route = ctx.endpointHandlerPath();
+    if (route == null || route.isEmpty()) {
+      route = UNMATCHED_ROUTE;
+    }
+    RouteMetrics metrics = routes
+      .computeIfAbsent(ctx.method().name(), method -> new ConcurrentHashMap<>())
+      .computeIfAbsent(route, path -> new RouteMetrics());
+
+    metrics.latency.record((long) (executionTimeMs * MICROS_PER_MILLI));
+    int status = ctx.statusCode();
+    if (status >= 0 && status < STATUS_CODE_LIMIT) {
+      metrics.statusCounts.incrementAndGet(status);
+    }
+    metrics.responseBytes.add(responseBytes(ctx));
+  }
+
+  /**
+   * Get the number of bytes written for the response, if we can tell.
+   *
+   * Jetty keeps count of this as it writes the response. (If the response
+   * was compressed, this is the compressed size, i.e., what actually went
+   * over the network.)
+   *
+   * @param ctx the Javalin HTTP context for the (finished) request
+   * @return the number of bytes in the response body, or 0 if we can't tell
+   */
+  private static long responseBytes(Context ctx) {
+    if (ctx.res() instanceof org.eclipse.jetty.server.Response response) {
+      return response.getHttpOutput().getWritten();
+    }
+    return 0;
+  }
+
+  /**
+   * Set the body of the response to be all the metrics we've collected,
+   * in the Prometheus text format.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    ctx.contentType(PROMETHEUS_CONTENT_TYPE);
+    ctx.result(toPrometheus());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * @return all the metrics we've collected, in the Prometheus text format
+   */
+  String toPrometheus() {
+    // Sort the routes so the output is stable from one scrape to the next
+    Map<String, RouteMetrics> sorted = new TreeMap<>();
+    routes.forEach((method, paths) -> paths.forEach((path, metrics) ->
+        sorted.put("method=\"" + escape(method) + "\",route=\"" + escape(path) + "\"", metrics)));
+
+    StringBuilder out = new StringBuilder();
+
+    out.append("# HELP http_server_requests_total Requests handled, by route and status code.\n");
+    out.append("# TYPE http_server_requests_total counter\n");
+    sorted.forEach((labels, metrics) -> {
+      for (int status = 0; status < STATUS_CODE_LIMIT; status++) {
+        long count = metrics.statusCounts.get(status);
+        if (count > 0) {
+          out.append("http_server_requests_total{").append(labels)
+            .append(",status=\"").append(status).append("\"} ").append(count).append('\n');
+        }
+      }
+    });
+
+    out.append("# HELP http_server_request_duration_seconds Time taken to handle requests, by route.\n");
+    out.append("# TYPE http_server_request_duration_seconds summary\n");
+    sorted.forEach((labels, metrics) -> {
+      for (double quantile : QUANTILES) {
+        out.append("http_server_request_duration_seconds{").append(labels)
+          .append(",quantile=\"").append(quantile).append("\"} ")
+          .append(metrics.latency.percentile(quantile) / MICROS_PER_SECOND).append('\n');
+      }
+      out.append("http_server_request_duration_seconds_sum{").append(labels).append("} ")
+        .append(metrics.latency.sumMicros() / MICROS_PER_SECOND).append('\n');
+      out.append("http_server_request_duration_seconds_count{").append(labels).append("} ")
+        .append(metrics.latency.count()).append('\n');
+    });
+
+    out.append("# HELP http_server_response_bytes_total Bytes sent in response bodies, by route.\n");
+    out.append("# TYPE http_server_response_bytes_total counter\n");
+    sorted.forEach((labels, metrics) ->
+        out.append("http_server_response_bytes_total{").append(labels).append("} ")
+          .append(metrics.responseBytes.sum()).append('\n'));
+
+    extraMetrics.forEach((name, metric) -> {
+      out.append("# HELP ").append(name).append(' ').append(metric.help()).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(metric.type()).append('\n');
+      out.append(name).append(' ').append(metric.value().getAsLong()).append('\n');
+    });
+
+    return out.toString();
+  }
+
+  /**
+   * Escape a Prometheus label value.
+   *
+   * @param value the raw label value
+   * @return the value with backslashes, quotes, and newlines escaped
+   */
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  /**
+   * Setup the route for the metrics endpoint:
+   *   - `GET /api/metrics`
+   *      - Get the server's metrics, in the Prometheus text format
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_METRICS, this::getMetrics);
+  }
+
+  /**
+   * A metric that isn't about a particular route.
+   *
+   * @param type the Prometheus metric type (`gauge` or `counter`)
+   * @param help a short description of the metric
+   * @param value gets the current value of the metric
+   */
+  private record ExtraMetric(String type, String help, LongSupplier value) {
+  }
+
+  /**
+   * The metrics collected for a single route.
+   */
+  private static final class RouteMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(STATUS_CODE_LIMIT);
+    private final LongAdder responseBytes = new LongAdder();
+  }
+}
@@ -0,0 +1,149 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Request coalescing ("single-flight") for identical reads.
+ *
+ * When lots of clients ask for exactly the same thing at the same time
+ * (e.g., everyone's dashboard polling `/api/todo?owner=Fry`), there's no
+ * point running the same query, and serializing the same results, for
+ * each of them. The first request for a query runs it; any identical
+ * request that comes in while it's still running waits for it and gets
+ * the same (serialized JSON) bytes, instead of running its own.
+ *
+ * Unlike `QueryResultCache`, nothing is kept once the query is done, so
+ * this never serves anything older than a query that was running when
+ * the request came in. To make sure that query didn't start before a
+ * change the client might already know about, queries are only shared
+ * within a single version of the collection (see `CollectionVersion`):
+ * a request that comes in after a change never joins one that started
+ * before it.
+ */
+public final class SingleFlight {
+
+  private final CollectionVersion version;
+
+  // The queries that are running, by version and query
+  private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+  // How many queries have actually been run, and how many requests were
+  // instead given the result of one that was already running
+  private final LongAdder queries = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+   * Construct a single-flight layer for reads of one collection.
+   *
+   * @param version the version of the collection, which every change to
+   *   it goes through
+   */
+  public SingleFlight(CollectionVersion version) {
+    this.version = version;
+  }
+
+  /**
+   * Get the result of `query`, sharing it with (or getting it from) any
+   * identical query that's running at the same time.
+   *
+   * @param key the normalized query (filter, sort order, limit, ...), which
+   *   is the same for any two requests that should get the same result
+   * @param query runs the query and serializes its result
+   * @return the (serialized JSON) result
+   */
+  public byte[] run(String key, Supplier<byte[]> query) {
+    String versionedKey = version.current() + " " + key;
+    CompletableFuture<byte[]> mine = new CompletableFuture<>();
+    CompletableFuture<byte[]> running = inFlight.putIfAbsent(versionedKey, mine);
+    if (running != null) {
+      coalesced.increment();
+      return await(running);
+    }
+
+    queries.increment();
+    try {
+      byte[] result = query.get();
+      mine.complete(result);
+      return result;
+    } catch (Throwable e) {
+      // Whatever went wrong (even an `Error`), the requests waiting on
+      // us have to hear about it, or they'd wait forever.
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(versionedKey, mine);
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be the result of `query`, shared
+   * with any identical query that's running at the same time (see `run()`).
+   *
+   * @param ctx a Javalin HTTP context
+   * @param key the normalized query
+   * @param query runs the query and serializes its result
+   */
+  public void respond(Context ctx, String key, Supplier<byte[]> query) {
+    byte[] json = run(key, query);
+    ctx.status(HttpStatus.OK);
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    ctx.result(json);
+  }
+
+  /**
+   * Wait for a query someone else is running, and fail the same way it
+   * does if it fails (so, e.g., a timeout is still turned into the same
+   * response).
+   */
+  private static byte[] await(CompletableFuture<byte[]> running) {
+    try {
+      return running.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Include how many queries were run, and how many requests shared a
+   * query that was already running, in the server's metrics.
+   *
+   * @param metrics the server's metrics
+   * @param name the start of the names of these metrics, e.g., `todo_reads`
+   */
+  public void registerMetrics(ServerMetrics metrics, String name) {
+    metrics.addCounter(name + "_queries_total", "Queries run for " + name + ".", queries::sum);
+    metrics.addCounter(name + "_coalesced_total",
+      "Requests for " + name + " given the result of an identical query that was already running.", coalesced::sum);
+    metrics.addGauge(name + "_in_flight", "Queries for " + name + " running right now.", inFlight::size);
+  }
+
+  /**
+   * @return how many queries have been run
+   */
+  public long queries() {
+    return queries.sum();
+  }
+
+  /**
+   * @return how many requests were given the result of an identical
+   *   query that was already running
+   */
+  public long coalesced() {
+    return coalesced.sum();
+  }
+}
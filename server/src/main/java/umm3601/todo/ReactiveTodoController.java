@@ -0,0 +1,250 @@
+package umm3601.todo;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import umm3601.Config;
+import umm3601.Controller;
+import umm3601.FieldProjection;
+import umm3601.IdBatch;
+import umm3601.KeysetPage;
+import umm3601.ListResponses;
+import umm3601.Publishers;
+import umm3601.RateLimiter;
+import umm3601.RequestChecks;
+
+/**
+ * Controller for the todo endpoints that uses MongoDB's reactive-streams
+ * driver instead of the sync one (see `Config.reactiveDriver()`).
+ *
+ * Each handler checks the request (with the same filters, sorting, and
+ * rules as `TodoController`), starts the query, and hands Javalin a
+ * future for the response with `ctx.future()`. So the request thread
+ * goes back to Jetty straight away, rather than waiting on the database,
+ * and the response is sent from whichever of the driver's threads gets
+ * the results.
+ *
+ * This only does the basics: it doesn't cache, tag responses with ETags,
+ * send raw JSON, or batch inserts, and it turns away the list endpoints'
+ * `ids`, paging, `fields`, and `withTotal` parameters with a `400`.
+ */
+public class ReactiveTodoController implements Controller {
+
+  // The query parameters only `TodoController` knows what to do with
+  private static final List<String> UNSUPPORTED_KEYS = List.of(IdBatch.IDS_KEY, KeysetPage.PAGE_SIZE_KEY,
+    KeysetPage.PAGE_TOKEN_KEY, FieldProjection.FIELDS_KEY, ListResponses.WITH_TOTAL_KEY);
+
+  private final MongoCollection<Todo> todoCollection;
+  private final Config config;
+
+  // A sync controller (with the default settings, so it has no caches
+  // or batching of its own), which makes sure the indexes exist
+  private final TodoController syncTodos;
+
+  /**
+   * Construct a reactive controller for todos.
+   *
+   * @param database the (sync) database containing todo data, which is
+   *   only used to make sure the todo indexes exist
+   * @param reactiveDatabase the (reactive) database containing todo data
+   * @param config the settings (e.g., the regex time limit) to use
+   */
+  public ReactiveTodoController(
+      com.mongodb.client.MongoDatabase database, MongoDatabase reactiveDatabase, Config config) {
+    // MongoJack only works with the sync driver, so this always uses our
+    // own codec (see `BsonCodecs`).
+    this.todoCollection = reactiveDatabase
+      .getCollection("todos", Todo.class)
+      .withCodecRegistry(CodecRegistries.fromRegistries(
+        CodecRegistries.fromCodecs(new TodoCodec()),
+        reactiveDatabase.getCodecRegistry()));
+    this.config = config;
+    this.syncTodos = new TodoController(database);
+  }
+
+  /**
+   * Set the JSON body of the response to be the single todo
+   * specified by the `id` parameter in the request
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoByID(Context ctx) {
+    ObjectId id = RequestChecks.objectId(ctx.pathParam("id"));
+    if (id == null) {
+      throw new BadRequestResponse("The requested todo id wasn't a legal Mongo Object ID.");
+    }
+    ctx.future(() -> Publishers.first(todoCollection.find(eq("_id", id)).first()).thenAccept(todo -> {
+      if (todo == null) {
+        throw new NotFoundResponse("The requested todo was not found");
+      }
+      ctx.json(todo);
+      ctx.status(HttpStatus.OK);
+    }));
+  }
+
+  /**
+   * Set the JSON body of the response to be a list of all the todos that
+   * match any requested filters and ordering (see `TodoController.getTodos()`).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodos(Context ctx) {
+    RequestChecks.rejectQueryParams(ctx, UNSUPPORTED_KEYS);
+    Bson combinedFilter = TodoController.constructFilter(ctx);
+    Bson sortingOrder = TodoController.constructSortingOrder(ctx);
+    int skip = ListResponses.skip(ctx);
+    int limit = ListResponses.limit(ctx);
+    long maxTimeMillis = TodoController.regexTimeLimitMillis(ctx, config);
+
+    ctx.future(() -> Publishers.toList(todoCollection
+        .find(combinedFilter)
+        .sort(sortingOrder)
+        .skip(skip)
+        .limit(limit)
+        .maxTime(maxTimeMillis, TimeUnit.MILLISECONDS))
+      .thenAccept(todos -> {
+        ctx.json(todos);
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * Set the JSON body of the response to be `{"count": n}`, where `n` is
+   * the number of todos that match the same filters as `getTodos()`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoCount(Context ctx) {
+    Bson combinedFilter = TodoController.constructFilter(ctx);
+    long maxTimeMillis = TodoController.regexTimeLimitMillis(ctx, config);
+
+    ctx.future(() -> Publishers.first(combinedFilter.toBsonDocument().isEmpty()
+        ? todoCollection.estimatedDocumentCount()
+        : todoCollection.countDocuments(combinedFilter,
+          new CountOptions().maxTime(maxTimeMillis, TimeUnit.MILLISECONDS)))
+      .thenAccept(count -> {
+        ctx.json(Map.of("count", count));
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * Set the JSON body of the response to be the todos with the `status`
+   * given in the query parameters (`complete` or not), for the old
+   * `/api/todos` endpoint.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodosByStatus(Context ctx) {
+    boolean status = "complete".equalsIgnoreCase(ctx.queryParam(TodoController.STATUS_KEY));
+
+    ctx.future(() -> Publishers.toList(todoCollection.find(eq(TodoController.STATUS_KEY, status)))
+      .thenAccept(todos -> {
+        ctx.json(todos);
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * Add a new todo using information from the context (as long as it
+   * follows the same rules as for `TodoController.addNewTodo()`).
+   *
+   * @param ctx a Javalin HTTP context that provides the todo info
+   *  in the JSON body of the request
+   */
+  public void addNewTodo(Context ctx) {
+    Todo newTodo = RequestChecks.body(ctx, Todo.class, TodoController.NEW_TODO_RULES);
+
+    // `TodoCodec` gives the todo its `_id` as it's inserted
+    ctx.future(() -> Publishers.first(todoCollection.insertOne(newTodo)).thenAccept(result -> {
+      ctx.json(Map.of("id", newTodo._id));
+      ctx.status(HttpStatus.CREATED);
+    }));
+  }
+
+  /**
+   * Delete the todo specified by the `id` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteTodoByID(Context ctx) {
+    String id = ctx.pathParam("id");
+    ObjectId objectId = RequestChecks.objectId(id);
+    if (objectId == null) {
+      throw new NotFoundResponse(
+        "Was unable to delete ID " + id + "; perhaps illegal ID or an ID for an item not in the system?");
+    }
+
+    ctx.future(() -> Publishers.first(todoCollection.findOneAndDelete(eq("_id", objectId))).thenAccept(deleted -> {
+      if (deleted == null) {
+        throw new NotFoundResponse(
+          "Was unable to delete ID " + id + "; perhaps illegal ID or an ID for an item not in the system?");
+      }
+      ctx.status(HttpStatus.OK);
+    }));
+  }
+
+  /**
+   * Make sure the todo collection has the indexes in `TodoController.INDEXES`.
+   */
+  @Override
+  public void reconcileIndexes() {
+    syncTodos.reconcileIndexes();
+  }
+
+  /**
+   * Give the same routes the same costs as `TodoController` does.
+   */
+  @Override
+  public void registerRequestCosts(RateLimiter rateLimiter) {
+    syncTodos.registerRequestCosts(rateLimiter);
+  }
+
+  /**
+   * Setup routes for the todo endpoints, which are the same as
+   * `TodoController`'s, except that there's no `POST /api/todo/bulk`.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    // Count todos, filtered using query parameters. (This has to come
+    // before the by-ID route, or "count" would be taken for an ID.)
+    server.get(TodoController.API_TODO_COUNT, this::getTodoCount);
+
+    // Get the specified todo
+    server.get(TodoController.API_TODO_BY_ID, this::getTodoByID);
+
+    // List todos, filtered using query parameters
+    server.get(TodoController.API_TODOS, this::getTodos);
+
+    // Add new todo with the todo info being in the JSON body
+    // of the HTTP request
+    server.post(TodoController.API_TODOS, this::addNewTodo);
+
+    // Delete the specified todo
+    server.delete(TodoController.API_TODO_BY_ID, this::deleteTodoByID);
+
+    // Get the specified todo
+    server.get("/api/todos/{id}", this::getTodoByID);
+
+    // Get todos by status
+    server.get("/api/todos", this::getTodosByStatus);
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601.todo;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import umm3601.BsonCodecs;
+
+/**
+ * Reads and writes `Todo`s as BSON without going through Jackson (see
+ * `BsonCodecs`).
+ *
+ * This is a `CollectibleCodec` so the driver can give a new todo an
+ * `_id` when it's inserted, the way MongoJack does.
+ */
+final class TodoCodec implements CollectibleCodec<Todo> {
+
+  @Override
+  public void encode(BsonWriter writer, Todo todo, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    BsonCodecs.writeId(writer, todo._id);
+    BsonCodecs.writeString(writer, "owner", todo.owner);
+    writer.writeBoolean("status", todo.status);
+    BsonCodecs.writeString(writer, "body", todo.body);
+    BsonCodecs.writeString(writer, "category", todo.category);
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Todo decode(BsonReader reader, DecoderContext decoderContext) {
+    Todo todo = new Todo();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id" -> todo._id = BsonCodecs.readId(reader);
+        case "owner" -> todo.owner = BsonCodecs.readString(reader);
+        case "status" -> todo.status = BsonCodecs.readBoolean(reader);
+        case "body" -> todo.body = BsonCodecs.readString(reader);
+        case "category" -> todo.category = BsonCodecs.readString(reader);
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return todo;
+  }
+
+  @Override
+  public Class<Todo> getEncoderClass() {
+    return Todo.class;
+  }
+
+  @Override
+  public Todo generateIdIfAbsentFromDocument(Todo todo) {
+    if (todo._id == null) {
+      todo._id = new ObjectId().toHexString();
+    }
+    return todo;
+  }
+
+  @Override
+  public boolean documentHasId(Todo todo) {
+    return todo._id != null;
+  }
+
+  @Override
+  public BsonValue getDocumentId(Todo todo) {
+    if (todo._id == null) {
+      throw new IllegalStateException("The todo doesn't have an _id");
+    }
+    return new BsonObjectId(new ObjectId(todo._id));
+  }
+}
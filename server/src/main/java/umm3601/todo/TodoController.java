@@ -4,61 +4,208 @@ package umm3601.todo;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.regex;
+import static com.mongodb.client.model.Filters.text;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import org.bson.Document;
-import org.bson.UuidRepresentation;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
-import org.mongojack.JacksonMongoCollection;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+import io.javalin.json.JsonMapper;
+import umm3601.BsonCodecs;
+import umm3601.ByIdCache;
+import umm3601.CollectionVersion;
+import umm3601.Config;
 import umm3601.Controller;
+import umm3601.FieldProjection;
+import umm3601.GroupCommit;
+import umm3601.IdBatch;
+import umm3601.IndexReconciler;
+import umm3601.KeysetPage;
+import umm3601.ListResponses;
+import umm3601.QueryResultCache;
+import umm3601.RateLimiter;
+import umm3601.RawJson;
+import umm3601.RegexPlan;
+import umm3601.RequestChecks;
+import umm3601.ServerMetrics;
+import umm3601.SingleFlight;
 
 /**
  * Controller that manages requests for info about todos.
  */
 public class TodoController implements Controller {
 
-  private static final String API_TODOS = "/api/todo";
-  private static final String API_TODO_BY_ID = "/api/todo/{id}";
+  static final String API_TODOS = "/api/todo";
+  static final String API_TODO_BY_ID = "/api/todo/{id}";
+  private static final String API_TODOS_BULK = "/api/todo/bulk";
+  static final String API_TODO_COUNT = "/api/todo/count";
   static final String OWNER_KEY = "owner";
   static final String CATEGORY_KEY = "category";
   static final String STATUS_KEY = "status";
   static final String BODY_KEY = "body";
+  static final String SEARCH_KEY = "search";
+  static final String CONTAINS_KEY = "contains";
+  static final String LIMIT_KEY = ListResponses.LIMIT_KEY;
+  static final String SORT_BY_KEY = "sortby";
   public static final String SORT_ORDER_KEY = "sortorder";
+  private static final String SORT_DESCENDING = "desc";
+  // The name we give the relevance score of a full-text `search` result
+  private static final String TEXT_SCORE = "score";
+
+  // How many tokens (see `RateLimiter`) the requests that are more work
+  // than looking a todo up by its ID cost: listing todos, listing (or
+  // counting) them with a "real" regular expression, and bulk inserts
+  private static final int LIST_COST = 2;
+  private static final int REGEX_COST = 5;
+  private static final int BULK_COST = 10;
+
+  // The fields we can page through the todos by (see `KeysetPage`), and how
+  // to get the value of each field from a `Todo`.
+  private static final Map<String, Function<Todo, Object>> PAGEABLE_FIELDS = Map.of(
+    OWNER_KEY, todo -> todo.owner,
+    CATEGORY_KEY, todo -> todo.category,
+    BODY_KEY, todo -> todo.body,
+    STATUS_KEY, todo -> todo.status);
+
+  // The fields clients can ask for with `fields` (see `FieldProjection`)
+  private static final List<String> PROJECTABLE_FIELDS = List.of("_id", OWNER_KEY, STATUS_KEY, BODY_KEY, CATEGORY_KEY);
+
+  // The indexes the queries built by `constructFilter()` (and the default
+  // sort by owner) need, so none of them has to scan the whole collection.
+  // `Server` makes sure these exist (see `IndexReconciler`) once it starts.
+  static final List<IndexModel> INDEXES = List.of(
+    // A particular owner's todos, possibly just the (in)complete ones
+    new IndexModel(Indexes.ascending(OWNER_KEY, STATUS_KEY), new IndexOptions().name("owner_status")),
+    // All the (in)complete todos, in the default order (by owner)
+    new IndexModel(Indexes.ascending(STATUS_KEY, OWNER_KEY), new IndexOptions().name("status_owner")),
+    // Category and body searches are regular expressions, which MongoDB can
+    // check against the (much smaller) index instead of every document
+    new IndexModel(Indexes.ascending(CATEGORY_KEY), new IndexOptions().name("category")),
+    new IndexModel(Indexes.ascending(BODY_KEY), new IndexOptions().name("body")),
+    // Full-text `search`es, which (unlike the regular expressions) don't
+    // have to look at every body in the index
+    new IndexModel(Indexes.compoundIndex(Indexes.text(BODY_KEY), Indexes.text(CATEGORY_KEY)),
+      new IndexOptions().name("body_category_text")),
+    // What's left to do, by owner and category. Most todos eventually get
+    // done, so only indexing the incomplete ones keeps this index small.
+    new IndexModel(Indexes.ascending(OWNER_KEY, CATEGORY_KEY), new IndexOptions()
+      .name("incomplete_owner_category")
+      .partialFilterExpression(eq(STATUS_KEY, false))));
+
+  // What has to be true of a new todo (see `addNewTodo()`, `addTodosInBulk()`,
+  // and `ReactiveTodoController`)
+  static final List<RequestChecks.Rule<Todo>> NEW_TODO_RULES = List.of(
+    new RequestChecks.Rule<>(todo -> todo.owner != null && todo.owner.length() > 0,
+      "Todo must have a non-empty owner"),
+    new RequestChecks.Rule<>(todo -> todo.category != null && todo.category.length() > 0,
+      "Todo must have a non-empty category"),
+    new RequestChecks.Rule<>(todo -> todo.body != null && todo.body.length() > 0,
+      "Todo must have a non-empty body"));
+
+  // Splits the body of a bulk insert into its todos one at a time, whether
+  // they come as a JSON array or as newline-delimited JSON (one todo per
+  // line). Each todo is then turned into a `Todo` by Javalin's JSON mapper,
+  // the same as in `addNewTodo()`.
+  private static final ObjectReader BULK_READER = new ObjectMapper().readerFor(JsonNode.class);
+
+  private final MongoCollection<Todo> todoCollection;
+  private final Config config;
+
+  // The todo collection as `RawBsonDocument`s (see `RawJson`), for
+  // sending todos straight from their BSON
+  private final MongoCollection<RawBsonDocument> rawTodos;
+
+  // Counts the changes we make to the todos, for tagging responses with
+  // ETags (see `CollectionVersion`)
+  private final CollectionVersion todoVersion = new CollectionVersion();
+
+  // The cache of (serialized) `getTodos` results, or `null` if the
+  // server isn't configured to cache them.
+  private final QueryResultCache queryCache;
+
+  // The cache of todos by ID, or `null` if the server isn't configured
+  // to cache them.
+  private final ByIdCache<Todo> todoById;
+
+  // Batches up the inserts for `addNewTodo()` (see `GroupCommit`), or
+  // `null` if the server isn't configured to batch them.
+  private final GroupCommit<Todo> newTodos;
+
+  // Shares `getTodos` queries among identical requests that arrive while
+  // they're running (see `SingleFlight`), or `null` if the server isn't
+  // configured to coalesce reads.
+  private final SingleFlight todoReads;
 
-
-
-  private final JacksonMongoCollection<Todo> todoCollection;
+  /**
+   * Construct a controller for todos, using the default settings.
+   *
+   * @param database the database containing todo data
+   */
+  public TodoController(MongoDatabase database) {
+    this(database, Config.defaults());
+  }
 
   /**
    * Construct a controller for todos.
    *
    * @param database the database containing todo data
+   * @param config the settings (e.g., whether to stream results) to use
    */
-  public TodoController(MongoDatabase database) {
-    todoCollection = JacksonMongoCollection.builder().build(
-        database,
-        "todos",
-        Todo.class,
-        UuidRepresentation.STANDARD);
+  public TodoController(MongoDatabase database, Config config) {
+    todoCollection = BsonCodecs.collection(database, "todos", Todo.class, config, List.of(new TodoCodec()));
+    this.config = config;
+    this.rawTodos = database.getCollection("todos", RawBsonDocument.class);
+    this.queryCache = config.todoCacheMaxBytes() > 0
+      ? new QueryResultCache(config.todoCacheMaxBytes(), config.todoCacheTtl())
+      : null;
+    this.todoById = config.byIdCacheSize() > 0 ? new ByIdCache<>(config.byIdCacheSize()) : null;
+    this.newTodos = config.writeBehindBatchSize() > 0
+      ? new GroupCommit<>("todo-group-commit", this::insertBatch,
+        config.writeBehindBatchSize(), config.writeBehindMaxDelay(), config.writeBehindQueueCapacity())
+      : null;
+    this.todoReads = config.coalesceReads() ? new SingleFlight(todoVersion) : null;
   }
 
   /**
@@ -69,14 +216,26 @@ public class TodoController implements Controller {
    */
 
   public void getTodoByID(Context ctx) {
-    String id = ctx.pathParam("id");
-    Todo todo;
-
-    try {
-      todo = todoCollection.find(eq("_id", new ObjectId(id))).first();
-    } catch (IllegalArgumentException e) {
+    ObjectId id = RequestChecks.objectId(ctx.pathParam("id"));
+    if (id == null) {
       throw new BadRequestResponse("The requested todo id wasn't a legal Mongo Object ID.");
     }
+    if (config.etags() && todoVersion.notModified(ctx, id.toHexString())) {
+      return;
+    }
+    // The cache holds `Todo`s, so if it's on we don't send todos straight
+    // from their BSON.
+    if (config.rawJson() && todoById == null) {
+      RawBsonDocument todo = rawTodos.find(eq("_id", id)).first();
+      if (todo == null) {
+        throw new NotFoundResponse("The requested todo was not found");
+      }
+      RawJson.respond(ctx, todo);
+      return;
+    }
+    Todo todo = todoById == null
+      ? todoCollection.find(eq("_id", id)).first()
+      : todoById.get(id, () -> todoCollection.find(eq("_id", id)).first());
     if (todo == null) {
       throw new NotFoundResponse("The requested todo was not found");
     } else {
@@ -89,45 +248,244 @@ public class TodoController implements Controller {
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
    *
+   * Clients that only need some of each todo's fields (most lists don't
+   * show the `body`) can ask for just those with, e.g., `fields=owner,status`.
+   * Clients that want particular todos can ask for them all at once with
+   * `ids=...` (see `IdBatch`). Clients can page through the todos with
+   * `skip` and `limit`; asking for the total as well (`withTotal=true`)
+   * needs a `limit`.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getTodos(Context ctx) {
+    IdBatch batch = IdBatch.fromContext(ctx);
     Bson combinedFilter = constructFilter(ctx);
+    Bson projection = FieldProjection.fromContext(ctx, PROJECTABLE_FIELDS);
+    if (config.etags() && todoVersion.notModified(ctx, ctx.queryString())) {
+      return;
+    }
+
+    // If the client asked for particular todos (with `ids`), hand back
+    // just those.
+    if (batch != null) {
+      batch.respond(ctx, todoCollection, todo -> todo._id, todoById);
+      return;
+    }
+    // How long MongoDB may spend running the query (0 for as long as it
+    // takes), which is only limited for "real" regular expressions
+    long maxTimeMillis = regexTimeLimitMillis(ctx, config);
+
+    // If the client asked for a page of results (with `pageSize` and/or
+    // `pageToken`), hand back just that page.
+    KeysetPage<Todo> page = KeysetPage.fromContext(ctx, sortField(ctx),
+      SORT_DESCENDING.equals(ctx.queryParam(SORT_ORDER_KEY)), PAGEABLE_FIELDS, todo -> todo._id);
+    if (page != null) {
+      if (projection != null) {
+        throw new BadRequestResponse(
+          "Paged results always have all their fields; leave out " + FieldProjection.FIELDS_KEY);
+      }
+      if (ListResponses.wantsTotal(ctx)) {
+        throw new BadRequestResponse(
+          "Paged results don't come with a total; use " + API_TODO_COUNT + " instead");
+      }
+      page.respond(ctx, todoCollection, combinedFilter, maxTimeMillis);
+      return;
+    }
+
     Bson sortingOrder = constructSortingOrder(ctx);
-    int limit = 0;
-    if (ctx.queryParamMap().containsKey("limit"))
-      limit = Integer.parseInt(ctx.queryParam("limit"));
+    int skip = ListResponses.skip(ctx);
+    int limit = ListResponses.limit(ctx);
+
+    // If the client wants to know how many todos matched as well (e.g., to
+    // show "11-20 of 243"), get both at once.
+    if (ListResponses.wantsTotal(ctx)) {
+      ListResponses.checkLimitForTotal(limit);
+      List<Bson> itemStages = new ArrayList<>();
+      itemStages.add(Aggregates.sort(sortingOrder));
+      if (skip > 0) {
+        itemStages.add(Aggregates.skip(skip));
+      }
+      itemStages.add(Aggregates.limit(limit));
+      if (projection != null) {
+        itemStages.add(Aggregates.project(projection));
+      }
+      ListResponses.respondWithTotal(ctx, rawTodos, combinedFilter, itemStages, maxTimeMillis);
+      return;
+    }
+
+    // If we're caching results, use the cached result for this query if
+    // there is one, or run the query and cache the result if there isn't.
+    // (And if we're coalescing reads, share the query with any identical
+    // one that's already running.)
+    if (queryCache != null || todoReads != null) {
+      respondShared(ctx, combinedFilter, sortingOrder, skip, limit, projection, maxTimeMillis);
+      return;
+    }
+
+    if (config.rawJson() || projection != null) {
+      RawJson.respond(ctx,
+        rawTodos.find(combinedFilter).projection(projection).sort(sortingOrder).skip(skip).limit(limit)
+          .maxTime(maxTimeMillis, TimeUnit.MILLISECONDS),
+        config.streamBatchSize());
+      return;
+    }
 
+    // Set the JSON body of the response to be the list of todos returned by the
+    // database (streaming them if the server is configured to do so).
+    ListResponses.respond(ctx,
+      todoCollection
+        .find(combinedFilter)
+        .sort(sortingOrder)
+        .skip(skip)
+        .limit(limit)
+        .maxTime(maxTimeMillis, TimeUnit.MILLISECONDS),
+      config.streamBatchSize());
+  }
 
-    ArrayList<Todo> matchingTodos = todoCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .limit(limit)
-      .into(new ArrayList<>());
+  /**
+   * Set the JSON body of the response to be `{"count": n}`, where `n` is
+   * the number of todos that match the same filters as `getTodos()`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoCount(Context ctx) {
+    Bson combinedFilter = constructFilter(ctx);
+    if (config.etags() && todoVersion.notModified(ctx, ctx.queryString())) {
+      return;
+    }
+    ListResponses.respondWithCount(ctx, todoCollection, combinedFilter, regexTimeLimitMillis(ctx, config));
+  }
 
-    // Set the JSON body of the response to be the list of users returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingTodos);
+  /**
+   * Set the body of the response to be the (serialized) list of todos
+   * matching `filter`, taking it from the query cache if we can, and
+   * otherwise sharing the query with any identical one that's already
+   * running (see `SingleFlight`), if we're coalescing reads.
+   *
+   * Cached results are "partitioned" by owner: a query that asks for a
+   * particular owner's todos can only be affected by adding or deleting
+   * one of that owner's todos, so those are the only changes that need
+   * to throw it out of the cache.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param filter the filter for the todos to return
+   * @param sortingOrder the order to return the todos in
+   * @param skip how many matching todos to skip
+   * @param limit the most todos to return (0 for no limit)
+   * @param projection the fields of each todo to return, or `null` for all of them
+   * @param maxTimeMillis how long the query may run for (0 for no limit)
+   */
+  private void respondShared(
+      Context ctx, Bson filter, Bson sortingOrder, int skip, int limit, Bson projection, long maxTimeMillis) {
+    String owner = ctx.queryParamMap().containsKey(OWNER_KEY) ? ctx.queryParam(OWNER_KEY) : null;
+    // The filter and sort documents are built up in a fixed order, so the
+    // same query always gives the same (normalized) key, no matter what
+    // order the client put the query parameters in.
+    QueryResultCache.Key key = new QueryResultCache.Key(owner,
+      filter.toBsonDocument().toJson()
+        + " sort " + sortingOrder.toBsonDocument().toJson()
+        + " skip " + skip
+        + " limit " + limit
+        + " fields " + FieldProjection.describe(projection));
+
+    Supplier<byte[]> query = () -> {
+      if (config.rawJson() || projection != null) {
+        return RawJson.toBytes(rawTodos.find(filter).projection(projection).sort(sortingOrder).skip(skip)
+          .limit(limit).maxTime(maxTimeMillis, TimeUnit.MILLISECONDS));
+      }
+      List<Todo> matchingTodos = todoCollection
+        .find(filter)
+        .sort(sortingOrder)
+        .skip(skip)
+        .limit(limit)
+        .maxTime(maxTimeMillis, TimeUnit.MILLISECONDS)
+        .into(new ArrayList<>());
+      return ctx.jsonMapper().toJsonString(matchingTodos, List.class).getBytes(StandardCharsets.UTF_8);
+    };
+    Supplier<byte[]> sharedQuery = todoReads == null ? query : () -> todoReads.run(key.query(), query);
+    byte[] json = queryCache == null ? sharedQuery.get() : queryCache.get(key, sharedQuery);
 
-    // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    ctx.result(json);
+  }
+
+  /**
+   * Get how long MongoDB may spend on the query for this request: the
+   * time limit for "real" regular expressions if the `category` or
+   * `contains` is one (see `RegexPlan`), or no limit (0) if not.
+   *
+   * @param ctx a Javalin HTTP context
+   * @param config the server's settings, which have the time limit
+   * @return the time limit for the query in milliseconds, or 0 for none
+   */
+  static long regexTimeLimitMillis(Context ctx, Config config) {
+    return runsRegex(ctx) ? config.regexTimeLimit().toMillis() : 0;
+  }
+
+  /**
+   * @param ctx a Javalin HTTP context
+   * @return true if the `category` or `contains` for this request is a
+   *   "real" regular expression (see `RegexPlan`)
+   */
+  static boolean runsRegex(Context ctx) {
+    boolean runsRegex = false;
+    if (ctx.queryParamMap().containsKey(CATEGORY_KEY)) {
+      runsRegex |= RegexPlan.of(CATEGORY_KEY, ctx.queryParam(CATEGORY_KEY)).needsTimeLimit();
+    }
+    if (ctx.queryParamMap().containsKey(CONTAINS_KEY)) {
+      runsRegex |= RegexPlan.of(BODY_KEY, ctx.queryParam(CONTAINS_KEY)).needsTimeLimit();
+    }
+    return runsRegex;
+  }
+
+  /**
+   * Add the by-ID cache's hit, miss, and eviction counts, the number of
+   * new todos waiting to be inserted, and the number of reads that were
+   * coalesced (for whichever of those the server is configured to do) to
+   * the server's metrics.
+   */
+  @Override
+  public void registerMetrics(ServerMetrics metrics) {
+    if (todoById != null) {
+      todoById.registerMetrics(metrics, "todo_by_id_cache");
+    }
+    if (newTodos != null) {
+      metrics.addGauge("todo_write_behind_pending", "New todos waiting to be inserted.", newTodos::pending);
+    }
+    if (todoReads != null) {
+      todoReads.registerMetrics(metrics, "todo_reads");
+    }
+  }
+
+  /**
+   * Make listing todos cost more than looking one up by its ID, listing
+   * or counting them with a "real" regular expression (which MongoDB has
+   * to run against every category or body in the index) cost more still,
+   * and bulk inserts cost the most.
+   */
+  @Override
+  public void registerRequestCosts(RateLimiter rateLimiter) {
+    rateLimiter.setCost(HandlerType.GET, API_TODOS, ctx -> runsRegex(ctx) ? REGEX_COST : LIST_COST);
+    rateLimiter.setCost(HandlerType.GET, API_TODO_COUNT, ctx -> runsRegex(ctx) ? REGEX_COST : RateLimiter.DEFAULT_COST);
+    rateLimiter.setCost(HandlerType.GET, "/api/todos", ctx -> LIST_COST);
+    rateLimiter.setCost(HandlerType.POST, API_TODOS_BULK, ctx -> BULK_COST);
+  }
+
+  /**
+   * Make sure the todo collection has the indexes in `INDEXES`.
+   */
+  @Override
+  public void reconcileIndexes() {
+    IndexReconciler.reconcile(todoCollection, INDEXES);
   }
 
   public void getTodosByStatus(Context ctx) {
     String statusParam = ctx.queryParam("status");
-    System.out.println("Query parameter 'status': " + statusParam); // Debug log
-
     boolean status = "complete".equalsIgnoreCase(statusParam);
-    System.out.println("Boolean status: " + status); // Debug log
 
     Bson statusFilter = eq(STATUS_KEY, status);
-    ArrayList<Todo> matchingTodos = todoCollection
-      .find(statusFilter)
-      .into(new ArrayList<>());
-
-    ctx.json(matchingTodos);
-    ctx.status(HttpStatus.OK);
+    ListResponses.respond(ctx, todoCollection.find(statusFilter), config.streamBatchSize());
 }
 
 
@@ -144,14 +502,14 @@ public class TodoController implements Controller {
    * @return a Bson filter document that can be used in the `find` method
    *   to filter the database collection of users
    */
-  private Bson constructFilter(Context ctx) {
+  static Bson constructFilter(Context ctx) {
     List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
 
     if (ctx.queryParamMap().containsKey(OWNER_KEY)) {
       filters.add(eq(OWNER_KEY, ctx.queryParam(OWNER_KEY)));
     }
     if (ctx.queryParamMap().containsKey(CATEGORY_KEY)) {
-      filters.add(regex(CATEGORY_KEY, ctx.queryParam(CATEGORY_KEY)));
+      filters.add(RegexPlan.of(CATEGORY_KEY, ctx.queryParam(CATEGORY_KEY)).filter());
     }
     if (ctx.queryParamMap().containsKey(STATUS_KEY)) {
       String statusParam = ctx.queryParam(STATUS_KEY);
@@ -165,8 +523,14 @@ public class TodoController implements Controller {
         Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(BODY_KEY)), Pattern.CASE_INSENSITIVE);
       filters.add(regex(BODY_KEY, pattern));
     }
-    if (ctx.queryParamMap().containsKey("contains")) {
-      filters.add(regex(BODY_KEY, ctx.queryParam("contains")));
+    if (ctx.queryParamMap().containsKey(CONTAINS_KEY)) {
+      filters.add(RegexPlan.of(BODY_KEY, ctx.queryParam(CONTAINS_KEY)).filter());
+    }
+    if (ctx.queryParamMap().containsKey(SEARCH_KEY)) {
+      // This uses the text index on `body` and `category`, so (unlike `body`
+      // and `contains`) it finds whole words rather than substrings. The
+      // search can include "quoted phrases" and -negated words.
+      filters.add(text(ctx.queryParam(SEARCH_KEY)));
     }
 
 
@@ -185,7 +549,8 @@ public class TodoController implements Controller {
    * parameters and constructs a sorting document that will sort users by
    * the specified field in the specified order. If the `sortby` query
    * parameter is not present, it defaults to "name". If the `sortorder`
-   * query parameter is not present, it defaults to "asc".
+   * query parameter is not present, it defaults to "asc". The results of a
+   * full-text `search` are instead (by default) ranked by how well they match.
    *
    * @param ctx a Javalin HTTP context, which    };
     ontains the query parameters
@@ -193,13 +558,27 @@ public class TodoController implements Controller {
    * @return a Bson sorting document that can be used in the `sort` method
    *  to sort the database collection of users
    */
-  private Bson constructSortingOrder(Context ctx) {
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "owner");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+  static Bson constructSortingOrder(Context ctx) {
+    if (ctx.queryParamMap().containsKey(SEARCH_KEY) && !ctx.queryParamMap().containsKey(SORT_BY_KEY)) {
+      return Sorts.metaTextScore(TEXT_SCORE);
+    }
+    String sortBy = sortField(ctx);
+    String sortOrder = Objects.requireNonNullElse(ctx.queryParam(SORT_ORDER_KEY), "asc");
+    Bson sortingOrder = sortOrder.equals(SORT_DESCENDING) ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
     return sortingOrder;
   }
 
+  /**
+   * Get the field to sort the todos by, from the `sortby` query parameter
+   * (defaulting to "owner").
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return the name of the field to sort by
+   */
+  private static String sortField(Context ctx) {
+    return Objects.requireNonNullElse(ctx.queryParam(SORT_BY_KEY), OWNER_KEY);
+  }
+
   /**
    * Set the JSON body of the response to be a list of all the user names and IDs
    * returned from the database, grouped by company
@@ -219,24 +598,40 @@ public class TodoController implements Controller {
    * Add a new user using information from the context
    * (as long as the information gives "legal" values to User fields)
    *
+   * If the server is configured to, the new todo is inserted along with
+   * others in a batch (see `GroupCommit`), and the response is `503` if
+   * too many are already waiting.
+   *
    * @param ctx a Javalin HTTP context that provides the user info
    *  in the JSON body of the request
    */
   public void addNewTodo(Context ctx) {
 
-    String body = ctx.body();
-    Todo newTodo = ctx.bodyValidator(Todo.class)
-      .check(todo -> todo.owner != null && todo.owner.length() > 0,
-        "Todo must have a non-empty owner; body was " + body)
-      .check(todo -> todo.category != null && todo.category.length() > 0,
-        "Todo must have a non-empty category; body was" + body)
-      .check(todo -> todo.body != null && todo.body.length() > 0,
-        "Todo must have a non-empty body; body was " + body)
-      .get();
-
+    // The checks are in `NEW_TODO_RULES`; the body of the request is only
+    // added to the error messages if a check fails.
+    Todo newTodo = RequestChecks.body(ctx, Todo.class, NEW_TODO_RULES);
+
+    // If we're batching inserts, give the todo its ID now (so we can tell
+    // the client what it is), and finish the request once its batch has
+    // been inserted.
+    if (newTodos != null) {
+      newTodo._id = new ObjectId().toHexString();
+      CompletableFuture<Void> inserted = newTodos.submit(newTodo);
+      if (inserted == null) {
+        throw new ServiceUnavailableResponse("Too many new todos are waiting to be added; try again shortly");
+      }
+      ctx.future(() -> inserted.thenRun(() -> {
+        ctx.json(Map.of("id", newTodo._id));
+        ctx.status(HttpStatus.CREATED);
+      }));
+      return;
+    }
 
     // Add the new todo to the database
-    todoCollection.insertOne(newTodo);
+    todoVersion.change(() -> todoCollection.insertOne(newTodo));
+    if (queryCache != null) {
+      queryCache.invalidate(newTodo.owner);
+    }
 
     // Set the JSON response to be the `_id` of the newly created user.
     // This gives the client the opportunity to know the ID of the new user,
@@ -250,6 +645,169 @@ public class TodoController implements Controller {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Insert a batch of new todos from `addNewTodo()` (see `GroupCommit`).
+   *
+   * @param batch the todos to insert, with their IDs already set
+   */
+  private void insertBatch(List<Todo> batch) {
+    try {
+      todoVersion.change(() -> todoCollection.insertMany(batch, new InsertManyOptions().ordered(false)));
+    } finally {
+      // Even if some of the inserts failed, the rest might not have
+      if (queryCache != null) {
+        batch.forEach(todo -> queryCache.invalidate(todo.owner));
+      }
+    }
+  }
+
+  /**
+   * Add many todos at once, from a JSON array of todos or from
+   * newline-delimited JSON (one todo per line) in the body of the request.
+   *
+   * The todos are read from the request as they arrive (rather than reading
+   * the whole body first), checked with the same rules as `addNewTodo()`,
+   * and inserted with unordered `insertMany`s of (by default) 1000 todos at
+   * a time. One bad todo doesn't stop the rest from being added: the
+   * response lists, for each todo in the request (by its position, starting
+   * at 0), either the `id` it was given or the `error` that stopped it from
+   * being added. The status is 201 if every todo was added, 207 (Multi-Status)
+   * if some weren't, and 400 if the body stopped being valid JSON partway
+   * through (in which case the todos before that point are still added).
+   *
+   * @param ctx a Javalin HTTP context with the todos in the body of the request
+   * @throws IOException if the request body can't be read
+   */
+  public void addTodosInBulk(Context ctx) throws IOException {
+    BulkInsert insert = new BulkInsert(ctx.jsonMapper(), config.bulkInsertBatchSize());
+    String malformedBody = null;
+    try (MappingIterator<JsonNode> items = BULK_READER.readValues(ctx.bodyInputStream())) {
+      while (items.hasNextValue()) {
+        insert.add(items.nextValue());
+      }
+    } catch (JsonProcessingException e) {
+      malformedBody = "The request body wasn't valid JSON after todo " + insert.results.size()
+        + ": " + e.getOriginalMessage();
+    }
+    insert.flush();
+
+    Map<String, Object> response = new HashMap<>();
+    response.put("inserted", insert.inserted);
+    response.put("failed", insert.results.size() - insert.inserted);
+    response.put("results", insert.results);
+    if (malformedBody != null) {
+      response.put("error", malformedBody);
+    }
+    ctx.json(response);
+    if (malformedBody != null) {
+      ctx.status(HttpStatus.BAD_REQUEST);
+    } else if (insert.inserted < insert.results.size()) {
+      ctx.status(HttpStatus.MULTI_STATUS);
+    } else {
+      ctx.status(HttpStatus.CREATED);
+    }
+  }
+
+  /**
+   * The state of a single bulk insert: the todos collected for the next
+   * `insertMany`, and what's happened to every todo seen so far.
+   */
+  private final class BulkInsert {
+    private final JsonMapper jsonMapper;
+    private final int batchSize;
+    // The result for each todo, in the order they came in. Todos that are
+    // waiting in `batch` have a `null` result until the batch is inserted.
+    private final List<Map<String, Object>> results = new ArrayList<>();
+    private final List<Todo> batch = new ArrayList<>();
+    private final List<Integer> batchPositions = new ArrayList<>();
+    private int inserted = 0;
+
+    BulkInsert(JsonMapper jsonMapper, int batchSize) {
+      this.jsonMapper = jsonMapper;
+      this.batchSize = batchSize;
+    }
+
+    /**
+     * Check the next todo, and add it to the batch if it's OK.
+     *
+     * @param item the next todo, as JSON
+     */
+    void add(JsonNode item) {
+      int position = results.size();
+      Todo todo;
+      try {
+        todo = jsonMapper.fromJsonString(item.toString(), Todo.class);
+      } catch (Exception e) {
+        // Javalin's Jackson mapper throws Jackson's (checked) exceptions
+        // without declaring them
+        String reason = e instanceof JsonProcessingException jsonError
+          ? jsonError.getOriginalMessage()
+          : e.getMessage();
+        results.add(Map.of("index", position, "error", "Not a todo: " + reason));
+        return;
+      }
+      String problem = RequestChecks.firstProblem(todo, NEW_TODO_RULES);
+      if (problem == null && todo._id != null && !ObjectId.isValid(todo._id)) {
+        problem = "Todo's _id must be a legal Mongo Object ID";
+      }
+      if (problem != null) {
+        results.add(Map.of("index", position, "error", problem));
+        return;
+      }
+
+      // Give each todo its ID here (rather than letting the database do it)
+      // so we know which ID went to which todo even if some inserts fail.
+      if (todo._id == null) {
+        todo._id = new ObjectId().toHexString();
+      }
+      results.add(null);
+      batch.add(todo);
+      batchPositions.add(position);
+      if (batch.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    /**
+     * Insert the todos in the batch (if there are any), and record how
+     * that went for each of them.
+     */
+    void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      Map<Integer, String> errors = new HashMap<>();
+      try {
+        // Unordered, so the database can carry on past a todo it can't
+        // insert (e.g., one with a duplicate `_id`), and insert the rest
+        // in whatever order is fastest.
+        todoVersion.change(() -> todoCollection.insertMany(batch, new InsertManyOptions().ordered(false)));
+      } catch (MongoBulkWriteException e) {
+        for (BulkWriteError error : e.getWriteErrors()) {
+          errors.put(error.getIndex(), error.getMessage());
+        }
+      }
+
+      Set<String> owners = new HashSet<>();
+      for (int i = 0; i < batch.size(); i++) {
+        int position = batchPositions.get(i);
+        String error = errors.get(i);
+        if (error == null) {
+          results.set(position, Map.of("index", position, "id", batch.get(i)._id));
+          owners.add(batch.get(i).owner);
+          inserted++;
+        } else {
+          results.set(position, Map.of("index", position, "error", error));
+        }
+      }
+      if (queryCache != null) {
+        owners.forEach(queryCache::invalidate);
+      }
+      batch.clear();
+      batchPositions.clear();
+    }
+  }
+
   /**
    * Delete the user specified by the `id` parameter in the request.
    *
@@ -257,15 +815,26 @@ public class TodoController implements Controller {
    */
   public void deleteTodoByID(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = todoCollection.deleteOne(eq("_id", new ObjectId(id)));
-    // We should have deleted 1 or 0 users, depending on whether `id` is a valid todo ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    // We use `findOneAndDelete` (rather than `deleteOne`) so we know whose
+    // todo we deleted, and so which cached results need to be thrown out.
+    ObjectId objectId = RequestChecks.objectId(id);
+    Todo deletedTodo = objectId == null
+      ? null
+      : todoVersion.change(() -> todoCollection.findOneAndDelete(eq("_id", objectId)));
+    // We should have deleted 1 or 0 todos, depending on whether `id` is a valid todo ID.
+    if (deletedTodo == null) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    if (queryCache != null) {
+      queryCache.invalidate(deletedTodo.owner);
+    }
+    if (todoById != null) {
+      todoById.invalidate(objectId);
+    }
     ctx.status(HttpStatus.OK);
   }
 
@@ -317,6 +886,10 @@ public class TodoController implements Controller {
    * @param todoController The controller that handles the user endpoints
    */
   public void addRoutes(Javalin server) {
+    // Count todos, filtered using query parameters. (This has to come
+    // before the by-ID route, or "count" would be taken for an ID.)
+    server.get(API_TODO_COUNT, this::getTodoCount);
+
     // Get the specified user
     server.get(API_TODO_BY_ID, this::getTodoByID);
 
@@ -327,6 +900,9 @@ public class TodoController implements Controller {
     // of the HTTP request
     server.post(API_TODOS, this::addNewTodo);
 
+    // Add many todos at once, from a JSON array or newline-delimited JSON
+    server.post(API_TODOS_BULK, this::addTodosInBulk);
+
     // Delete the specified user
     server.delete(API_TODO_BY_ID, this::deleteTodoByID);
 
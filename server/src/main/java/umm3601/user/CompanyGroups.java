@@ -0,0 +1,177 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory copy of `GET /api/usersByCompany`: the users' names and
+ * IDs, grouped by company, kept sorted both by company name and by the
+ * number of users in each company.
+ *
+ * This is loaded from the database once (when the `UserController` is
+ * made), and then updated as this server adds and deletes users, so
+ * requests don't have to run the grouping aggregation over the whole
+ * collection. Changes made to the database by anything other than this
+ * server won't show up until it restarts.
+ *
+ * Readers never take a lock: each change builds a new (immutable)
+ * snapshot of the sorted groups and publishes it all at once, reusing
+ * the `UserByCompany` objects of every company that didn't change.
+ * Adding and deleting users is much rarer than reading the groups, so
+ * it's fine for changes to take turns.
+ */
+final class CompanyGroups {
+
+  // Sorts companies by name, with users that don't have a company first
+  // (which is where MongoDB sorts `null`s).
+  private static final Comparator<String> BY_COMPANY = Comparator.nullsFirst(Comparator.naturalOrder());
+  private static final Comparator<UserByCompany> BY_COUNT = Comparator
+    .comparingInt((UserByCompany group) -> group.count)
+    .thenComparing(group -> group._id, BY_COMPANY);
+  private static final Comparator<UserIdName> BY_NAME = Comparator
+    .comparing((UserIdName user) -> user.name, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  /**
+   * The groups, sorted two different ways. Neither the lists nor the
+   * groups in them may be changed once they've been published.
+   *
+   * @param byCompany the groups in (ascending) order of company name
+   * @param byCount the groups in (ascending) order of number of users
+   * @param usersByName the users in each company, in order of name
+   */
+  private record Snapshot(List<UserByCompany> byCompany, List<UserByCompany> byCount,
+      Map<String, List<UserIdName>> usersByName) {
+  }
+
+  // The names of the users in each company, by user ID, in the order they
+  // were added. Only changed (and read) while holding the lock on `this`.
+  private final Map<String, Map<String, String>> members = new HashMap<>();
+  private final TreeMap<String, UserByCompany> groups = new TreeMap<>(BY_COMPANY);
+  private final Map<String, List<UserIdName>> usersByName = new HashMap<>();
+
+  private volatile Snapshot snapshot = new Snapshot(List.of(), List.of(), Map.of());
+
+  /**
+   * Construct the groups for `users`.
+   *
+   * @param users the users to group (only their IDs, names, and companies are used)
+   */
+  CompanyGroups(Iterable<User> users) {
+    for (User user : users) {
+      members.computeIfAbsent(user.company, company -> new LinkedHashMap<>()).put(user._id, user.name);
+    }
+    members.keySet().forEach(this::regroup);
+    publish();
+  }
+
+  /**
+   * Get one page of the groups, in the given order, each with at most
+   * `usersPerGroup` of its users (the first ones by name). The `count`
+   * of each group is still the number of users in the whole company.
+   *
+   * @param byCount true to sort by the number of users in each company,
+   *   false to sort by company name
+   * @param descending true to sort from largest to smallest
+   * @param skip the number of groups to skip
+   * @param limit the most groups to return, or 0 for all of them
+   * @param usersPerGroup the most users to list in each group, or 0 for
+   *   all of them
+   * @return the (unmodifiable) list of groups
+   */
+  List<UserByCompany> page(boolean byCount, boolean descending, int skip, int limit, int usersPerGroup) {
+    Snapshot current = snapshot;
+    List<UserByCompany> sorted = byCount ? current.byCount() : current.byCompany();
+    if (descending) {
+      sorted = sorted.reversed();
+    }
+    int from = Math.min(skip, sorted.size());
+    int to = limit == 0 ? sorted.size() : (int) Math.min((long) from + limit, sorted.size());
+    List<UserByCompany> page = sorted.subList(from, to);
+    if (usersPerGroup == 0) {
+      return page;
+    }
+
+    List<UserByCompany> capped = new ArrayList<>(page.size());
+    for (UserByCompany group : page) {
+      List<UserIdName> users = current.usersByName().get(group._id);
+      UserByCompany top = new UserByCompany();
+      top._id = group._id;
+      top.count = group.count;
+      top.users = users.subList(0, Math.min(usersPerGroup, users.size()));
+      capped.add(top);
+    }
+    return List.copyOf(capped);
+  }
+
+  /**
+   * Add a user to their company's group.
+   *
+   * @param user the user that was added
+   */
+  synchronized void add(User user) {
+    members.computeIfAbsent(user.company, company -> new LinkedHashMap<>()).put(user._id, user.name);
+    regroup(user.company);
+    publish();
+  }
+
+  /**
+   * Remove a user from their company's group.
+   *
+   * @param user the user that was deleted
+   */
+  synchronized void remove(User user) {
+    Map<String, String> companyMembers = members.get(user.company);
+    if (companyMembers == null || companyMembers.remove(user._id) == null) {
+      return;
+    }
+    if (companyMembers.isEmpty()) {
+      members.remove(user.company);
+    }
+    regroup(user.company);
+    publish();
+  }
+
+  /**
+   * Replace the group for `company` with a new one that matches its
+   * current members (or drop it, if it doesn't have any).
+   */
+  private void regroup(String company) {
+    Map<String, String> companyMembers = members.get(company);
+    if (companyMembers == null) {
+      groups.remove(company);
+      usersByName.remove(company);
+      return;
+    }
+    UserByCompany group = new UserByCompany();
+    group._id = company;
+    group.count = companyMembers.size();
+    List<UserIdName> users = new ArrayList<>(companyMembers.size());
+    companyMembers.forEach((id, name) -> {
+      UserIdName user = new UserIdName();
+      user._id = id;
+      user.name = name;
+      users.add(user);
+    });
+    group.users = List.copyOf(users);
+    groups.put(company, group);
+    users.sort(BY_NAME);
+    usersByName.put(company, List.copyOf(users));
+  }
+
+  /**
+   * Make the current groups visible to readers.
+   */
+  private void publish() {
+    List<UserByCompany> byCount = new ArrayList<>(groups.values());
+    byCount.sort(BY_COUNT);
+    // (`Map.copyOf()` won't take the `null` company, so this wraps a copy instead.)
+    snapshot = new Snapshot(List.copyOf(groups.values()), List.copyOf(byCount),
+      Collections.unmodifiableMap(new HashMap<>(usersByName)));
+  }
+}
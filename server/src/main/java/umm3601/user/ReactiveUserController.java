@@ -0,0 +1,239 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import umm3601.Controller;
+import umm3601.FieldProjection;
+import umm3601.IdBatch;
+import umm3601.KeysetPage;
+import umm3601.ListResponses;
+import umm3601.Publishers;
+import umm3601.RateLimiter;
+import umm3601.RequestChecks;
+
+/**
+ * Controller for the user endpoints that uses MongoDB's reactive-streams
+ * driver instead of the sync one (see `Config.reactiveDriver()`).
+ *
+ * Like `ReactiveTodoController`, each handler checks the request the same
+ * way `UserController` does, and then hands Javalin a future for the
+ * response with `ctx.future()`, so no request thread waits on the
+ * database. It doesn't cache, tag responses with ETags, send raw JSON,
+ * or keep the company groups in memory, and it turns away the list
+ * endpoint's `ids`, paging, `fields`, and `withTotal` parameters with a `400`.
+ */
+public class ReactiveUserController implements Controller {
+
+  // The query parameters only `UserController` knows what to do with
+  private static final List<String> UNSUPPORTED_KEYS = List.of(IdBatch.IDS_KEY, KeysetPage.PAGE_SIZE_KEY,
+    KeysetPage.PAGE_TOKEN_KEY, FieldProjection.FIELDS_KEY, ListResponses.WITH_TOTAL_KEY);
+
+  private final MongoCollection<User> userCollection;
+
+  // A sync controller (with the default settings, so it has no caches or
+  // groups of its own), which makes sure the indexes exist, and makes the
+  // new users' avatars
+  private final UserController syncUsers;
+
+  /**
+   * Construct a reactive controller for users.
+   *
+   * @param database the (sync) database containing user data, which is
+   *   only used to make sure the user indexes exist
+   * @param reactiveDatabase the (reactive) database containing user data
+   */
+  public ReactiveUserController(com.mongodb.client.MongoDatabase database, MongoDatabase reactiveDatabase) {
+    // MongoJack only works with the sync driver, so this always uses our
+    // own codecs (see `BsonCodecs`).
+    UserIdNameCodec userIdNameCodec = new UserIdNameCodec();
+    this.userCollection = reactiveDatabase
+      .getCollection("users", User.class)
+      .withCodecRegistry(CodecRegistries.fromRegistries(
+        CodecRegistries.fromCodecs(new UserCodec(), userIdNameCodec, new UserByCompanyCodec(userIdNameCodec)),
+        reactiveDatabase.getCodecRegistry()));
+    this.syncUsers = new UserController(database);
+  }
+
+  /**
+   * Set the JSON body of the response to be the single user
+   * specified by the `id` parameter in the request
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUser(Context ctx) {
+    ObjectId id = RequestChecks.objectId(ctx.pathParam("id"));
+    if (id == null) {
+      throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
+    }
+    ctx.future(() -> Publishers.first(userCollection.find(eq("_id", id)).first()).thenAccept(user -> {
+      if (user == null) {
+        throw new NotFoundResponse("The requested user was not found");
+      }
+      ctx.json(user);
+      ctx.status(HttpStatus.OK);
+    }));
+  }
+
+  /**
+   * Set the JSON body of the response to be a list of all the users that
+   * match any requested filters and ordering (see `UserController.getUsers()`).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUsers(Context ctx) {
+    RequestChecks.rejectQueryParams(ctx, UNSUPPORTED_KEYS);
+    Bson combinedFilter = UserController.constructFilter(ctx);
+    Bson sortingOrder = UserController.constructSortingOrder(ctx);
+    int skip = ListResponses.skip(ctx);
+    int limit = ListResponses.limit(ctx);
+
+    ctx.future(() -> Publishers.toList(userCollection.find(combinedFilter).sort(sortingOrder).skip(skip).limit(limit))
+      .thenAccept(users -> {
+        ctx.json(users);
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * Set the JSON body of the response to be `{"count": n}`, where `n` is
+   * the number of users that match the same filters as `getUsers()`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserCount(Context ctx) {
+    Bson combinedFilter = UserController.constructFilter(ctx);
+
+    ctx.future(() -> Publishers.first(combinedFilter.toBsonDocument().isEmpty()
+        ? userCollection.estimatedDocumentCount()
+        : userCollection.countDocuments(combinedFilter))
+      .thenAccept(count -> {
+        ctx.json(Map.of("count", count));
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * Set the JSON body of the response to be the user names and IDs grouped
+   * by company, with the same sorting and limits as
+   * `UserController.getUsersGroupedByCompany()`.
+   *
+   * @param ctx a Javalin HTTP context that provides the query parameters
+   */
+  public void getUsersGroupedByCompany(Context ctx) {
+    String sortBy = UserController.groupSortField(ctx);
+    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
+    int usersPerGroup = UserController.groupLimit(ctx, UserController.USERS_PER_GROUP_KEY, 1);
+    int skip = UserController.groupLimit(ctx, UserController.GROUP_SKIP_KEY, 0);
+    int limit = UserController.groupLimit(ctx, UserController.GROUP_LIMIT_KEY, 1);
+    List<Bson> pipeline = UserController.groupedByCompanyPipeline(sortBy, sortOrder, usersPerGroup, skip, limit);
+
+    ctx.future(() -> Publishers.toList(userCollection
+        .aggregate(pipeline, UserByCompany.class)
+        .allowDiskUse(true))
+      .thenAccept(groups -> {
+        ctx.json(groups);
+        ctx.status(HttpStatus.OK);
+      }));
+  }
+
+  /**
+   * Add a new user using information from the context (as long as it
+   * follows the same rules as for `UserController.addNewUser()`).
+   *
+   * @param ctx a Javalin HTTP context that provides the user info
+   *  in the JSON body of the request
+   */
+  public void addNewUser(Context ctx) {
+    User newUser = RequestChecks.body(ctx, User.class, UserController.NEW_USER_RULES);
+    newUser.avatar = syncUsers.generateAvatar(newUser.email);
+
+    // `UserCodec` gives the user its `_id` as it's inserted
+    ctx.future(() -> Publishers.first(userCollection.insertOne(newUser)).thenAccept(result -> {
+      ctx.json(Map.of("id", newUser._id));
+      ctx.status(HttpStatus.CREATED);
+    }));
+  }
+
+  /**
+   * Delete the user specified by the `id` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteUser(Context ctx) {
+    String id = ctx.pathParam("id");
+    ObjectId objectId = RequestChecks.objectId(id);
+    if (objectId == null) {
+      throw new NotFoundResponse(
+        "Was unable to delete ID " + id + "; perhaps illegal ID or an ID for an item not in the system?");
+    }
+
+    ctx.future(() -> Publishers.first(userCollection.findOneAndDelete(eq("_id", objectId))).thenAccept(deleted -> {
+      if (deleted == null) {
+        throw new NotFoundResponse(
+          "Was unable to delete ID " + id + "; perhaps illegal ID or an ID for an item not in the system?");
+      }
+      ctx.status(HttpStatus.OK);
+    }));
+  }
+
+  /**
+   * Make sure the user collection has the indexes in `UserController.INDEXES`.
+   */
+  @Override
+  public void reconcileIndexes() {
+    syncUsers.reconcileIndexes();
+  }
+
+  /**
+   * Give the same routes the same costs as `UserController` does.
+   */
+  @Override
+  public void registerRequestCosts(RateLimiter rateLimiter) {
+    syncUsers.registerRequestCosts(rateLimiter);
+  }
+
+  /**
+   * Setup routes for the user endpoints, which are the same as
+   * `UserController`'s.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    // Count users, filtered using query parameters. (This has to come
+    // before the by-ID route, or "count" would be taken for an ID.)
+    server.get(UserController.API_USER_COUNT, this::getUserCount);
+
+    // Get the specified user
+    server.get(UserController.API_USER_BY_ID, this::getUser);
+
+    // List users, filtered using query parameters
+    server.get(UserController.API_USERS, this::getUsers);
+
+    // Get the users, possibly filtered, grouped by company
+    server.get(UserController.API_USERS_BY_COMPANY, this::getUsersGroupedByCompany);
+
+    // Add new user with the user info being in the JSON body
+    // of the HTTP request
+    server.post(UserController.API_USERS, this::addNewUser);
+
+    // Delete the specified user
+    server.delete(UserController.API_USER_BY_ID, this::deleteUser);
+  }
+}
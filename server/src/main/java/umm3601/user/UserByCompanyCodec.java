@@ -0,0 +1,86 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import umm3601.BsonCodecs;
+
+/**
+ * Reads and writes `UserByCompany` groups (the results of the
+ * `/api/usersByCompany` aggregation) as BSON without going through
+ * Jackson.
+ *
+ * A group's `_id` is the name of its company, not an `ObjectId`.
+ */
+final class UserByCompanyCodec implements Codec<UserByCompany> {
+
+  private final Codec<UserIdName> userCodec;
+
+  /**
+   * Construct a codec for groups of users.
+   *
+   * @param userCodec the codec for the users in each group
+   */
+  UserByCompanyCodec(Codec<UserIdName> userCodec) {
+    this.userCodec = userCodec;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, UserByCompany group, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    BsonCodecs.writeString(writer, "_id", group._id);
+    writer.writeInt32("count", group.count);
+    if (group.users == null) {
+      writer.writeNull("users");
+    } else {
+      writer.writeStartArray("users");
+      for (UserIdName user : group.users) {
+        encoderContext.encodeWithChildContext(userCodec, writer, user);
+      }
+      writer.writeEndArray();
+    }
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public UserByCompany decode(BsonReader reader, DecoderContext decoderContext) {
+    UserByCompany group = new UserByCompany();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id" -> group._id = BsonCodecs.readString(reader);
+        case "count" -> group.count = BsonCodecs.readInt(reader);
+        case "users" -> group.users = readUsers(reader, decoderContext);
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return group;
+  }
+
+  private List<UserIdName> readUsers(BsonReader reader, DecoderContext decoderContext) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    List<UserIdName> users = new ArrayList<>();
+    reader.readStartArray();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      users.add(decoderContext.decodeWithChildContext(userCodec, reader));
+    }
+    reader.readEndArray();
+    return users;
+  }
+
+  @Override
+  public Class<UserByCompany> getEncoderClass() {
+    return UserByCompany.class;
+  }
+}
@@ -0,0 +1,82 @@
+package umm3601.user;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import umm3601.BsonCodecs;
+
+/**
+ * Reads and writes `User`s as BSON without going through Jackson (see
+ * `BsonCodecs`).
+ *
+ * This is a `CollectibleCodec` so the driver can give a new user an
+ * `_id` when it's inserted, the way MongoJack does.
+ */
+final class UserCodec implements CollectibleCodec<User> {
+
+  @Override
+  public void encode(BsonWriter writer, User user, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    BsonCodecs.writeId(writer, user._id);
+    BsonCodecs.writeString(writer, "name", user.name);
+    writer.writeInt32("age", user.age);
+    BsonCodecs.writeString(writer, "company", user.company);
+    BsonCodecs.writeString(writer, "email", user.email);
+    BsonCodecs.writeString(writer, "avatar", user.avatar);
+    BsonCodecs.writeString(writer, "role", user.role);
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public User decode(BsonReader reader, DecoderContext decoderContext) {
+    User user = new User();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id" -> user._id = BsonCodecs.readId(reader);
+        case "name" -> user.name = BsonCodecs.readString(reader);
+        case "age" -> user.age = BsonCodecs.readInt(reader);
+        case "company" -> user.company = BsonCodecs.readString(reader);
+        case "email" -> user.email = BsonCodecs.readString(reader);
+        case "avatar" -> user.avatar = BsonCodecs.readString(reader);
+        case "role" -> user.role = BsonCodecs.readString(reader);
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return user;
+  }
+
+  @Override
+  public Class<User> getEncoderClass() {
+    return User.class;
+  }
+
+  @Override
+  public User generateIdIfAbsentFromDocument(User user) {
+    if (user._id == null) {
+      user._id = new ObjectId().toHexString();
+    }
+    return user;
+  }
+
+  @Override
+  public boolean documentHasId(User user) {
+    return user._id != null;
+  }
+
+  @Override
+  public BsonValue getDocumentId(User user) {
+    if (user._id == null) {
+      throw new IllegalStateException("The user doesn't have an _id");
+    }
+    return new BsonObjectId(new ObjectId(user._id));
+  }
+}
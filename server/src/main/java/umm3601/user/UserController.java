@@ -11,54 +11,168 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 import org.bson.Document;
-import org.bson.UuidRepresentation;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
-import org.mongojack.JacksonMongoCollection;
 
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BsonCodecs;
+import umm3601.ByIdCache;
+import umm3601.CollectionVersion;
+import umm3601.Config;
 import umm3601.Controller;
+import umm3601.FieldProjection;
+import umm3601.IdBatch;
+import umm3601.IndexReconciler;
+import umm3601.KeysetPage;
+import umm3601.ListResponses;
+import umm3601.RateLimiter;
+import umm3601.RawJson;
+import umm3601.RequestChecks;
+import umm3601.ServerMetrics;
+import umm3601.SingleFlight;
 
 /**
  * Controller that manages requests for info about users.
  */
 public class UserController implements Controller {
 
-  private static final String API_USERS = "/api/users";
-  private static final String API_USER_BY_ID = "/api/users/{id}";
+  static final String API_USERS = "/api/users";
+  static final String API_USER_BY_ID = "/api/users/{id}";
+  static final String API_USER_COUNT = "/api/users/count";
+  static final String API_USERS_BY_COMPANY = "/api/usersByCompany";
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
   static final String ROLE_KEY = "role";
+  static final String SORT_BY_KEY = "sortby";
   static final String SORT_ORDER_KEY = "sortorder";
+  private static final String SORT_DESCENDING = "desc";
+  static final String USERS_PER_GROUP_KEY = "usersPerGroup";
+  static final String GROUP_SKIP_KEY = "skip";
+  static final String GROUP_LIMIT_KEY = "limit";
+
+  // How many tokens (see `RateLimiter`) the requests that are more work
+  // than looking a user up by its ID cost: listing users, and grouping
+  // them by company (an aggregation over every user)
+  private static final int LIST_COST = 2;
+  private static final int GROUPED_BY_COMPANY_COST = 10;
+
+  // The fields we can page through the users by (see `KeysetPage`), and how
+  // to get the value of each field from a `User`.
+  private static final Map<String, Function<User, Object>> PAGEABLE_FIELDS = Map.of(
+    "name", user -> user.name,
+    AGE_KEY, user -> user.age,
+    COMPANY_KEY, user -> user.company,
+    "email", user -> user.email,
+    ROLE_KEY, user -> user.role);
+
+  // The fields clients can ask for with `fields` (see `FieldProjection`)
+  private static final List<String> PROJECTABLE_FIELDS =
+    List.of("_id", "name", AGE_KEY, COMPANY_KEY, "email", "avatar", ROLE_KEY);
+
+  // The indexes the queries built by `constructFilter()` need, so none of
+  // them has to scan the whole collection. Each one ends with `name` so the
+  // matching users come out of the index already in the default order.
+  // `Server` makes sure these exist (see `IndexReconciler`) once it starts.
+  static final List<IndexModel> INDEXES = List.of(
+    new IndexModel(Indexes.ascending(AGE_KEY, "name"), new IndexOptions().name("age_name")),
+    new IndexModel(Indexes.ascending(ROLE_KEY, "name"), new IndexOptions().name("role_name")),
+    // Company searches are (case-insensitive) regular expressions, which
+    // MongoDB can check against the index instead of every document
+    new IndexModel(Indexes.ascending(COMPANY_KEY, "name"), new IndexOptions().name("company_name")));
 
   private static final int REASONABLE_AGE_LIMIT = 150;
-  private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
+  private static final Set<String> ROLES = Set.of("admin", "editor", "viewer");
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
+  // Compiled once, rather than by every `String.matches()` call
+  private static final Pattern EMAIL_PATTERN = Pattern.compile(EMAIL_REGEX);
+
+  // What has to be true of a new user (see `addNewUser()`, and
+  // `ReactiveUserController`)
+  static final List<RequestChecks.Rule<User>> NEW_USER_RULES = List.of(
+    new RequestChecks.Rule<>(usr -> usr.name != null && usr.name.length() > 0,
+      "User must have a non-empty user name"),
+    new RequestChecks.Rule<>(usr -> usr.email != null && EMAIL_PATTERN.matcher(usr.email).matches(),
+      "User must have a legal email"),
+    new RequestChecks.Rule<>(usr -> usr.age > 0,
+      "User's age must be greater than zero"),
+    new RequestChecks.Rule<>(usr -> usr.age < REASONABLE_AGE_LIMIT,
+      "User's age must be less than " + REASONABLE_AGE_LIMIT),
+    new RequestChecks.Rule<>(usr -> usr.role != null && ROLES.contains(usr.role),
+      "User must have a legal user role"),
+    new RequestChecks.Rule<>(usr -> usr.company != null && usr.company.length() > 0,
+      "User must have a non-empty company name"));
+
+  private final MongoCollection<User> userCollection;
+  private final Config config;
+
+  // The user collection as `RawBsonDocument`s (see `RawJson`), for
+  // sending users straight from their BSON
+  private final MongoCollection<RawBsonDocument> rawUsers;
+
+  // The in-memory copy of the users grouped by company, or `null` if the
+  // server isn't configured to keep one.
+  private final CompanyGroups companyGroups;
+
+  // Counts the changes we make to the users, for tagging responses with
+  // ETags (see `CollectionVersion`)
+  private final CollectionVersion userVersion = new CollectionVersion();
+
+  // The cache of users by ID, or `null` if the server isn't configured
+  // to cache them.
+  private final ByIdCache<User> userById;
+
+  // Shares `getUsers` and `getUsersGroupedByCompany` queries among
+  // identical requests that arrive while they're running (see
+  // `SingleFlight`), or `null` if the server isn't configured to
+  // coalesce reads.
+  private final SingleFlight userReads;
 
-  private final JacksonMongoCollection<User> userCollection;
+  /**
+   * Construct a controller for users, using the default settings.
+   *
+   * @param database the database containing user data
+   */
+  public UserController(MongoDatabase database) {
+    this(database, Config.defaults());
+  }
 
   /**
    * Construct a controller for users.
    *
    * @param database the database containing user data
+   * @param config the settings (e.g., whether to stream results) to use
    */
-  public UserController(MongoDatabase database) {
-    userCollection = JacksonMongoCollection.builder().build(
-        database,
-        "users",
-        User.class,
-        UuidRepresentation.STANDARD);
+  public UserController(MongoDatabase database, Config config) {
+    UserIdNameCodec userIdNameCodec = new UserIdNameCodec();
+    userCollection = BsonCodecs.collection(database, "users", User.class, config,
+      List.of(new UserCodec(), userIdNameCodec, new UserByCompanyCodec(userIdNameCodec)));
+    this.config = config;
+    this.rawUsers = database.getCollection("users", RawBsonDocument.class);
+    this.userById = config.byIdCacheSize() > 0 ? new ByIdCache<>(config.byIdCacheSize()) : null;
+    this.companyGroups = config.usersByCompanyView()
+      ? new CompanyGroups(userCollection.find().projection(Projections.include("name", COMPANY_KEY)))
+      : null;
+    this.userReads = config.coalesceReads() ? new SingleFlight(userVersion) : null;
   }
 
   /**
@@ -68,14 +182,16 @@ public class UserController implements Controller {
    * @param ctx a Javalin HTTP context
    */
   public void getUser(Context ctx) {
-    String id = ctx.pathParam("id");
-    User user;
-
-    try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
-    } catch (IllegalArgumentException e) {
+    ObjectId id = RequestChecks.objectId(ctx.pathParam("id"));
+    if (id == null) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
+    if (config.etags() && userVersion.notModified(ctx, id.toHexString())) {
+      return;
+    }
+    User user = userById == null
+      ? userCollection.find(eq("_id", id)).first()
+      : userById.get(id, () -> userCollection.find(eq("_id", id)).first());
     if (user == null) {
       throw new NotFoundResponse("The requested user was not found");
     } else {
@@ -84,32 +200,156 @@ public class UserController implements Controller {
     }
   }
 
+  /**
+   * Add the by-ID cache's hit, miss, and eviction counts (if there's a
+   * cache), and the number of reads that were coalesced (if we're doing
+   * that), to the server's metrics.
+   */
+  @Override
+  public void registerMetrics(ServerMetrics metrics) {
+    if (userById != null) {
+      userById.registerMetrics(metrics, "user_by_id_cache");
+    }
+    if (userReads != null) {
+      userReads.registerMetrics(metrics, "user_reads");
+    }
+  }
+
+  /**
+   * Make listing users cost more than looking one up by its ID, and
+   * grouping them by company cost the most (unless the groups are kept in
+   * memory, when it's no more work than a list).
+   */
+  @Override
+  public void registerRequestCosts(RateLimiter rateLimiter) {
+    int groupedByCompanyCost = companyGroups == null ? GROUPED_BY_COMPANY_COST : LIST_COST;
+    rateLimiter.setCost(HandlerType.GET, API_USERS, ctx -> LIST_COST);
+    rateLimiter.setCost(HandlerType.GET, API_USERS_BY_COMPANY, ctx -> groupedByCompanyCost);
+  }
+
+  /**
+   * Make sure the user collection has the indexes in `INDEXES`.
+   */
+  @Override
+  public void reconcileIndexes() {
+    IndexReconciler.reconcile(userCollection, INDEXES);
+  }
+
   /**
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
    *
+   * Clients that only need some of each user's fields can ask for just
+   * those with, e.g., `fields=name,company`. Clients that want particular
+   * users can ask for them all at once with `ids=...` (see `IdBatch`).
+   * Clients can page through the users with `skip` and `limit`; asking
+   * for the total as well (`withTotal=true`) needs a `limit`.
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
+    IdBatch batch = IdBatch.fromContext(ctx);
     Bson combinedFilter = constructFilter(ctx);
+    Bson projection = FieldProjection.fromContext(ctx, PROJECTABLE_FIELDS);
+    if (config.etags() && userVersion.notModified(ctx, ctx.queryString())) {
+      return;
+    }
+
+    // If the client asked for particular users (with `ids`), hand back
+    // just those.
+    if (batch != null) {
+      batch.respond(ctx, userCollection, user -> user._id, userById);
+      return;
+    }
+
+    // If the client asked for a page of results (with `pageSize` and/or
+    // `pageToken`), hand back just that page.
+    KeysetPage<User> page = KeysetPage.fromContext(ctx, sortField(ctx),
+      SORT_DESCENDING.equals(ctx.queryParam(SORT_ORDER_KEY)), PAGEABLE_FIELDS, user -> user._id);
+    if (page != null) {
+      if (projection != null) {
+        throw new BadRequestResponse(
+          "Paged results always have all their fields; leave out " + FieldProjection.FIELDS_KEY);
+      }
+      if (ListResponses.wantsTotal(ctx)) {
+        throw new BadRequestResponse(
+          "Paged results don't come with a total; use " + API_USER_COUNT + " instead");
+      }
+      page.respond(ctx, userCollection, combinedFilter);
+      return;
+    }
+
     Bson sortingOrder = constructSortingOrder(ctx);
+    int skip = ListResponses.skip(ctx);
+    int limit = ListResponses.limit(ctx);
+
+    // If the client wants to know how many users matched as well, get
+    // both at once.
+    if (ListResponses.wantsTotal(ctx)) {
+      ListResponses.checkLimitForTotal(limit);
+      List<Bson> itemStages = new ArrayList<>();
+      itemStages.add(Aggregates.sort(sortingOrder));
+      if (skip > 0) {
+        itemStages.add(Aggregates.skip(skip));
+      }
+      itemStages.add(Aggregates.limit(limit));
+      if (projection != null) {
+        itemStages.add(Aggregates.project(projection));
+      }
+      ListResponses.respondWithTotal(ctx, rawUsers, combinedFilter, itemStages);
+      return;
+    }
+
+    // If we're coalescing reads, share the query with any identical one
+    // that's already running.
+    if (userReads != null) {
+      userReads.respond(ctx,
+        combinedFilter.toBsonDocument().toJson()
+          + " sort " + sortingOrder.toBsonDocument().toJson()
+          + " skip " + skip
+          + " limit " + limit
+          + " fields " + FieldProjection.describe(projection),
+        () -> config.rawJson() || projection != null
+          ? RawJson.toBytes(
+            rawUsers.find(combinedFilter).projection(projection).sort(sortingOrder).skip(skip).limit(limit))
+          : toJsonBytes(ctx,
+            userCollection.find(combinedFilter).sort(sortingOrder).skip(skip).limit(limit).into(new ArrayList<>())));
+      return;
+    }
+
+    if (config.rawJson() || projection != null) {
+      RawJson.respond(ctx,
+        rawUsers.find(combinedFilter).projection(projection).sort(sortingOrder).skip(skip).limit(limit),
+        config.streamBatchSize());
+      return;
+    }
 
-    // All three of the find, sort, and into steps happen "in parallel" inside the
+    // Both the find and sort steps happen "in parallel" inside the
     // database system. So MongoDB is going to find the users with the specified
-    // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
-
-    // Set the JSON body of the response to be the list of users returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
-
-    // Explicitly set the context status to OK
-    ctx.status(HttpStatus.OK);
+    // properties, and return those sorted in the specified manner. `ListResponses`
+    // then either collects those into a list, or streams them straight to the
+    // client, depending on how the server is configured.
+    ListResponses.respond(ctx,
+      userCollection
+        .find(combinedFilter)
+        .sort(sortingOrder)
+        .skip(skip)
+        .limit(limit),
+      config.streamBatchSize());
+  }
+
+  /**
+   * Set the JSON body of the response to be `{"count": n}`, where `n` is
+   * the number of users that match the same filters as `getUsers()`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserCount(Context ctx) {
+    Bson combinedFilter = constructFilter(ctx);
+    if (config.etags() && userVersion.notModified(ctx, ctx.queryString())) {
+      return;
+    }
+    ListResponses.respondWithCount(ctx, userCollection, combinedFilter);
   }
 
   /**
@@ -125,7 +365,7 @@ public class UserController implements Controller {
    * @return a Bson filter document that can be used in the `find` method
    *   to filter the database collection of users
    */
-  private Bson constructFilter(Context ctx) {
+  static Bson constructFilter(Context ctx) {
     List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
 
     if (ctx.queryParamMap().containsKey(AGE_KEY)) {
@@ -142,7 +382,7 @@ public class UserController implements Controller {
     }
     if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
       String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
-        .check(it -> it.matches(ROLE_REGEX), "User must have a legal user role")
+        .check(ROLES::contains, "User must have a legal user role")
         .get();
       filters.add(eq(ROLE_KEY, role));
     }
@@ -168,16 +408,27 @@ public class UserController implements Controller {
    * @return a Bson sorting document that can be used in the `sort` method
    *  to sort the database collection of users
    */
-  private Bson constructSortingOrder(Context ctx) {
+  static Bson constructSortingOrder(Context ctx) {
     // Sort the results. Use the `sortby` query param (default "name")
     // as the field to sort by, and the query param `sortorder` (default
     // "asc") to specify the sort order.
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+    String sortBy = sortField(ctx);
+    String sortOrder = Objects.requireNonNullElse(ctx.queryParam(SORT_ORDER_KEY), "asc");
+    Bson sortingOrder = sortOrder.equals(SORT_DESCENDING) ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
     return sortingOrder;
   }
 
+  /**
+   * Get the field to sort the users by, from the `sortby` query parameter
+   * (defaulting to "name").
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return the name of the field to sort by
+   */
+  private static String sortField(Context ctx) {
+    return Objects.requireNonNullElse(ctx.queryParam(SORT_BY_KEY), "name");
+  }
+
   /**
    * Set the JSON body of the response to be a list of all the user names and IDs
    * returned from the database, grouped by company
@@ -187,6 +438,11 @@ public class UserController implements Controller {
    * and the company name, the number of users in that company, and the list of user
    * names and IDs are stored in `UserByCompany` objects.
    *
+   * A company can have a *lot* of users, so clients can ask for just the
+   * first `usersPerGroup` users (by name) in each group, and can page
+   * through the groups with `skip` and `limit`. The `count` of each group
+   * is always the number of users in the whole company.
+   *
    * @param ctx a Javalin HTTP context that provides the query parameters
    *   used to sort the results. We support either sorting by company name
    *   (in either `asc` or `desc` order) or by the number of users in the
@@ -195,12 +451,85 @@ public class UserController implements Controller {
   public void getUsersGroupedByCompany(Context ctx) {
     // We'll support sorting the results either by company name (in either `asc` or `desc` order)
     // or by the number of users in the company (`count`, also in either `asc` or `desc` order).
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
-    if (sortBy.equals("company")) {
-      sortBy = "_id";
-    }
+    String sortBy = groupSortField(ctx);
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
+
+    // Each of these is 0 if the client didn't ask for it, which means "no limit".
+    int usersPerGroup = groupLimit(ctx, USERS_PER_GROUP_KEY, 1);
+    int skip = groupLimit(ctx, GROUP_SKIP_KEY, 0);
+    int limit = groupLimit(ctx, GROUP_LIMIT_KEY, 1);
+    if (config.etags() && userVersion.notModified(ctx, ctx.queryString())) {
+      return;
+    }
+
+    // If we're keeping the groups in memory, they're already sorted both
+    // ways, so there's nothing to do but hand back the right ones.
+    if (companyGroups != null) {
+      ctx.json(companyGroups.page(sortBy.equals("count"), sortOrder.equals("desc"), skip, limit, usersPerGroup));
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
+    List<Bson> pipeline = groupedByCompanyPipeline(sortBy, sortOrder, usersPerGroup, skip, limit);
+
+    // If we're coalescing reads, share the aggregation with any identical
+    // one that's already running. (Grouping every user is the most
+    // expensive thing clients ask us for, and they tend to ask at once.)
+    if (userReads != null) {
+      StringBuilder key = new StringBuilder("byCompany");
+      pipeline.forEach(stage -> key.append(' ').append(stage.toBsonDocument().toJson()));
+      userReads.respond(ctx, key.toString(),
+        () -> toJsonBytes(ctx,
+          userCollection.aggregate(pipeline, UserByCompany.class).allowDiskUse(true).into(new ArrayList<>())));
+      return;
+    }
+
+    // Convert the results of the aggregation pipeline to UserByCompany objects.
+    // It is necessary to have a Java type to convert the results to, and the
+    // collection (through MongoJack, or `UserByCompanyCodec`) will do this for
+    // us. Grouping a big collection can need more than the 100MB of memory
+    // MongoDB allows a stage, so we let it spill to disk, and `ListResponses` streams the groups to the client
+    // (if the server is configured to) instead of collecting them all first.
+    ListResponses.respond(ctx,
+      userCollection
+        .aggregate(pipeline, UserByCompany.class)
+        .allowDiskUse(true),
+      config.streamBatchSize());
+  }
+
+  /**
+   * Get the field to sort the company groups by, from the `sortBy` query
+   * parameter: the company name (`_id`, the default, which clients can
+   * also ask for as `company`), or `count`.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @return the name of the field to sort the groups by
+   */
+  static String groupSortField(Context ctx) {
+    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
+    return sortBy.equals("company") ? "_id" : sortBy;
+  }
+
+  /**
+   * Build the aggregation pipeline that groups the users by company for
+   * `getUsersGroupedByCompany()` (and `ReactiveUserController`).
+   *
+   * @param sortBy the field to sort the groups by (`_id`, i.e., the
+   *   company, or `count`)
+   * @param sortOrder the order to sort the groups in (`asc` or `desc`)
+   * @param usersPerGroup the most users to list in each group (0 for all of them)
+   * @param skip how many groups to skip (0 for none)
+   * @param limit the most groups to return (0 for all of them)
+   * @return the aggregation pipeline
+   */
+  static List<Bson> groupedByCompanyPipeline(String sortBy, String sortOrder, int usersPerGroup, int skip, int limit) {
     Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+    if (!sortBy.equals("_id")) {
+      // Break ties in the count by company name (in the same direction), so
+      // the groups are always in the same order and pages don't overlap.
+      sortingOrder = Sorts.orderBy(sortingOrder,
+        sortOrder.equals("desc") ? Sorts.descending("_id") : Sorts.ascending("_id"));
+    }
 
     // The `UserByCompany` class is a simple class that has fields for the company
     // name, the number of users in that company, and a list of user names and IDs
@@ -210,34 +539,64 @@ public class UserController implements Controller {
     // names and IDs for each user in each company. We'll then convert the results
     // of the aggregation pipeline to `UserByCompany` objects.
 
-    ArrayList<UserByCompany> matchingUsers = userCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$company")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
-        // Convert the results of the aggregation pipeline to UserGroupResult objects
-        // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
-        // to convert the results to, and the JacksonMongoCollection will do this for us.
-        UserByCompany.class
-      )
-      .into(new ArrayList<>());
-
-    ctx.json(matchingUsers);
-    ctx.status(HttpStatus.OK);
+    Document userIdName = new Document("_id", "$_id").append("name", "$name");
+    // Collect the user names and IDs for each user in each company; if there's a
+    // cap, `$topN` only ever holds on to the first `usersPerGroup` users by name,
+    // so a group can't grow past MongoDB's 16MB document limit.
+    Document groupUsers = usersPerGroup == 0
+      ? new Document("$push", userIdName)
+      : new Document("$topN", new Document("n", usersPerGroup)
+        .append("sortBy", new Document("name", 1))
+        .append("output", userIdName));
+
+    List<Bson> pipeline = new ArrayList<>(List.of(
+      // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
+      new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
+      // Group the users by company, and count the number of users in each company
+      new Document("$group", new Document("_id", "$company")
+        // Count the number of users in each company
+        .append("count", new Document("$sum", 1))
+        .append("users", groupUsers)),
+      // Sort the results. Use the `sortby` query param (default "company")
+      // as the field to sort by, and the query param `sortorder` (default
+      // "asc") to specify the sort order.
+      new Document("$sort", sortingOrder)));
+    if (skip > 0) {
+      pipeline.add(Aggregates.skip(skip));
+    }
+    if (limit > 0) {
+      pipeline.add(Aggregates.limit(limit));
+    }
+    return pipeline;
+  }
+
+  /**
+   * Serialize a list of results for `SingleFlight` to share.
+   *
+   * @param ctx a Javalin HTTP context, whose JSON mapper we use
+   * @param results the results to serialize
+   * @return the (UTF-8) JSON for the list of results
+   */
+  private static byte[] toJsonBytes(Context ctx, List<?> results) {
+    return ctx.jsonMapper().toJsonString(results, List.class).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Get one of the (optional) whole-number query parameters that limit the
+   * groups `getUsersGroupedByCompany()` returns.
+   *
+   * @param ctx a Javalin HTTP context, which contains the query parameters
+   * @param key the name of the query parameter
+   * @param min the smallest legal value of the parameter
+   * @return the value of the parameter, or 0 if the client didn't give it
+   */
+  static int groupLimit(Context ctx, String key, int min) {
+    if (!ctx.queryParamMap().containsKey(key)) {
+      return 0;
+    }
+    return ctx.queryParamAsClass(key, Integer.class)
+      .check(it -> it >= min, "The " + key + " query parameter must be at least " + min)
+      .get();
   }
 
   /**
@@ -259,30 +618,25 @@ public class UserController implements Controller {
      *    - The provided age is < REASONABLE_AGE_LIMIT
      *    - The provided role is valid (one of "admin", "editor", or "viewer")
      *    - A non-blank company is provided
-     * If any of these checks fail, the Javalin system will throw a
-     * `BadRequestResponse` with an appropriate error message.
+     * If any of these checks fail, this throws a `ValidationException`
+     * (which Javalin turns into a 400 Bad Request) with an appropriate
+     * error message. The checks are in `NEW_USER_RULES`, and the body of
+     * the request is only added to the error messages if a check fails.
      */
-    String body = ctx.body();
-    User newUser = ctx.bodyValidator(User.class)
-      .check(usr -> usr.name != null && usr.name.length() > 0,
-        "User must have a non-empty user name; body was " + body)
-      .check(usr -> usr.email.matches(EMAIL_REGEX),
-        "User must have a legal email; body was " + body)
-      .check(usr -> usr.age > 0,
-        "User's age must be greater than zero; body was " + body)
-      .check(usr -> usr.age < REASONABLE_AGE_LIMIT,
-        "User's age must be less than " + REASONABLE_AGE_LIMIT + "; body was " + body)
-      .check(usr -> usr.role.matches(ROLE_REGEX),
-        "User must have a legal user role; body was " + body)
-      .check(usr -> usr.company != null && usr.company.length() > 0,
-        "User must have a non-empty company name; body was " + body)
-      .get();
+    User newUser = RequestChecks.body(ctx, User.class, NEW_USER_RULES);
 
     // Generate a user avatar (you won't need this part for todos)
     newUser.avatar = generateAvatar(newUser.email);
 
-    // Add the new user to the database
-    userCollection.insertOne(newUser);
+    // Add the new user to the database (and to the in-memory groups, as
+    // part of the same change, so no one sees the new version without it)
+    userVersion.change(() -> {
+      userCollection.insertOne(newUser);
+      if (companyGroups != null) {
+        companyGroups.add(newUser);
+      }
+      return newUser;
+    });
 
     // Set the JSON response to be the `_id` of the newly created user.
     // This gives the client the opportunity to know the ID of the new user,
@@ -303,15 +657,27 @@ public class UserController implements Controller {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
+    ObjectId objectId = RequestChecks.objectId(id);
+    // We use `findOneAndDelete` (rather than `deleteOne`) so we know which
+    // company the deleted user was in.
+    User deletedUser = objectId == null ? null : userVersion.change(() -> {
+      User deleted = userCollection.findOneAndDelete(eq("_id", objectId));
+      if (deleted != null && companyGroups != null) {
+        companyGroups.remove(deleted);
+      }
+      return deleted;
+    });
     // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    if (deletedUser == null) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    if (userById != null) {
+      userById.invalidate(objectId);
+    }
     ctx.status(HttpStatus.OK);
   }
 
@@ -384,6 +750,10 @@ public class UserController implements Controller {
    * @param userController The controller that handles the user endpoints
    */
   public void addRoutes(Javalin server) {
+    // Count users, filtered using query parameters. (This has to come
+    // before the by-ID route, or "count" would be taken for an ID.)
+    server.get(API_USER_COUNT, this::getUserCount);
+
     // Get the specified user
     server.get(API_USER_BY_ID, this::getUser);
 
@@ -391,7 +761,7 @@ public class UserController implements Controller {
     server.get(API_USERS, this::getUsers);
 
     // Get the users, possibly filtered, grouped by company
-    server.get("/api/usersByCompany", this::getUsersGroupedByCompany);
+    server.get(API_USERS_BY_COMPANY, this::getUsersGroupedByCompany);
 
     // Add new user with the user info being in the JSON body
     // of the HTTP request
@@ -0,0 +1,45 @@
+package umm3601.user;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import umm3601.BsonCodecs;
+
+/**
+ * Reads and writes `UserIdName`s (the users listed in each
+ * `UserByCompany` group) as BSON without going through Jackson.
+ */
+final class UserIdNameCodec implements Codec<UserIdName> {
+
+  @Override
+  public void encode(BsonWriter writer, UserIdName user, EncoderContext encoderContext) {
+    writer.writeStartDocument();
+    BsonCodecs.writeId(writer, user._id);
+    BsonCodecs.writeString(writer, "name", user.name);
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public UserIdName decode(BsonReader reader, DecoderContext decoderContext) {
+    UserIdName user = new UserIdName();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id" -> user._id = BsonCodecs.readId(reader);
+        case "name" -> user.name = BsonCodecs.readString(reader);
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return user;
+  }
+
+  @Override
+  public Class<UserIdName> getEncoderClass() {
+    return UserIdName.class;
+  }
+}
@@ -0,0 +1,117 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the `ByIdCache` only goes to the database when it has to,
+ * and never hangs on to deleted documents.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ByIdCacheSpec {
+
+  private ByIdCache<String> cache;
+
+  // How many times we've "gone to the database", i.e., missed the cache
+  private AtomicInteger lookups;
+
+  @BeforeEach
+  void setupEach() {
+    cache = new ByIdCache<>(100);
+    lookups = new AtomicInteger();
+  }
+
+  private String lookup(ObjectId id) {
+    return cache.get(id, () -> {
+      lookups.incrementAndGet();
+      return "document " + id;
+    });
+  }
+
+  @Test
+  void keysMatchNoMatterHowTheyreMade() {
+    ObjectId id = new ObjectId();
+
+    assertEquals(ObjectIdKey.of(id), ObjectIdKey.of(new ObjectId(id.toHexString())));
+    assertNotEquals(ObjectIdKey.of(id), ObjectIdKey.of(new ObjectId()));
+    assertEquals(new ObjectIdKey(-1, -1), ObjectIdKey.of(new ObjectId("ffffffffffffffffffffffff")));
+  }
+
+  @Test
+  void repeatedLookupsAreServedFromTheCache() {
+    ObjectId id = new ObjectId();
+
+    assertEquals("document " + id, lookup(id));
+    assertEquals("document " + id, lookup(id));
+
+    assertEquals(1, lookups.get());
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(1, cache.stats().missCount());
+  }
+
+  @Test
+  void missingDocumentsArentCached() {
+    ObjectId id = new ObjectId();
+
+    assertNull(cache.get(id, () -> null));
+
+    assertEquals("document " + id, lookup(id));
+  }
+
+  @Test
+  void deletedDocumentsAreThrownOut() {
+    ObjectId id = new ObjectId();
+    lookup(id);
+
+    cache.invalidate(id);
+    lookup(id);
+
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  void batchesOnlyLookUpWhatIsntCached() {
+    ObjectId cachedId = new ObjectId();
+    ObjectId uncachedId = new ObjectId();
+    ObjectId missingId = new ObjectId();
+    lookup(cachedId);
+
+    List<List<ObjectId>> batches = new ArrayList<>();
+    Map<ObjectId, String> found = cache.getAll(List.of(cachedId, uncachedId, missingId), ids -> {
+      batches.add(ids);
+      return Map.of(uncachedId, "document " + uncachedId);
+    });
+
+    assertEquals(Map.of(cachedId, "document " + cachedId, uncachedId, "document " + uncachedId), found);
+    // One lookup, for just the two that weren't cached
+    assertEquals(List.of(List.of(uncachedId, missingId)), batches);
+    // and what it found is cached now
+    assertEquals("document " + uncachedId, lookup(uncachedId));
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  void lookupsThatRaceADeleteArentCached() {
+    ObjectId id = new ObjectId();
+
+    // The document is deleted while we're looking it up, so what we found
+    // may already be gone, and shouldn't be left in the cache.
+    cache.get(id, () -> {
+      cache.invalidate(id);
+      return "deleted document";
+    });
+
+    assertEquals("document " + id, lookup(id));
+    assertEquals(1, lookups.get());
+  }
+}
@@ -0,0 +1,108 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests that `CollectionVersion` only says a response is unchanged when
+ * the client has the tag for the current version.
+ */
+class CollectionVersionSpec {
+
+  private CollectionVersion version;
+
+  @BeforeEach
+  void setupEach() {
+    version = new CollectionVersion();
+  }
+
+  /**
+   * Get the ETag `version` gives a request for `representation` (from a
+   * client that doesn't have a tag yet).
+   */
+  private String currentTag(String representation) {
+    Context ctx = mock(Context.class);
+    assertFalse(version.notModified(ctx, representation));
+    ArgumentCaptor<String> tag = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(Header.ETAG, tag.capture());
+    return tag.getValue();
+  }
+
+  private boolean notModified(String ifNoneMatch, String representation) {
+    Context ctx = mock(Context.class);
+    when(ctx.header(Header.IF_NONE_MATCH)).thenReturn(ifNoneMatch);
+    boolean notModified = version.notModified(ctx, representation);
+    if (notModified) {
+      verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    } else {
+      verify(ctx, never()).status(HttpStatus.NOT_MODIFIED);
+    }
+    return notModified;
+  }
+
+  @Test
+  void clientsWithTheCurrentTagGetNotModified() {
+    String tag = currentTag("owner=Fry");
+
+    assertTrue(notModified(tag, "owner=Fry"));
+    // Weak versions of the tag, and lists that include it, match too
+    assertTrue(notModified("W/" + tag, "owner=Fry"));
+    assertTrue(notModified("\"something-else\", " + tag, "owner=Fry"));
+    assertTrue(notModified("*", "owner=Fry"));
+    assertFalse(notModified("\"something-else\"", "owner=Fry"));
+  }
+
+  @Test
+  void differentRequestsGetDifferentTags() {
+    assertNotEquals(currentTag("owner=Fry"), currentTag("owner=Sam"));
+    assertEquals(currentTag(null), currentTag(null));
+  }
+
+  @Test
+  void changesMakeOldTagsStale() {
+    String tag = currentTag("owner=Fry");
+
+    assertEquals("done", version.change(() -> "done"));
+
+    assertFalse(notModified(tag, "owner=Fry"));
+    assertNotEquals(tag, currentTag("owner=Fry"));
+  }
+
+  @Test
+  void failedChangesStillMakeOldTagsStale() {
+    String tag = currentTag("owner=Fry");
+
+    assertThrows(IllegalStateException.class, () -> {
+      version.change(() -> {
+        throw new IllegalStateException("The write failed partway through");
+      });
+    });
+
+    assertFalse(notModified(tag, "owner=Fry"));
+  }
+
+  @Test
+  void tagsFromAnotherServerProcessDontMatch() {
+    // A new `CollectionVersion` (e.g., after a restart) starts counting
+    // from the same place, but shouldn't accept the old tags.
+    String tag = currentTag("owner=Fry");
+    version = new CollectionVersion();
+
+    assertFalse(notModified(tag, "owner=Fry"));
+  }
+}
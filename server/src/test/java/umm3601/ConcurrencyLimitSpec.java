@@ -0,0 +1,79 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `ConcurrencyLimit` turns requests away once it's at its
+ * limit, and moves that limit up while requests are fast and down when
+ * they slow down.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ConcurrencyLimitSpec {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  void requestsOverTheLimitAreTurnedAway() {
+    ConcurrencyLimit limit = new ConcurrencyLimit(2, 10);
+
+    assertEquals(0, limit.tryAcquire());
+    assertEquals(1, limit.tryAcquire());
+    assertEquals(-1, limit.tryAcquire());
+    assertEquals(2, limit.inFlight());
+    assertEquals(1, limit.rejected());
+
+    // Once one finishes, there's room for another
+    limit.release(FAST, 0);
+    assertEquals(1, limit.tryAcquire());
+  }
+
+  @Test
+  void theLimitStartsWithinItsBounds() {
+    assertEquals(5, new ConcurrencyLimit(20, 5).limit());
+    assertEquals(1, new ConcurrencyLimit(0, 5).limit());
+  }
+
+  @Test
+  void theLimitGrowsWhileRequestsStayFast() {
+    ConcurrencyLimit limit = new ConcurrencyLimit(20, 50);
+
+    for (int i = 0; i < 100; i++) {
+      limit.onSample(FAST, limit.limit());
+    }
+
+    // ...but never past the most it's allowed to be
+    assertEquals(50, limit.limit());
+  }
+
+  @Test
+  void theLimitDoesntGrowWhenFewRequestsAreRunning() {
+    ConcurrencyLimit limit = new ConcurrencyLimit(20, 50);
+
+    for (int i = 0; i < 100; i++) {
+      limit.onSample(FAST, 1);
+    }
+
+    assertEquals(20, limit.limit());
+  }
+
+  @Test
+  void theLimitDropsWhenRequestsSlowDown() {
+    ConcurrencyLimit limit = new ConcurrencyLimit(20, 50);
+    for (int i = 0; i < 100; i++) {
+      limit.onSample(FAST, 1);
+    }
+
+    for (int i = 0; i < 40; i++) {
+      limit.onSample(SLOW, limit.limit());
+    }
+
+    assertTrue(limit.limit() < 10, "The limit is still " + limit.limit());
+    assertTrue(limit.limit() >= 1);
+  }
+}
@@ -0,0 +1,134 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `GroupCommit` writes documents in batches, finishes each
+ * document's request once its batch is written, and turns documents away
+ * when too many are waiting.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class GroupCommitSpec {
+
+  private static final Duration FOREVER = Duration.ofHours(1);
+
+  // The batches that have been "written"
+  private List<List<String>> batches;
+
+  @BeforeEach
+  void setupEach() {
+    batches = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  private static void await(CompletableFuture<Void> written) throws Exception {
+    written.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void fullBatchesAreWrittenRightAway() throws Exception {
+    GroupCommit<String> commit = new GroupCommit<>("test-group-commit",
+      batch -> batches.add(List.copyOf(batch)), 3, FOREVER, 10);
+
+    List<CompletableFuture<Void>> written = List.of(commit.submit("a"), commit.submit("b"), commit.submit("c"));
+    for (CompletableFuture<Void> future : written) {
+      await(future);
+    }
+
+    assertEquals(List.of(List.of("a", "b", "c")), batches);
+    assertEquals(0, commit.pending());
+  }
+
+  @Test
+  void partialBatchesAreWrittenAfterTheDelay() throws Exception {
+    GroupCommit<String> commit = new GroupCommit<>("test-group-commit",
+      batch -> batches.add(List.copyOf(batch)), 100, Duration.ofMillis(20), 1000);
+
+    CompletableFuture<Void> first = commit.submit("a");
+    CompletableFuture<Void> second = commit.submit("b");
+    await(first);
+    await(second);
+
+    assertEquals(List.of(List.of("a", "b")), batches);
+  }
+
+  @Test
+  void documentsAreTurnedAwayWhenTheQueueIsFull() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch finishWriting = new CountDownLatch(1);
+    GroupCommit<String> commit = new GroupCommit<>("test-group-commit", batch -> {
+      writing.countDown();
+      try {
+        finishWriting.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      batches.add(List.copyOf(batch));
+    }, 1, FOREVER, 2);
+
+    // The flusher takes `a`, and then is stuck writing it, so `b` and `c`
+    // fill up the queue, and there's no room for `d`.
+    CompletableFuture<Void> a = commit.submit("a");
+    assertTrue(writing.await(5, TimeUnit.SECONDS));
+    CompletableFuture<Void> b = commit.submit("b");
+    CompletableFuture<Void> c = commit.submit("c");
+    assertNotNull(b);
+    assertNotNull(c);
+    assertNull(commit.submit("d"));
+    assertEquals(2, commit.pending());
+
+    finishWriting.countDown();
+    await(a);
+    await(b);
+    await(c);
+    assertEquals(List.of(List.of("a"), List.of("b"), List.of("c")), batches);
+  }
+
+  @Test
+  void failedWritesFailTheirRequests() {
+    GroupCommit<String> commit = new GroupCommit<>("test-group-commit", batch -> {
+      throw new IllegalStateException("The database is down");
+    }, 2, FOREVER, 10);
+
+    CompletableFuture<Void> first = commit.submit("a");
+    CompletableFuture<Void> second = commit.submit("b");
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> await(first));
+    assertTrue(thrown.getCause() instanceof IllegalStateException);
+    assertThrows(ExecutionException.class, () -> await(second));
+  }
+
+  @Test
+  void anErrorFailsItsBatchButNotTheFlusher() throws Exception {
+    CountDownLatch firstBatch = new CountDownLatch(1);
+    GroupCommit<String> commit = new GroupCommit<>("test-group-commit", batch -> {
+      if (firstBatch.getCount() > 0) {
+        firstBatch.countDown();
+        throw new AssertionError("Something went badly wrong");
+      }
+      batches.add(List.copyOf(batch));
+    }, 1, FOREVER, 10);
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> await(commit.submit("a")));
+    assertTrue(thrown.getCause() instanceof AssertionError);
+
+    // The flusher is still there to write the next batch
+    await(commit.submit("b"));
+    assertEquals(List.of(List.of("b")), batches);
+  }
+}
@@ -0,0 +1,64 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `LatencyHistogram`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class LatencyHistogramSpec {
+
+  @Test
+  void emptyHistogramReportsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.percentile(0.99));
+  }
+
+  @Test
+  void everyValueLandsInABucketThatContainsIt() {
+    // Walk through the values in order; the buckets should also go up in
+    // order, one at a time, with no gaps or overlaps.
+    int previousBucket = -1;
+    for (long value = 0; value < 1_000_000; value++) {
+      int bucket = LatencyHistogram.bucketIndex(value);
+      assertTrue(bucket == previousBucket || bucket == previousBucket + 1, "Gap in the buckets at " + value);
+      assertTrue(value <= LatencyHistogram.highestValueIn(bucket));
+      previousBucket = bucket;
+    }
+  }
+
+  @Test
+  void percentilesAreWithinAFewPercent() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // Record 1ms, 2ms, ..., 1000ms
+    for (int millis = 1; millis <= 1000; millis++) {
+      histogram.record(millis * 1000L);
+    }
+
+    assertEquals(1000, histogram.count());
+    assertEquals(500_500_000L, histogram.sumMicros());
+    assertWithinThreePercent(500_000, histogram.percentile(0.5));
+    assertWithinThreePercent(990_000, histogram.percentile(0.99));
+    assertWithinThreePercent(1_000_000, histogram.percentile(1.0));
+  }
+
+  @Test
+  void outOfRangeValuesAreClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+
+    assertEquals(0, histogram.percentile(0.5));
+    assertEquals((1L << 36) - 1, histogram.percentile(1.0));
+  }
+
+  private static void assertWithinThreePercent(long expected, long actual) {
+    assertTrue(Math.abs(actual - expected) <= expected * 0.03,
+        "Expected about " + expected + " but got " + actual);
+  }
+}
@@ -0,0 +1,98 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests that `LoadShedder` gives reads and writes separate limits, turns
+ * requests over them away with a `503`, and gives back the permits of
+ * requests that were let in.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class LoadShedderSpec {
+
+  private static Context request(HandlerType method) {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(method);
+    return ctx;
+  }
+
+  /**
+   * Have `ctx.attribute()` give back whatever `admit()` stored in it, the
+   * way a real request would.
+   */
+  private static void keepAttributes(Context ctx) {
+    ArgumentCaptor<Object> permit = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).attribute(anyString(), permit.capture());
+    when(ctx.<Object>attribute(anyString())).thenReturn(permit.getValue());
+  }
+
+  @Test
+  void requestsOverTheLimitGetA503() {
+    LoadShedder shedder = new LoadShedder(1, 10);
+
+    Context first = request(HandlerType.GET);
+    shedder.admit(first);
+    Context second = request(HandlerType.GET);
+    shedder.admit(second);
+
+    verify(first, never()).status(any(HttpStatus.class));
+    verify(first, never()).skipRemainingHandlers();
+    verify(second).status(HttpStatus.SERVICE_UNAVAILABLE);
+    verify(second).header(LoadShedder.RETRY_AFTER_HEADER, LoadShedder.RETRY_AFTER_SECONDS);
+    verify(second).skipRemainingHandlers();
+    assertEquals(1, shedder.reads().rejected());
+  }
+
+  @Test
+  void readsAndWritesHaveSeparateLimits() {
+    LoadShedder shedder = new LoadShedder(1, 10);
+
+    shedder.admit(request(HandlerType.GET));
+    Context post = request(HandlerType.POST);
+    shedder.admit(post);
+
+    verify(post, never()).skipRemainingHandlers();
+    assertEquals(1, shedder.reads().inFlight());
+    assertEquals(1, shedder.writes().inFlight());
+  }
+
+  @Test
+  void finishedRequestsGiveTheirPermitsBack() {
+    LoadShedder shedder = new LoadShedder(1, 10);
+
+    Context first = request(HandlerType.DELETE);
+    shedder.admit(first);
+    keepAttributes(first);
+    shedder.release(first);
+    assertEquals(0, shedder.writes().inFlight());
+
+    Context second = request(HandlerType.DELETE);
+    shedder.admit(second);
+    verify(second, never()).skipRemainingHandlers();
+  }
+
+  @Test
+  void requestsThatWereTurnedAwayHaveNothingToGiveBack() {
+    LoadShedder shedder = new LoadShedder(1, 10);
+    shedder.admit(request(HandlerType.GET));
+
+    Context rejected = request(HandlerType.GET);
+    shedder.admit(rejected);
+    shedder.release(rejected);
+
+    assertEquals(1, shedder.reads().inFlight());
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionReadyEvent;
+
+/**
+ * Tests that `MongoPoolMonitor` keeps count of the connection pool's
+ * events, and that `MongoPoolConfig` rejects settings that don't make sense.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class MongoPoolMonitorSpec {
+
+  @Test
+  void countsConnectionsAndCheckOuts() {
+    MongoPoolMonitor monitor = new MongoPoolMonitor();
+    monitor.connectionCreated(mock(ConnectionCreatedEvent.class));
+    monitor.connectionCreated(mock(ConnectionCreatedEvent.class));
+    monitor.connectionClosed(mock(ConnectionClosedEvent.class));
+    assertEquals(1, monitor.openConnections());
+
+    monitor.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+    monitor.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+    assertEquals(2, monitor.waitingForConnection());
+
+    monitor.connectionCheckedOut(mock(ConnectionCheckedOutEvent.class));
+    monitor.connectionCheckOutFailed(mock(ConnectionCheckOutFailedEvent.class));
+    assertEquals(0, monitor.waitingForConnection());
+    assertEquals(1, monitor.checkedOutConnections());
+    assertEquals(1, monitor.checkOutFailures());
+
+    monitor.connectionCheckedIn(mock(ConnectionCheckedInEvent.class));
+    assertEquals(0, monitor.checkedOutConnections());
+  }
+
+  @Test
+  void waitsForReadyConnections() throws InterruptedException {
+    MongoPoolMonitor monitor = new MongoPoolMonitor();
+    assertTrue(monitor.awaitReadyConnections(0, Duration.ZERO));
+    assertFalse(monitor.awaitReadyConnections(1, Duration.ofMillis(20)));
+
+    monitor.connectionReady(mock(ConnectionReadyEvent.class));
+    assertTrue(monitor.awaitReadyConnections(1, Duration.ofMillis(20)));
+  }
+
+  @Test
+  void rejectsBadPoolSettings() {
+    MongoPoolConfig defaults = MongoPoolConfig.defaults();
+    assertEquals(100, defaults.maxPoolSize());
+    assertTrue(defaults.compressors().isEmpty());
+
+    assertThrows(IllegalArgumentException.class, () -> new MongoPoolConfig(10, 5, 2,
+      Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO, List.of()));
+    assertThrows(IllegalArgumentException.class, () -> new MongoPoolConfig(0, 5, 0,
+      Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO, List.of()));
+    assertThrows(IllegalArgumentException.class, () -> new MongoPoolConfig(0, 5, 2,
+      Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO, List.of("lz4")));
+
+    MongoPoolConfig compressed = new MongoPoolConfig(0, 5, 2,
+      Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO, List.of("zstd", "zlib"));
+    assertEquals(List.of("zstd", "zlib"), compressed.compressors());
+  }
+}
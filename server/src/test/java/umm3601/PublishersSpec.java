@@ -0,0 +1,99 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Tests that `Publishers` turns what a `Publisher` publishes into the
+ * right `CompletableFuture`, and only asks it for as much as it needs.
+ */
+class PublishersSpec {
+
+  /**
+   * A `Publisher` of a fixed list of items (and then, optionally, an
+   * error) that keeps track of what it was asked for.
+   */
+  private static final class ListPublisher implements Publisher<String> {
+    private final List<String> items;
+    private final RuntimeException error;
+    private long requested = 0;
+    private boolean cancelled = false;
+
+    ListPublisher(List<String> items, RuntimeException error) {
+      this.items = items;
+      this.error = error;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super String> subscriber) {
+      subscriber.onSubscribe(new Subscription() {
+        private int next = 0;
+
+        @Override
+        public void request(long n) {
+          requested += n;
+          while (!cancelled && next < items.size() && next < requested) {
+            subscriber.onNext(items.get(next++));
+          }
+          if (!cancelled && next == items.size()) {
+            if (error == null) {
+              subscriber.onComplete();
+            } else {
+              subscriber.onError(error);
+            }
+          }
+        }
+
+        @Override
+        public void cancel() {
+          cancelled = true;
+        }
+      });
+    }
+  }
+
+  @Test
+  void firstGetsJustTheFirstItem() throws Exception {
+    ListPublisher publisher = new ListPublisher(List.of("a", "b", "c"), null);
+
+    assertEquals("a", Publishers.first(publisher).get(5, TimeUnit.SECONDS));
+    assertEquals(1, publisher.requested);
+    assertTrue(publisher.cancelled);
+  }
+
+  @Test
+  void firstOfNothingIsNull() throws Exception {
+    assertNull(Publishers.first(new ListPublisher(List.of(), null)).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void toListGetsEverything() throws Exception {
+    ListPublisher publisher = new ListPublisher(List.of("a", "b", "c"), null);
+
+    assertEquals(List.of("a", "b", "c"), Publishers.toList(publisher).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void failuresFailTheFuture() {
+    IllegalStateException failure = new IllegalStateException("The database is down");
+
+    ExecutionException thrown = assertThrows(ExecutionException.class,
+      () -> Publishers.toList(new ListPublisher(List.of("a"), failure)).get(5, TimeUnit.SECONDS));
+    assertSame(failure, thrown.getCause());
+    thrown = assertThrows(ExecutionException.class,
+      () -> Publishers.first(new ListPublisher(List.of(), failure)).get(5, TimeUnit.SECONDS));
+    assertSame(failure, thrown.getCause());
+  }
+}
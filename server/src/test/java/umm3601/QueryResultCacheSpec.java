@@ -0,0 +1,78 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the `QueryResultCache` only throws out the results a
+ * change could affect.
+ */
+class QueryResultCacheSpec {
+
+  private QueryResultCache cache;
+
+  // How many times we've "run the query", i.e., missed the cache
+  private AtomicInteger queries;
+
+  @BeforeEach
+  void setupEach() {
+    cache = new QueryResultCache(1_000_000, Duration.ofMinutes(1));
+    queries = new AtomicInteger();
+  }
+
+  private byte[] lookup(QueryResultCache.Key key) {
+    return cache.get(key, () -> {
+      queries.incrementAndGet();
+      return key.query().getBytes(StandardCharsets.UTF_8);
+    });
+  }
+
+  @Test
+  void repeatedQueriesAreServedFromTheCache() {
+    QueryResultCache.Key key = new QueryResultCache.Key("Fry", "{owner: Fry}");
+
+    lookup(key);
+    lookup(key);
+    lookup(key);
+
+    assertEquals(1, queries.get());
+    assertEquals(2, cache.stats().hitCount());
+  }
+
+  @Test
+  void invalidatingAPartitionOnlyAffectsThatPartitionAndUnpartitionedQueries() {
+    QueryResultCache.Key fry = new QueryResultCache.Key("Fry", "{owner: Fry}");
+    QueryResultCache.Key sam = new QueryResultCache.Key("Sam", "{owner: Sam}");
+    QueryResultCache.Key everyone = new QueryResultCache.Key(null, "{}");
+    lookup(fry);
+    lookup(sam);
+    lookup(everyone);
+    assertEquals(3, queries.get());
+
+    cache.invalidate("Fry");
+
+    // Sam's result is still cached, but the other two have to be re-run
+    lookup(sam);
+    assertEquals(3, queries.get());
+    lookup(fry);
+    lookup(everyone);
+    assertEquals(5, queries.get());
+  }
+
+  @Test
+  void invalidateAllThrowsOutEverything() {
+    QueryResultCache.Key fry = new QueryResultCache.Key("Fry", "{owner: Fry}");
+    lookup(fry);
+
+    cache.invalidateAll();
+    lookup(fry);
+
+    assertEquals(2, queries.get());
+  }
+}
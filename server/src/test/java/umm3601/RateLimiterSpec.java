@@ -0,0 +1,138 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests that `RateLimiter` gives each client its own bucket of tokens,
+ * refills them at the right rate, charges each route what it costs, and
+ * forgets about clients whose buckets are full.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RateLimiterSpec {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static Context request(String path, String ip, String apiKey) {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.endpointHandlerPath()).thenReturn(path);
+    when(ctx.ip()).thenReturn(ip);
+    when(ctx.header(RateLimiter.API_KEY_HEADER)).thenReturn(apiKey);
+    return ctx;
+  }
+
+  @Test
+  void clientsCanBurstAndThenHaveToWait() {
+    RateLimiter limiter = new RateLimiter(10, 3);
+    long now = 0;
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.take("Fry", 1, now));
+    }
+    // Out of tokens; the next one comes along in a tenth of a second
+    assertEquals(SECOND / 10, limiter.take("Fry", 1, now));
+    assertEquals(0, limiter.take("Fry", 1, now + SECOND / 10));
+  }
+
+  @Test
+  void eachClientHasItsOwnBucket() {
+    RateLimiter limiter = new RateLimiter(1, 1);
+
+    assertEquals(0, limiter.take("Fry", 1, 0));
+    assertTrue(limiter.take("Fry", 1, 0) > 0);
+    assertEquals(0, limiter.take("Leela", 1, 0));
+    assertEquals(2, limiter.clients());
+  }
+
+  @Test
+  void bucketsNeverHoldMoreThanTheBurst() {
+    RateLimiter limiter = new RateLimiter(10, 2);
+    limiter.take("Fry", 1, 0);
+
+    // An hour later the bucket is only full, not overflowing
+    long later = 3600 * SECOND;
+    assertEquals(0, limiter.take("Fry", 2, later));
+    assertTrue(limiter.take("Fry", 1, later) > 0);
+  }
+
+  @Test
+  void requestsThatCostMoreThanTheBurstOnlyNeedAFullBucket() {
+    RateLimiter limiter = new RateLimiter(1, 5);
+
+    assertEquals(0, limiter.take("Fry", 100, 0));
+    assertEquals(5 * SECOND, limiter.take("Fry", 100, 0));
+  }
+
+  @Test
+  void fullBucketsAreSweptAway() {
+    RateLimiter limiter = new RateLimiter(10, 10);
+    limiter.take("Fry", 1, 0);
+    limiter.take("Leela", 10, 0);
+
+    // After half a second Fry's bucket is full again, but Leela's isn't
+    limiter.sweep(SECOND / 2);
+
+    assertEquals(1, limiter.clients());
+    assertTrue(limiter.take("Leela", 10, SECOND / 2) > 0);
+  }
+
+  @Test
+  void expensiveRoutesCostMore() {
+    RateLimiter limiter = new RateLimiter(1, 10);
+    limiter.setCost(HandlerType.GET, "/api/expensive", ctx -> 10);
+
+    limiter.check(request("/api/cheap", "10.0.0.1", null));
+    Context expensive = request("/api/expensive", "10.0.0.2", null);
+    limiter.check(expensive);
+
+    // 10.0.0.1 still has tokens to spare, but 10.0.0.2 has used them all
+    limiter.check(request("/api/cheap", "10.0.0.1", null));
+    HttpResponseException thrown = assertThrows(HttpResponseException.class,
+      () -> limiter.check(request("/api/cheap", "10.0.0.2", null)));
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS.getCode(), thrown.getStatus());
+    assertEquals(1, limiter.rejected());
+  }
+
+  @Test
+  void clientsWithAnApiKeyAreKnownByIt() {
+    RateLimiter limiter = new RateLimiter(1, 1, Set.of("planet-express"));
+
+    limiter.check(request("/api/todo", "10.0.0.1", "planet-express"));
+    // A different IP address, but the same API key
+    Context again = request("/api/todo", "10.0.0.2", "planet-express");
+    assertThrows(HttpResponseException.class, () -> limiter.check(again));
+    verify(again).header(LoadShedder.RETRY_AFTER_HEADER, "1");
+
+    // The same IP address without the key is a different client
+    limiter.check(request("/api/todo", "10.0.0.1", null));
+  }
+
+  @Test
+  void changingTheApiKeyDoesntResetTheLimit() {
+    RateLimiter limiter = new RateLimiter(1, 1, Set.of("planet-express"));
+
+    limiter.check(request("/api/todo", "10.0.0.1", "made-up-1"));
+    // Keys we don't know are ignored, so a new one each time doesn't get
+    // the client a fresh bucket (or fill the map up with them)
+    assertThrows(HttpResponseException.class,
+      () -> limiter.check(request("/api/todo", "10.0.0.1", "made-up-2")));
+    assertThrows(HttpResponseException.class,
+      () -> limiter.check(request("/api/todo", "10.0.0.1", null)));
+    assertEquals(1, limiter.clients());
+  }
+}
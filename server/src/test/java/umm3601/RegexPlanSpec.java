@@ -0,0 +1,110 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Tests that `RegexPlan` turns the patterns that are really just strings
+ * into filters that can use an index, and only lets through "real"
+ * regular expressions that can't blow up.
+ */
+class RegexPlanSpec {
+
+  private static BsonDocument filter(String pattern) {
+    return RegexPlan.of("category", pattern).filter().toBsonDocument();
+  }
+
+  @Test
+  void anchoredLiteralsAreEqualities() {
+    RegexPlan plan = RegexPlan.of("category", "^homework$");
+
+    assertEquals(RegexPlan.Kind.EQUALS, plan.kind());
+    assertEquals(BsonDocument.parse("{category: 'homework'}"), filter("^homework$"));
+    // Escaped punctuation is just part of the string
+    assertEquals(BsonDocument.parse("{category: 'v1.2 (beta)'}"), filter("^v1\\.2 \\(beta\\)$"));
+    assertEquals(BsonDocument.parse("{category: ''}"), filter("^$"));
+    assertFalse(plan.needsTimeLimit());
+  }
+
+  @Test
+  void literalPrefixesAreRanges() {
+    assertEquals(RegexPlan.Kind.PREFIX, RegexPlan.of("category", "^home").kind());
+    assertEquals(BsonDocument.parse("{$and: [{category: {$gte: 'home'}}, {category: {$lt: 'homf'}}]}"),
+      filter("^home"));
+    assertEquals(BsonDocument.parse("{$and: [{category: {$gte: 'a.b'}}, {category: {$lt: 'a.c'}}]}"),
+      filter("^a\\.b"));
+  }
+
+  @Test
+  void otherLiteralsStayCheapRegexes() {
+    for (String pattern : new String[] {"homework", "work$", "^", "", "\\$5"}) {
+      RegexPlan plan = RegexPlan.of("category", pattern);
+      assertEquals(RegexPlan.Kind.LITERAL, plan.kind(), pattern);
+      assertFalse(plan.needsTimeLimit(), pattern);
+      assertEquals(pattern, filter(pattern).getRegularExpression("category").getPattern(), pattern);
+    }
+  }
+
+  @Test
+  void realRegexesNeedATimeLimit() {
+    for (String pattern : new String[] {"^home|work$", "h.*k", "^\\d+$", "[a-z]+ing", "(ab)+", "(a+)?b", "x{2,3}?"}) {
+      RegexPlan plan = RegexPlan.of("category", pattern);
+      assertEquals(RegexPlan.Kind.REGEX, plan.kind(), pattern);
+      assertTrue(plan.needsTimeLimit(), pattern);
+    }
+  }
+
+  @Test
+  void expensiveRegexesAreRejected() {
+    for (String pattern : new String[] {
+        // Repeated groups with repeats in them backtrack exponentially
+        "(a+)+b", "(a*)*", "((ab)*c)+", "(.*a){10}",
+        // Backreferences
+        "(a)\\1", "(?<x>a)\\k<x>",
+        // Too long, or too many repeats
+        "a*".repeat(RegexPlan.MAX_QUANTIFIERS + 1), ".".repeat(RegexPlan.MAX_PATTERN_LENGTH + 1),
+        // Not legal at all
+        "(unclosed", "[z-a]"}) {
+      assertThrows(BadRequestResponse.class, () -> RegexPlan.of("category", pattern), pattern);
+    }
+  }
+
+  @Test
+  void characterClassesDontConfuseTheBudget() {
+    // The `+` and `)` inside the class aren't a repeated group
+    assertEquals(RegexPlan.Kind.REGEX, RegexPlan.of("category", "(a[+)])+").kind());
+    assertEquals(RegexPlan.Kind.REGEX, RegexPlan.of("category", "([*+?]b)+").kind());
+  }
+
+  @Test
+  void quotedAndUnclosedBracesDontHangTheBudget() {
+    // A `{` with no `}` after it (quoted or not) isn't a repeat, and
+    // checking it mustn't loop forever
+    for (String pattern : new String[] {"\\Q{\\E", "\\Q{", "a\\Q{\\Eb", "[\\Q{\\E]+"}) {
+      RegexPlan plan = assertTimeoutPreemptively(Duration.ofSeconds(1), () -> RegexPlan.of("category", pattern),
+        pattern);
+      assertEquals(RegexPlan.Kind.REGEX, plan.kind(), pattern);
+    }
+  }
+
+  @Test
+  void quotedTextIsntSyntax() {
+    // The `+`s here are quoted, so this isn't a repeated group with a
+    // repeat in it
+    assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+      assertEquals(RegexPlan.Kind.REGEX, RegexPlan.of("category", "\\Q(a+)+\\E").kind());
+      assertEquals(RegexPlan.Kind.REGEX, RegexPlan.of("category", "(a\\Q+\\E)+").kind());
+      assertEquals(RegexPlan.Kind.REGEX, RegexPlan.of("category", "[\\Q]\\E]+").kind());
+    });
+  }
+}
@@ -0,0 +1,93 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Tests that `RequestChecks` accepts good values, and rejects bad ones
+ * with helpful messages.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RequestChecksSpec {
+
+  /**
+   * A simple type of request body to check.
+   */
+  @SuppressWarnings({ "VisibilityModifier" })
+  public static class Person {
+    public String name;
+    public Integer age;
+  }
+
+  private static final List<RequestChecks.Rule<Person>> RULES = List.of(
+      new RequestChecks.Rule<>(person -> person.name != null, "Must have a name"),
+      new RequestChecks.Rule<>(person -> person.age != null, "Must have an age"));
+
+  private static JavalinJackson javalinJackson = new JavalinJackson();
+
+  private Context contextWithBody(String json) {
+    Context ctx = mock(Context.class);
+    when(ctx.body()).thenReturn(json);
+    when(ctx.bodyValidator(Person.class))
+        .thenReturn(new BodyValidator<>(json, Person.class, () -> javalinJackson.fromJsonString(json, Person.class)));
+    return ctx;
+  }
+
+  @Test
+  void acceptsGoodBodiesWithoutReadingThemAgain() {
+    Context ctx = contextWithBody("{\"name\": \"Pat\", \"age\": 30}");
+
+    Person person = RequestChecks.body(ctx, Person.class, RULES);
+
+    assertEquals("Pat", person.name);
+    // The body is only needed for error messages
+    verify(ctx, never()).body();
+  }
+
+  @Test
+  void reportsEveryBrokenRuleWithTheBody() {
+    Context ctx = contextWithBody("{\"name\": null}");
+
+    ValidationException exception = assertThrows(ValidationException.class,
+        () -> RequestChecks.body(ctx, Person.class, RULES));
+
+    List<? extends ValidationError<?>> errors = exception.getErrors().get(RequestChecks.REQUEST_BODY_KEY);
+    assertEquals(2, errors.size());
+    assertTrue(errors.get(0).getMessage().startsWith("Must have a name"));
+    assertTrue(errors.get(1).getMessage().contains("{\"name\": null}"));
+  }
+
+  @Test
+  void findsTheFirstProblem() {
+    Person person = new Person();
+    person.name = "Pat";
+    assertEquals("Must have an age", RequestChecks.firstProblem(person, RULES));
+    person.age = 30;
+    assertNull(RequestChecks.firstProblem(person, RULES));
+  }
+
+  @Test
+  void onlyConvertsLegalObjectIds() {
+    ObjectId id = new ObjectId();
+    assertEquals(id, RequestChecks.objectId(id.toHexString()));
+    assertNull(RequestChecks.objectId("bad"));
+    assertNull(RequestChecks.objectId(null));
+  }
+}
@@ -0,0 +1,104 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests that `ServerMetrics` records requests and reports them in
+ * the Prometheus text format.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ServerMetricsSpec {
+
+  private ServerMetrics metrics;
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    metrics = new ServerMetrics();
+  }
+
+  private void recordRequest(HandlerType method, String route, int status, float millis) {
+    Context request = mock(Context.class);
+    when(request.method()).thenReturn(method);
+    when(request.endpointHandlerPath()).thenReturn(route);
+    when(request.statusCode()).thenReturn(status);
+    metrics.record(request, millis);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    metrics.addRoutes(mockServer);
+    verify(mockServer).get(any(), any());
+  }
+
+  @Test
+  void reportsRequestCountsByRouteAndStatus() {
+    recordRequest(HandlerType.GET, "/api/todo", 200, 3.0f);
+    recordRequest(HandlerType.GET, "/api/todo", 200, 5.0f);
+    recordRequest(HandlerType.GET, "/api/todo/{id}", 404, 1.0f);
+    recordRequest(HandlerType.GET, "", 404, 0.5f);
+
+    String output = metrics.toPrometheus();
+
+    assertTrue(output.contains(
+        "http_server_requests_total{method=\"GET\",route=\"/api/todo\",status=\"200\"} 2\n"));
+    assertTrue(output.contains(
+        "http_server_requests_total{method=\"GET\",route=\"/api/todo/{id}\",status=\"404\"} 1\n"));
+    assertTrue(output.contains(
+        "http_server_requests_total{method=\"GET\",route=\"unmatched\",status=\"404\"} 1\n"));
+    assertTrue(output.contains(
+        "http_server_request_duration_seconds_count{method=\"GET\",route=\"/api/todo\"} 2\n"));
+    assertTrue(output.contains(
+        "http_server_request_duration_seconds{method=\"GET\",route=\"/api/todo\",quantile=\"0.99\"}"));
+    // We haven't seen any POSTs, so there shouldn't be any metrics for them
+    assertFalse(output.contains("method=\"POST\""));
+  }
+
+  @Test
+  void servesMetricsInPrometheusFormat() {
+    recordRequest(HandlerType.POST, "/api/users", 201, 2.0f);
+
+    metrics.getMetrics(ctx);
+
+    ArgumentCaptor<String> resultCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).contentType(ServerMetrics.PROMETHEUS_CONTENT_TYPE);
+    verify(ctx).result(resultCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertTrue(resultCaptor.getValue().contains(
+        "http_server_requests_total{method=\"POST\",route=\"/api/users\",status=\"201\"} 1\n"));
+  }
+
+  @Test
+  void reportsExtraGaugesAndCounters() {
+    AtomicLong open = new AtomicLong(3);
+    metrics.addGauge("mongo_pool_open_connections", "Open connections.", open::get);
+    metrics.addCounter("cache_hits_total", "Cache hits.", () -> 12);
+    open.set(5);
+
+    String output = metrics.toPrometheus();
+    assertTrue(output.contains("# TYPE mongo_pool_open_connections gauge\nmongo_pool_open_connections 5\n"));
+    assertTrue(output.contains("# TYPE cache_hits_total counter\ncache_hits_total 12\n"));
+  }
+}
@@ -0,0 +1,189 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that `SingleFlight` runs identical concurrent queries once, and
+ * only shares a query between requests that should get the same answer.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SingleFlightSpec {
+
+  private CollectionVersion version;
+  private SingleFlight flights;
+
+  // How many times the (slow) query has actually been run
+  private AtomicInteger runs;
+  // Counted down when the query starts, and what the query waits for
+  // before it finishes
+  private CountDownLatch started;
+  private CountDownLatch finish;
+
+  // Where the overlapping requests run, so they can't end up waiting
+  // on each other for a thread
+  private ExecutorService requests;
+
+  @BeforeEach
+  void setupEach() {
+    version = new CollectionVersion();
+    flights = new SingleFlight(version);
+    runs = new AtomicInteger();
+    started = new CountDownLatch(1);
+    finish = new CountDownLatch(1);
+    requests = Executors.newCachedThreadPool();
+  }
+
+  @AfterEach
+  void teardownEach() {
+    finish.countDown();
+    requests.shutdownNow();
+  }
+
+  private Supplier<byte[]> slowQuery(String result) {
+    return () -> {
+      runs.incrementAndGet();
+      started.countDown();
+      try {
+        finish.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return result.getBytes(StandardCharsets.UTF_8);
+    };
+  }
+
+  private CompletableFuture<byte[]> runInBackground(String key, Supplier<byte[]> query) {
+    return CompletableFuture.supplyAsync(() -> flights.run(key, query), requests);
+  }
+
+  /**
+   * Wait until a request has joined a query that was already running.
+   */
+  private void awaitCoalesced() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (flights.coalesced() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void identicalQueriesThatOverlapAreRunOnce() throws Exception {
+    CompletableFuture<byte[]> first = runInBackground("owner=Fry", slowQuery("[1]"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // This one comes in while the first is still running, so it waits
+    // for the first one's result rather than running its own.
+    CompletableFuture<byte[]> second = runInBackground("owner=Fry", slowQuery("[2]"));
+    awaitCoalesced();
+    finish.countDown();
+
+    assertArrayEquals("[1]".getBytes(StandardCharsets.UTF_8), first.get(5, TimeUnit.SECONDS));
+    assertSame(first.get(), second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, runs.get());
+    assertEquals(1, flights.queries());
+    assertEquals(1, flights.coalesced());
+  }
+
+  @Test
+  void queriesThatDontOverlapAreEachRun() {
+    finish.countDown();
+    flights.run("owner=Fry", slowQuery("[1]"));
+    flights.run("owner=Fry", slowQuery("[2]"));
+
+    assertEquals(2, runs.get());
+    assertEquals(0, flights.coalesced());
+  }
+
+  @Test
+  void differentQueriesAreNotShared() throws Exception {
+    CompletableFuture<byte[]> first = runInBackground("owner=Fry", slowQuery("[1]"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    finish.countDown();
+
+    assertArrayEquals("[2]".getBytes(StandardCharsets.UTF_8), flights.run("owner=Sam", slowQuery("[2]")));
+    first.get(5, TimeUnit.SECONDS);
+    assertEquals(2, runs.get());
+    assertEquals(0, flights.coalesced());
+  }
+
+  @Test
+  void queriesFromBeforeAChangeAreNotShared() throws Exception {
+    CompletableFuture<byte[]> first = runInBackground("owner=Fry", slowQuery("[1]"));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // The first query may not see this change, so a request that comes
+    // in after it has to run its own query.
+    version.change(() -> null);
+    finish.countDown();
+
+    assertArrayEquals("[2]".getBytes(StandardCharsets.UTF_8), flights.run("owner=Fry", slowQuery("[2]")));
+    first.get(5, TimeUnit.SECONDS);
+    assertEquals(2, runs.get());
+  }
+
+  @Test
+  void failuresAreSharedToo() throws Exception {
+    IllegalStateException failure = new IllegalStateException("The database is down");
+    CompletableFuture<byte[]> first = runInBackground("owner=Fry", () -> {
+      started.countDown();
+      try {
+        finish.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw failure;
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<byte[]> second = runInBackground("owner=Fry", slowQuery("[2]"));
+    awaitCoalesced();
+    finish.countDown();
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+    assertSame(failure, thrown.getCause());
+    assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+    assertEquals(0, runs.get());
+  }
+
+  @Test
+  void requestsWaitingOnAQueryThatThrowsAnErrorFailToo() throws Exception {
+    AssertionError failure = new AssertionError("Something went badly wrong");
+    CompletableFuture<byte[]> first = runInBackground("owner=Fry", () -> {
+      started.countDown();
+      try {
+        finish.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw failure;
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<byte[]> second = runInBackground("owner=Fry", slowQuery("[2]"));
+    awaitCoalesced();
+    finish.countDown();
+
+    // The waiting request is told about the error, rather than waiting
+    // forever for a result that's never coming
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+    assertSame(failure, thrown.getCause());
+    assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+    assertEquals(0, runs.get());
+  }
+}
@@ -0,0 +1,236 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
+import umm3601.Config;
+import umm3601.IdBatch;
+import umm3601.KeysetPage;
+
+/**
+ * Tests that `ReactiveTodoController` gives the same answers as
+ * `TodoController`, through the reactive-streams driver.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ReactiveTodoControllerSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+  private static com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+
+  private ReactiveTodoController todoController;
+  private ObjectId samsId;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    MongoClientSettings settings = MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .build();
+    mongoClient = MongoClients.create(settings);
+    reactiveClient = com.mongodb.reactivestreams.client.MongoClients.create(settings);
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    reactiveClient.close();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("todos").drop();
+    samsId = new ObjectId();
+    db.getCollection("todos").insertMany(List.of(
+        new Document("owner", "Blanche").append("category", "homework").append("status", "true"),
+        new Document("owner", "Fry").append("category", "video games").append("status", "false"),
+        new Document("owner", "Dawn").append("category", "homework").append("status", "true")
+            .append("body", "do 3601 homework"),
+        new Document("_id", samsId).append("owner", "Sam").append("status", true).append("category", "homework")));
+
+    todoController = new ReactiveTodoController(db, reactiveClient.getDatabase("test"), Config.defaults());
+  }
+
+  private static Context contextWithQueryParams(Map<String, String> params) {
+    Context queryCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    params.forEach((key, value) -> {
+      queryParams.put(key, List.of(value));
+      when(queryCtx.queryParam(key)).thenReturn(value);
+    });
+    when(queryCtx.queryParamMap()).thenReturn(queryParams);
+    return queryCtx;
+  }
+
+  /**
+   * Wait for the future a handler gave `ctx.future()` to finish, the way
+   * Javalin would before sending the response.
+   */
+  @SuppressWarnings("unchecked")
+  private static void finish(Context ctx) throws Exception {
+    ArgumentCaptor<Supplier<CompletableFuture<?>>> futureCaptor = ArgumentCaptor.forClass(Supplier.class);
+    verify(ctx).future(futureCaptor.capture());
+    futureCaptor.getValue().get().get(5, TimeUnit.SECONDS);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Todo> todosIn(Context ctx) {
+    ArgumentCaptor<List<Todo>> todosCaptor = ArgumentCaptor.forClass(List.class);
+    verify(ctx).json(todosCaptor.capture());
+    return todosCaptor.getValue();
+  }
+
+  @Test
+  void addsTheSameRoutesAsTheSyncController() {
+    Javalin mockServer = mock(Javalin.class);
+    todoController.addRoutes(mockServer);
+    verify(mockServer, Mockito.atLeast(3)).get(any(), any());
+    verify(mockServer, Mockito.atLeastOnce()).post(any(), any());
+    verify(mockServer, Mockito.atLeastOnce()).delete(any(), any());
+  }
+
+  @Test
+  void canGetFilteredAndSortedTodos() throws Exception {
+    Context ctx = contextWithQueryParams(Map.of(
+        TodoController.CATEGORY_KEY, "^home",
+        TodoController.SORT_ORDER_KEY, "desc"));
+
+    todoController.getTodos(ctx);
+    finish(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    List<String> owners = todosIn(ctx).stream().map(todo -> todo.owner).toList();
+    assertEquals(List.of("Sam", "Dawn", "Blanche"), owners);
+  }
+
+  @Test
+  void canGetTodosByStatus() throws Exception {
+    Context ctx = contextWithQueryParams(Map.of(TodoController.STATUS_KEY, "complete"));
+
+    todoController.getTodosByStatus(ctx);
+    finish(ctx);
+
+    assertEquals(List.of("Sam"), todosIn(ctx).stream().map(todo -> todo.owner).toList());
+  }
+
+  @Test
+  void paramsOnlyTheSyncControllerHandlesAreRejected() {
+    for (String key : List.of(IdBatch.IDS_KEY, KeysetPage.PAGE_SIZE_KEY)) {
+      Context ctx = contextWithQueryParams(Map.of(key, "1"));
+      assertThrows(BadRequestResponse.class, () -> todoController.getTodos(ctx), key);
+      verify(ctx, never()).future(any());
+    }
+  }
+
+  @Test
+  void canCountTodos() throws Exception {
+    Context allCtx = contextWithQueryParams(Map.of());
+    todoController.getTodoCount(allCtx);
+    finish(allCtx);
+    verify(allCtx).json(Map.of("count", 4L));
+
+    Context homeworkCtx = contextWithQueryParams(Map.of(TodoController.CATEGORY_KEY, "homework"));
+    todoController.getTodoCount(homeworkCtx);
+    finish(homeworkCtx);
+    verify(homeworkCtx).json(Map.of("count", 3L));
+  }
+
+  @Test
+  void canGetTodoById() throws Exception {
+    Context ctx = mock(Context.class);
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+
+    todoController.getTodoByID(ctx);
+    finish(ctx);
+
+    ArgumentCaptor<Todo> todoCaptor = ArgumentCaptor.forClass(Todo.class);
+    verify(ctx).json(todoCaptor.capture());
+    assertEquals("Sam", todoCaptor.getValue().owner);
+  }
+
+  @Test
+  void todoThatDoesNotExistIsNotFound() {
+    Context ctx = mock(Context.class);
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    todoController.getTodoByID(ctx);
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> finish(ctx));
+    assertTrue(thrown.getCause() instanceof NotFoundResponse);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canAddAndDeleteTodos() throws Exception {
+    String newTodoJson = """
+        {"owner": "Leela", "category": "space", "body": "deliver the package", "status": false}""";
+    JavalinJackson javalinJackson = new JavalinJackson();
+    Context addCtx = mock(Context.class);
+    when(addCtx.bodyValidator(Todo.class))
+        .thenReturn(new BodyValidator<Todo>(newTodoJson, Todo.class,
+            () -> javalinJackson.fromJsonString(newTodoJson, Todo.class)));
+
+    todoController.addNewTodo(addCtx);
+    finish(addCtx);
+
+    verify(addCtx).status(HttpStatus.CREATED);
+    ArgumentCaptor<Map<String, String>> idCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(addCtx).json(idCaptor.capture());
+    String id = idCaptor.getValue().get("id");
+    Document added = db.getCollection("todos").find(new Document("_id", new ObjectId(id))).first();
+    assertEquals("Leela", added.getString("owner"));
+
+    Context deleteCtx = mock(Context.class);
+    when(deleteCtx.pathParam("id")).thenReturn(id);
+    todoController.deleteTodoByID(deleteCtx);
+    finish(deleteCtx);
+    verify(deleteCtx).status(HttpStatus.OK);
+    assertEquals(0, db.getCollection("todos").countDocuments(new Document("_id", new ObjectId(id))));
+
+    // It's not there to delete a second time
+    Context againCtx = mock(Context.class);
+    when(againCtx.pathParam("id")).thenReturn(id);
+    todoController.deleteTodoByID(againCtx);
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> finish(againCtx));
+    assertTrue(thrown.getCause() instanceof NotFoundResponse);
+  }
+}
@@ -1,12 +1,24 @@
 package umm3601.todo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -14,6 +26,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -27,19 +43,37 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
 
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.Header;
+import io.javalin.http.HttpResponseException;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
 import io.javalin.validation.Validation;
 import io.javalin.validation.Validator;
+import umm3601.Config;
+import umm3601.FieldProjection;
+import umm3601.IdBatch;
+import umm3601.IndexReconciler;
+import umm3601.KeysetPage;
+import umm3601.ListResponses;
+import umm3601.RateLimiter;
+import umm3601.ServerMetrics;
 import umm3601.todo.Todo;
 import umm3601.todo.TodoController;
 
@@ -168,6 +202,135 @@ class TodoControllerSpec {
         todoArrayListCaptor.getValue().size());
   }
 
+  @Test
+  void canStreamAllTodos() throws IOException {
+    TodoController streamingController = new TodoController(db, Config.builder().streamBatchSize(2).build());
+
+    // Collect whatever gets written to the (mocked) JSON stream. We have
+    // to consume the stream inside the call, since the controller closes
+    // the database cursor as soon as `writeJsonStream` returns.
+    List<Todo> streamedTodos = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> stream = invocation.getArgument(0);
+      stream.forEach(todo -> streamedTodos.add((Todo) todo));
+      return null;
+    }).when(ctx).writeJsonStream(any());
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    streamingController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    assertEquals(db.getCollection("todos").countDocuments(), streamedTodos.size());
+  }
+
+  @Test
+  void canPageThroughTodosInDescendingOrder() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(KeysetPage.PAGE_SIZE_KEY, Arrays.asList(new String[] {"2"}));
+    queryParams.put(TodoController.SORT_ORDER_KEY, Arrays.asList(new String[] {"desc"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(TodoController.SORT_ORDER_KEY)).thenReturn("desc");
+    when(ctx.queryParamAsClass(KeysetPage.PAGE_SIZE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(KeysetPage.PAGE_SIZE_KEY, Integer.class, "2"));
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).json(todoArrayListCaptor.capture());
+    assertEquals(Arrays.asList("Sam", "Fry"), owners(todoArrayListCaptor.getValue()));
+    ArgumentCaptor<String> tokenCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(KeysetPage.NEXT_PAGE_TOKEN_HEADER), tokenCaptor.capture());
+    String pageToken = tokenCaptor.getValue();
+
+    // Ask for the next page, using the token we were handed
+    Context nextCtx = mock(Context.class);
+    queryParams.put(KeysetPage.PAGE_TOKEN_KEY, Arrays.asList(new String[] {pageToken}));
+    when(nextCtx.queryParamMap()).thenReturn(queryParams);
+    when(nextCtx.queryParam(TodoController.SORT_ORDER_KEY)).thenReturn("desc");
+    when(nextCtx.queryParam(KeysetPage.PAGE_TOKEN_KEY)).thenReturn(pageToken);
+    when(nextCtx.queryParamAsClass(KeysetPage.PAGE_SIZE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(KeysetPage.PAGE_SIZE_KEY, Integer.class, "2"));
+
+    todoController.getTodos(nextCtx);
+
+    verify(nextCtx).json(todoArrayListCaptor.capture());
+    assertEquals(Arrays.asList("Dawn", "Blanche"), owners(todoArrayListCaptor.getValue()));
+  }
+
+  @Test
+  void pageTokenMustMatchSortOrder() throws IOException {
+    // Get a token for an ascending sort...
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(KeysetPage.PAGE_SIZE_KEY, Arrays.asList(new String[] {"1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(KeysetPage.PAGE_SIZE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(KeysetPage.PAGE_SIZE_KEY, Integer.class, "1"));
+    todoController.getTodos(ctx);
+    ArgumentCaptor<String> tokenCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(KeysetPage.NEXT_PAGE_TOKEN_HEADER), tokenCaptor.capture());
+
+    // ...and then try to use it for a descending sort.
+    Context nextCtx = mock(Context.class);
+    queryParams.put(KeysetPage.PAGE_TOKEN_KEY, Arrays.asList(new String[] {tokenCaptor.getValue()}));
+    when(nextCtx.queryParamMap()).thenReturn(queryParams);
+    when(nextCtx.queryParam(TodoController.SORT_ORDER_KEY)).thenReturn("desc");
+    when(nextCtx.queryParam(KeysetPage.PAGE_TOKEN_KEY)).thenReturn(tokenCaptor.getValue());
+    when(nextCtx.queryParamAsClass(KeysetPage.PAGE_SIZE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(KeysetPage.PAGE_SIZE_KEY, Integer.class, "1"));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(nextCtx);
+    });
+  }
+
+  @Test
+  void cachedTodoResultsAreInvalidatedByChanges() throws IOException {
+    TodoController cachingController = new TodoController(db,
+        Config.builder().todoCache(1_000_000, Duration.ofMinutes(1)).build());
+    JavalinJackson javalinJackson = new JavalinJackson();
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.jsonMapper()).thenReturn(javalinJackson);
+
+    cachingController.getTodos(ctx);
+
+    // A todo added behind the controller's back isn't seen, since
+    // the result of the query is now cached...
+    db.getCollection("todos").insertOne(new Document()
+        .append("owner", "Leela")
+        .append("status", false)
+        .append("category", "piloting")
+        .append("body", "fly the ship"));
+    cachingController.getTodos(ctx);
+
+    ArgumentCaptor<byte[]> resultCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(resultCaptor.capture());
+    assertEquals(4, parseTodos(javalinJackson, resultCaptor.getAllValues().get(0)).length);
+    assertEquals(4, parseTodos(javalinJackson, resultCaptor.getAllValues().get(1)).length);
+
+    // ...but deleting a todo through the controller throws the cached
+    // result out, so we now see both changes.
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    cachingController.deleteTodoByID(ctx);
+    cachingController.getTodos(ctx);
+
+    verify(ctx, times(3)).result(resultCaptor.capture());
+    Todo[] todos = parseTodos(javalinJackson, resultCaptor.getValue());
+    assertEquals(4, todos.length);
+    assertEquals(Arrays.asList("Blanche", "Dawn", "Fry", "Leela"), owners(Arrays.asList(todos)));
+  }
+
+  private static Todo[] parseTodos(JavalinJackson javalinJackson, byte[] json) {
+    return javalinJackson.fromJsonString(new String(json, StandardCharsets.UTF_8), Todo[].class);
+  }
+
+  private static List<String> owners(List<Todo> todos) {
+    List<String> owners = new ArrayList<>();
+    for (Todo todo : todos) {
+      owners.add(todo.owner);
+    }
+    return owners;
+  }
+
   @Test
   void canGetTodosWithCategory() throws IOException {
     Map<String, List<String>> queryParams = new HashMap<>();
@@ -316,5 +479,629 @@ class TodoControllerSpec {
 
   }
 
+  /**
+   * Make a mock context whose query parameters are `params`.
+   */
+  private Context contextWithQueryParams(Map<String, String> params) {
+    Context queryCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    params.forEach((key, value) -> {
+      queryParams.put(key, List.of(value));
+      when(queryCtx.queryParam(key)).thenReturn(value);
+    });
+    when(queryCtx.queryParamMap()).thenReturn(queryParams);
+    return queryCtx;
+  }
+
+  @Test
+  void everyFilterShapeUsesAnIndex() {
+    todoController.reconcileIndexes();
+
+    List<Map<String, String>> shapes = List.of(
+        Map.of(TodoController.OWNER_KEY, "Blanche"),
+        Map.of(TodoController.CATEGORY_KEY, "homework"),
+        Map.of(TodoController.STATUS_KEY, "complete"),
+        Map.of(TodoController.STATUS_KEY, "incomplete"),
+        Map.of(TodoController.BODY_KEY, "ipsum"),
+        Map.of("contains", "ipsum"),
+        Map.of(TodoController.OWNER_KEY, "Blanche", TodoController.STATUS_KEY, "complete"),
+        Map.of(TodoController.OWNER_KEY, "Fry", TodoController.CATEGORY_KEY, "video games",
+            TodoController.STATUS_KEY, "incomplete"),
+        Map.of(TodoController.CATEGORY_KEY, "homework", TodoController.BODY_KEY, "ipsum"),
+        Map.of(TodoController.SEARCH_KEY, "homework"),
+        Map.of(TodoController.OWNER_KEY, "Dawn", TodoController.SEARCH_KEY, "homework"));
+
+    for (Map<String, String> shape : shapes) {
+      Document explain = db.getCollection("todos")
+          .find(todoController.constructFilter(contextWithQueryParams(shape)))
+          .explain();
+      String winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+      assertTrue(winningPlan.contains("IXSCAN"), "No index used for " + shape + ": " + winningPlan);
+      assertFalse(winningPlan.contains("COLLSCAN"), "Collection scan for " + shape + ": " + winningPlan);
+    }
+  }
+
+  @Test
+  void canSearchTodoBodiesRankedByRelevance() {
+    todoController.reconcileIndexes();
+    db.getCollection("todos").insertMany(List.of(
+        new Document("owner", "Ann").append("category", "writing").append("body", "write the essay outline"),
+        new Document("owner", "Bo").append("category", "writing").append("body", "essay essay essay drafts"),
+        new Document("owner", "Cy").append("category", "writing").append("body", "proofread the report")));
+
+    // Bo's todo mentions "essay" more, so it should come first
+    assertEquals(List.of("Bo", "Ann"), searchOwners("essay"));
+    // Quoted phrases have to appear as-is
+    assertEquals(List.of("Ann"), searchOwners("\"essay outline\""));
+    // Words with a `-` in front must not appear
+    assertEquals(List.of("Bo"), searchOwners("essay -outline"));
+    // The category is searched too
+    assertEquals(List.of("Ann", "Bo", "Cy"), searchOwners("writing").stream().sorted().toList());
+  }
+
+  /**
+   * Get the owners of the todos a full-text search for `search` finds, in
+   * the order they're returned.
+   */
+  private List<String> searchOwners(String search) {
+    Context searchCtx = contextWithQueryParams(Map.of(TodoController.SEARCH_KEY, search));
+    todoController.getTodos(searchCtx);
+    verify(searchCtx).json(todoArrayListCaptor.capture());
+    return owners(todoArrayListCaptor.getValue());
+  }
+
+  /**
+   * Make a mock context whose request body is `body`.
+   */
+  private Context contextWithBody(String body) {
+    Context bodyCtx = mock(Context.class);
+    when(bodyCtx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    when(bodyCtx.jsonMapper()).thenReturn(new JavalinJackson());
+    return bodyCtx;
+  }
+
+  /**
+   * Get the (JSON) response that was set on `bulkCtx`.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> jsonResponse(Context bulkCtx) {
+    ArgumentCaptor<Map<String, Object>> responseCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(bulkCtx).json(responseCaptor.capture());
+    return responseCaptor.getValue();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canAddTodosInBulkFromJsonArray() throws IOException {
+    Context bulkCtx = contextWithBody("""
+        [
+          {"owner": "Ann", "category": "chores", "body": "sweep", "status": true},
+          {"owner": "Ann", "category": "chores"},
+          {"owner": "Bo", "category": "errands", "body": "buy milk"}
+        ]""");
+
+    todoController.addTodosInBulk(bulkCtx);
+
+    verify(bulkCtx).status(HttpStatus.MULTI_STATUS);
+    Map<String, Object> response = jsonResponse(bulkCtx);
+    assertEquals(2, response.get("inserted"));
+    assertEquals(1, response.get("failed"));
+    List<Map<String, Object>> results = (List<Map<String, Object>>) response.get("results");
+    assertEquals(3, results.size());
+    assertEquals("Todo must have a non-empty body", results.get(1).get("error"));
+
+    MongoCollection<Document> todoDocuments = db.getCollection("todos");
+    Document sweep = todoDocuments.find(new Document("_id", new ObjectId((String) results.get(0).get("id")))).first();
+    assertEquals("sweep", sweep.get("body"));
+    assertEquals(true, sweep.get("status"));
+    assertEquals(1, todoDocuments.countDocuments(new Document("owner", "Bo")));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canAddTodosInBulkFromNdjsonInBatches() throws IOException {
+    TodoController batchingController = new TodoController(db, Config.builder().bulkInsertBatchSize(2).build());
+    // The third todo reuses Sam's ID, so it can't be inserted
+    Context bulkCtx = contextWithBody("""
+        {"owner": "Cy", "category": "a", "body": "one"}
+        {"owner": "Cy", "category": "b", "body": "two"}
+        {"_id": "%s", "owner": "Cy", "category": "c", "body": "a duplicate"}
+        {"owner": "Cy", "category": "d", "body": "four"}
+        """.formatted(samsId.toHexString()));
+
+    batchingController.addTodosInBulk(bulkCtx);
+
+    verify(bulkCtx).status(HttpStatus.MULTI_STATUS);
+    Map<String, Object> response = jsonResponse(bulkCtx);
+    assertEquals(3, response.get("inserted"));
+    List<Map<String, Object>> results = (List<Map<String, Object>>) response.get("results");
+    assertTrue(((String) results.get(2).get("error")).contains("duplicate key"));
+    assertEquals(3, db.getCollection("todos").countDocuments(new Document("owner", "Cy")));
+  }
+
+  @Test
+  void bulkInsertOfOnlyGoodTodosIsCreated() throws IOException {
+    Context bulkCtx = contextWithBody("[{\"owner\": \"Di\", \"category\": \"x\", \"body\": \"y\"}]");
+
+    todoController.addTodosInBulk(bulkCtx);
+
+    verify(bulkCtx).status(HttpStatus.CREATED);
+    assertEquals(0, jsonResponse(bulkCtx).get("failed"));
+  }
+
+  @Test
+  void bulkInsertReadsTodosWithTheServersJsonMapper() throws IOException {
+    // However the server's mapper is set up (here, to ignore fields it
+    // doesn't know), bulk inserts read todos the same way single ones do
+    ObjectMapper lenientMapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    Context bulkCtx = contextWithBody("[{\"owner\": \"Di\", \"category\": \"x\", \"body\": \"y\", \"due\": \"now\"}]");
+    when(bulkCtx.jsonMapper()).thenReturn(new JavalinJackson(lenientMapper, false));
+
+    todoController.addTodosInBulk(bulkCtx);
+
+    verify(bulkCtx).status(HttpStatus.CREATED);
+    assertEquals(1, jsonResponse(bulkCtx).get("inserted"));
+  }
+
+  @Test
+  void bulkInsertKeepsTodosBeforeMalformedJson() throws IOException {
+    Context bulkCtx = contextWithBody("""
+        {"owner": "Ed", "category": "x", "body": "y"}
+        {"owner": "Ed", "category": """);
+
+    todoController.addTodosInBulk(bulkCtx);
+
+    verify(bulkCtx).status(HttpStatus.BAD_REQUEST);
+    Map<String, Object> response = jsonResponse(bulkCtx);
+    assertEquals(1, response.get("inserted"));
+    assertTrue(((String) response.get("error")).contains("after todo 1"));
+    assertEquals(1, db.getCollection("todos").countDocuments(new Document("owner", "Ed")));
+  }
+
+  @Test
+  void reconcilingIndexesOnlyBuildsWhatsMissingOrChanged() {
+    MongoCollection<Document> todoDocuments = db.getCollection("todos");
+    // An index with one of our names, but the wrong keys
+    todoDocuments.createIndex(Indexes.ascending("category", "owner"), new IndexOptions().name("category"));
+
+    List<String> built = IndexReconciler.reconcile(todoDocuments, TodoController.INDEXES);
+    assertEquals(TodoController.INDEXES.size(), built.size());
+    assertTrue(built.contains("category"));
+    Document categoryIndex = todoDocuments.listIndexes().into(new ArrayList<>()).stream()
+        .filter(index -> "category".equals(index.getString("name")))
+        .findFirst()
+        .orElseThrow();
+    assertEquals(new Document("category", 1), categoryIndex.get("key", Document.class));
+
+    // Once they're all there, there's nothing left to do
+    assertEquals(List.of(), IndexReconciler.reconcile(todoDocuments, TodoController.INDEXES));
+  }
+
+  @Test
+  void codecCollectionReadsAndWritesTodosLikeMongoJack() throws IOException {
+    TodoController codecController = new TodoController(db, Config.builder().bsonCodecs(true).build());
+
+    // Both ways of reading the todos should give the same todos (including
+    // the ones whose status was stored as a string)
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    todoController.getTodos(ctx);
+    Context codecCtx = mock(Context.class);
+    when(codecCtx.queryParamMap()).thenReturn(Collections.emptyMap());
+    codecController.getTodos(codecCtx);
+    ArgumentCaptor<ArrayList<Todo>> codecCaptor = ArgumentCaptor.forClass(ArrayList.class);
+    verify(ctx).json(todoArrayListCaptor.capture());
+    verify(codecCtx).json(codecCaptor.capture());
+    assertEquals(describe(todoArrayListCaptor.getValue()), describe(codecCaptor.getValue()));
+
+    Context byIdCtx = mock(Context.class);
+    when(byIdCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    codecController.getTodoByID(byIdCtx);
+    verify(byIdCtx).json(todoCaptor.capture());
+    assertEquals("Sam", todoCaptor.getValue().owner);
+    assertTrue(todoCaptor.getValue().status);
+
+    // Todos written by the codec are stored the same way MongoJack stores them
+    Context bulkCtx = contextWithBody("[{\"owner\": \"Fay\", \"category\": \"x\", \"body\": \"y\", \"status\": true}]");
+    codecController.addTodosInBulk(bulkCtx);
+    verify(bulkCtx).status(HttpStatus.CREATED);
+    Document fays = db.getCollection("todos").find(new Document("owner", "Fay")).first();
+    assertTrue(fays.get("_id") instanceof ObjectId);
+    assertEquals(true, fays.get("status"));
+    assertEquals("y", fays.get("body"));
+  }
+
+  private static List<String> describe(List<Todo> todos) {
+    List<String> descriptions = new ArrayList<>();
+    for (Todo todo : todos) {
+      descriptions.add(String.join("|", todo._id, todo.owner, String.valueOf(todo.status), todo.body, todo.category));
+    }
+    return descriptions;
+  }
+
+  @Test
+  void canSendTodosStraightFromTheirBson() throws IOException {
+    TodoController rawController = new TodoController(db, Config.builder().rawJson(true).build());
+    ObjectMapper mapper = new ObjectMapper();
+
+    ByteArrayOutputStream listBytes = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(listBytes);
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    rawController.getTodos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    JsonNode todos = mapper.readTree(listBytes.toByteArray());
+    assertEquals(db.getCollection("todos").countDocuments(), todos.size());
+
+    Context byIdCtx = mock(Context.class);
+    ByteArrayOutputStream todoBytes = new ByteArrayOutputStream();
+    when(byIdCtx.outputStream()).thenReturn(todoBytes);
+    when(byIdCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    rawController.getTodoByID(byIdCtx);
+
+    // `_id`s are plain hex strings, just like when they come from a `Todo`
+    JsonNode sam = mapper.readTree(todoBytes.toByteArray());
+    assertEquals(samsId.toHexString(), sam.get("_id").asText());
+    assertEquals("Sam", sam.get("owner").asText());
+    assertTrue(sam.get("status").asBoolean());
+  }
+
+  @Test
+  void rawTodoThatDoesNotExistIsNotFound() {
+    TodoController rawController = new TodoController(db, Config.builder().rawJson(true).build());
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    assertThrows(NotFoundResponse.class, () -> {
+      rawController.getTodoByID(ctx);
+    });
+  }
+
+  @Test
+  void canAskForJustSomeTodoFields() throws IOException {
+    Context fieldsCtx = contextWithQueryParams(Map.of(FieldProjection.FIELDS_KEY, "status, owner"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(fieldsCtx.outputStream()).thenReturn(bytes);
+
+    todoController.getTodos(fieldsCtx);
+
+    verify(fieldsCtx).status(HttpStatus.OK);
+    JsonNode todos = new ObjectMapper().readTree(bytes.toByteArray());
+    assertEquals(db.getCollection("todos").countDocuments(), todos.size());
+    for (JsonNode todo : todos) {
+      List<String> fields = new ArrayList<>();
+      todo.fieldNames().forEachRemaining(fields::add);
+      assertEquals(List.of("_id", "owner", "status"), fields);
+    }
+  }
+
+  @Test
+  void unknownTodoFieldsAreRejected() {
+    Context fieldsCtx = contextWithQueryParams(Map.of(FieldProjection.FIELDS_KEY, "owner,password"));
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(fieldsCtx);
+    });
+    assertTrue(exception.getMessage().contains("'password'"));
+  }
+
+  @Test
+  void canCountTodos() {
+    Context allCtx = contextWithQueryParams(Map.of());
+    todoController.getTodoCount(allCtx);
+    assertEquals(Map.of("count", 4L), jsonResponse(allCtx));
+
+    Context homeworkCtx = contextWithQueryParams(Map.of(TodoController.CATEGORY_KEY, "homework"));
+    todoController.getTodoCount(homeworkCtx);
+    verify(homeworkCtx).status(HttpStatus.OK);
+    assertEquals(Map.of("count", 3L), jsonResponse(homeworkCtx));
+  }
+
+  @Test
+  void categoryPatternsMatchTheSameTodosWhateverTheirPlan() {
+    // An equality, a prefix range, a literal regex, and a "real" regex
+    for (String category : new String[] {"^homework$", "^home", "work", "^h.*k$"}) {
+      Context countCtx = contextWithQueryParams(Map.of(TodoController.CATEGORY_KEY, category));
+      todoController.getTodoCount(countCtx);
+      assertEquals(Map.of("count", 3L), jsonResponse(countCtx), category);
+    }
+  }
+
+  @Test
+  void expensiveCategoryPatternsAreRejected() {
+    Context countCtx = contextWithQueryParams(Map.of(TodoController.CATEGORY_KEY, "(h+)+k"));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodoCount(countCtx);
+    });
+  }
+
+  @Test
+  void canGetTodosAlongWithTheirTotal() throws IOException {
+    Context totalCtx = contextWithQueryParams(Map.of(
+        TodoController.CATEGORY_KEY, "homework",
+        TodoController.LIMIT_KEY, "2",
+        FieldProjection.FIELDS_KEY, "owner",
+        ListResponses.WITH_TOTAL_KEY, "true"));
+    when(totalCtx.queryParamAsClass(TodoController.LIMIT_KEY, Integer.class))
+        .thenReturn(new Validation().validator(TodoController.LIMIT_KEY, Integer.class, "2"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(totalCtx.outputStream()).thenReturn(bytes);
+
+    todoController.getTodos(totalCtx);
+
+    verify(totalCtx).status(HttpStatus.OK);
+    JsonNode response = new ObjectMapper().readTree(bytes.toByteArray());
+    // The total counts every match, not just the ones that were returned
+    assertEquals(3, response.get("total").asInt());
+    JsonNode todos = response.get("items");
+    assertEquals(2, todos.size());
+    assertEquals("Blanche", todos.get(0).get("owner").asText());
+    assertEquals("Dawn", todos.get(1).get("owner").asText());
+    assertFalse(todos.get(0).has("category"));
+  }
+
+  @Test
+  void canSkipToLaterPagesOfTodosWithTheirTotal() throws IOException {
+    Context totalCtx = contextWithQueryParams(Map.of(
+        TodoController.CATEGORY_KEY, "homework",
+        ListResponses.SKIP_KEY, "2",
+        ListResponses.LIMIT_KEY, "2",
+        ListResponses.WITH_TOTAL_KEY, "true"));
+    when(totalCtx.queryParamAsClass(ListResponses.SKIP_KEY, Integer.class))
+        .thenReturn(new Validation().validator(ListResponses.SKIP_KEY, Integer.class, "2"));
+    when(totalCtx.queryParamAsClass(ListResponses.LIMIT_KEY, Integer.class))
+        .thenReturn(new Validation().validator(ListResponses.LIMIT_KEY, Integer.class, "2"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(totalCtx.outputStream()).thenReturn(bytes);
+
+    todoController.getTodos(totalCtx);
+
+    JsonNode response = new ObjectMapper().readTree(bytes.toByteArray());
+    assertEquals(3, response.get("total").asInt());
+    JsonNode todos = response.get("items");
+    assertEquals(1, todos.size());
+    assertEquals("Sam", todos.get(0).get("owner").asText());
+  }
+
+  @Test
+  void todosWithTheirTotalNeedALimit() {
+    Context totalCtx = contextWithQueryParams(Map.of(
+        TodoController.CATEGORY_KEY, "homework",
+        ListResponses.WITH_TOTAL_KEY, "true"));
+
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(totalCtx);
+    });
+  }
+
+  @Test
+  void totalOfNoTodosIsZero() throws IOException {
+    Context totalCtx = contextWithQueryParams(Map.of(
+        TodoController.OWNER_KEY, "Nobody",
+        ListResponses.LIMIT_KEY, "10",
+        ListResponses.WITH_TOTAL_KEY, "true"));
+    when(totalCtx.queryParamAsClass(ListResponses.LIMIT_KEY, Integer.class))
+        .thenReturn(new Validation().validator(ListResponses.LIMIT_KEY, Integer.class, "10"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(totalCtx.outputStream()).thenReturn(bytes);
+
+    todoController.getTodos(totalCtx);
+
+    JsonNode response = new ObjectMapper().readTree(bytes.toByteArray());
+    assertEquals(0, response.get("total").asInt());
+    assertEquals(0, response.get("items").size());
+  }
+
+  @Test
+  void cachedTodoResultsAreKeptApartByFields() throws IOException {
+    TodoController cachingController = new TodoController(db,
+        Config.builder().todoCache(1_000_000, Duration.ofMinutes(1)).build());
+
+    Context allFieldsCtx = contextWithQueryParams(Map.of(TodoController.OWNER_KEY, "Sam"));
+    cachingController.getTodos(allFieldsCtx);
+    Context someFieldsCtx = contextWithQueryParams(
+        Map.of(TodoController.OWNER_KEY, "Sam", FieldProjection.FIELDS_KEY, "owner"));
+    cachingController.getTodos(someFieldsCtx);
+
+    ArgumentCaptor<byte[]> allFields = ArgumentCaptor.forClass(byte[].class);
+    verify(allFieldsCtx).result(allFields.capture());
+    ArgumentCaptor<byte[]> someFields = ArgumentCaptor.forClass(byte[].class);
+    verify(someFieldsCtx).result(someFields.capture());
+    JsonNode sam = new ObjectMapper().readTree(someFields.getValue()).get(0);
+    assertEquals("Sam", sam.get("owner").asText());
+    assertFalse(sam.has("category"));
+    assertTrue(new ObjectMapper().readTree(allFields.getValue()).get(0).has("category"));
+  }
+
+  @Test
+  void regexTodoSearchesCostMoreThanPlainOnes() {
+    RateLimiter rateLimiter = new RateLimiter(1, 5);
+    todoController.registerRequestCosts(rateLimiter);
+
+    // A "real" regular expression uses up the whole bucket...
+    Context regexCtx = contextWithQueryParams(Map.of(TodoController.CATEGORY_KEY, ".*work"));
+    when(regexCtx.method()).thenReturn(HandlerType.GET);
+    when(regexCtx.endpointHandlerPath()).thenReturn(TodoController.API_TODOS);
+    when(regexCtx.ip()).thenReturn("10.0.0.1");
+    rateLimiter.check(regexCtx);
+    assertThrows(HttpResponseException.class, () -> rateLimiter.check(regexCtx));
+
+    // ...while a plain list leaves room for another
+    Context plainCtx = contextWithQueryParams(Map.of(TodoController.OWNER_KEY, "Fry"));
+    when(plainCtx.method()).thenReturn(HandlerType.GET);
+    when(plainCtx.endpointHandlerPath()).thenReturn(TodoController.API_TODOS);
+    when(plainCtx.ip()).thenReturn("10.0.0.2");
+    rateLimiter.check(plainCtx);
+    rateLimiter.check(plainCtx);
+    assertEquals(1, rateLimiter.rejected());
+  }
+
+  @Test
+  void coalescedTodoReadsGiveTheSameResults() throws IOException {
+    TodoController coalescingController = new TodoController(db, Config.builder().coalesceReads(true).build());
+    JavalinJackson javalinJackson = new JavalinJackson();
+
+    Context homeworkCtx = contextWithQueryParams(Map.of(TodoController.CATEGORY_KEY, "homework"));
+    when(homeworkCtx.jsonMapper()).thenReturn(javalinJackson);
+    coalescingController.getTodos(homeworkCtx);
+    Context samCtx = contextWithQueryParams(Map.of(TodoController.OWNER_KEY, "Sam"));
+    when(samCtx.jsonMapper()).thenReturn(javalinJackson);
+    coalescingController.getTodos(samCtx);
+
+    ArgumentCaptor<byte[]> homework = ArgumentCaptor.forClass(byte[].class);
+    verify(homeworkCtx).status(HttpStatus.OK);
+    verify(homeworkCtx).result(homework.capture());
+    assertEquals(Arrays.asList("Blanche", "Dawn", "Sam"),
+        owners(Arrays.asList(parseTodos(javalinJackson, homework.getValue()))));
+    ArgumentCaptor<byte[]> sam = ArgumentCaptor.forClass(byte[].class);
+    verify(samCtx).result(sam.capture());
+    assertEquals(List.of("Sam"), owners(Arrays.asList(parseTodos(javalinJackson, sam.getValue()))));
+
+    // Neither request overlapped another, so each ran its own query
+    ServerMetrics metrics = new ServerMetrics();
+    coalescingController.registerMetrics(metrics);
+    Context metricsCtx = mock(Context.class);
+    metrics.getMetrics(metricsCtx);
+    ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+    verify(metricsCtx).result(body.capture());
+    assertTrue(body.getValue().contains("todo_reads_queries_total 2"));
+    assertTrue(body.getValue().contains("todo_reads_coalesced_total 0"));
+  }
+
+  @Test
+  void unchangedTodosAreNotSentAgain() throws IOException {
+    TodoController taggingController = new TodoController(db, Config.builder().etags(true).build());
+
+    Context firstCtx = contextWithQueryParams(Map.of(TodoController.OWNER_KEY, "Sam"));
+    when(firstCtx.queryString()).thenReturn("owner=Sam");
+    taggingController.getTodos(firstCtx);
+    verify(firstCtx).json(any());
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(firstCtx).header(eq(Header.ETAG), etag.capture());
+
+    // Asking again with that tag gets a 304, and nothing else
+    Context againCtx = contextWithQueryParams(Map.of(TodoController.OWNER_KEY, "Sam"));
+    when(againCtx.queryString()).thenReturn("owner=Sam");
+    when(againCtx.header(Header.IF_NONE_MATCH)).thenReturn(etag.getValue());
+    taggingController.getTodos(againCtx);
+    verify(againCtx).status(HttpStatus.NOT_MODIFIED);
+    verify(againCtx, never()).json(any());
+
+    // Once a todo has been added, the old tag is stale
+    taggingController.addTodosInBulk(contextWithBody("[{\"owner\": \"Sam\", \"category\": \"x\", \"body\": \"y\"}]"));
+    Context afterCtx = contextWithQueryParams(Map.of(TodoController.OWNER_KEY, "Sam"));
+    when(afterCtx.queryString()).thenReturn("owner=Sam");
+    when(afterCtx.header(Header.IF_NONE_MATCH)).thenReturn(etag.getValue());
+    taggingController.getTodos(afterCtx);
+    verify(afterCtx, never()).status(HttpStatus.NOT_MODIFIED);
+    verify(afterCtx).json(todoArrayListCaptor.capture());
+    assertEquals(2, todoArrayListCaptor.getValue().size());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canGetABatchOfTodosByIdInTheOrderAskedFor() {
+    TodoController cachingController = new TodoController(db, Config.builder().byIdCacheSize(10).build());
+    String frysId = db.getCollection("todos").find(new Document("owner", "Fry")).first()
+        .getObjectId("_id").toHexString();
+    String missingId = new ObjectId().toHexString();
+
+    // Get Sam's todo into the cache, then change it behind the
+    // controller's back, so we can tell the batch used the cached copy.
+    Context byIdCtx = mock(Context.class);
+    when(byIdCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    cachingController.getTodoByID(byIdCtx);
+    db.getCollection("todos").updateOne(new Document("_id", samsId),
+        new Document("$set", new Document("owner", "Not Sam")));
+
+    Context batchCtx = contextWithQueryParams(Map.of(IdBatch.IDS_KEY,
+        String.join(",", samsId.toHexString(), missingId, frysId, samsId.toHexString())));
+    cachingController.getTodos(batchCtx);
+
+    ArgumentCaptor<IdBatch.Result<Todo>> resultCaptor = ArgumentCaptor.forClass(IdBatch.Result.class);
+    verify(batchCtx).json(resultCaptor.capture());
+    verify(batchCtx).status(HttpStatus.OK);
+    IdBatch.Result<Todo> result = resultCaptor.getValue();
+    assertEquals(List.of("Sam", "Fry"), result.items().stream().map(todo -> todo.owner).toList());
+    assertEquals(List.of(missingId), result.missing());
+  }
+
+  @Test
+  void batchesOfTodosNeedLegalIdsAndNoFilters() {
+    Context badIdCtx = contextWithQueryParams(Map.of(IdBatch.IDS_KEY, samsId.toHexString() + ",nope"));
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(badIdCtx);
+    });
 
+    Context filteredCtx = contextWithQueryParams(Map.of(
+        IdBatch.IDS_KEY, samsId.toHexString(),
+        TodoController.OWNER_KEY, "Sam"));
+    assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(filteredCtx);
+    });
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void newTodosCanBeAddedInBatches() throws Exception {
+    TodoController batchingController = new TodoController(db,
+        Config.builder().todoWriteBehind(10, Duration.ofMillis(10), 100).build());
+    String newTodoJson = """
+        {"owner": "Leela", "category": "space", "body": "deliver the package", "status": false}""";
+    JavalinJackson javalinJackson = new JavalinJackson();
+    when(ctx.bodyValidator(Todo.class))
+        .thenReturn(new BodyValidator<Todo>(newTodoJson, Todo.class,
+            () -> javalinJackson.fromJsonString(newTodoJson, Todo.class)));
+
+    batchingController.addNewTodo(ctx);
+
+    // The request finishes (and tells the client the new todo's ID) once
+    // the batch with the todo in it has been inserted.
+    ArgumentCaptor<Supplier<CompletableFuture<?>>> futureCaptor = ArgumentCaptor.forClass(Supplier.class);
+    verify(ctx).future(futureCaptor.capture());
+    futureCaptor.getValue().get().get(5, TimeUnit.SECONDS);
+    verify(ctx).status(HttpStatus.CREATED);
+    verify(ctx).json(mapCaptor.capture());
+    Document added = db.getCollection("todos")
+        .find(new Document("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Leela", added.getString("owner"));
+  }
+
+  @Test
+  void todosByIdAreCachedUntilTheyreDeleted() throws IOException {
+    TodoController cachingController = new TodoController(db, Config.builder().byIdCacheSize(10).build());
+    ServerMetrics metrics = new ServerMetrics();
+    cachingController.registerMetrics(metrics);
+
+    Context firstCtx = mock(Context.class);
+    when(firstCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    cachingController.getTodoByID(firstCtx);
+
+    // Change Sam's todo behind the controller's back; the cached copy
+    // is still the one that's served.
+    db.getCollection("todos").updateOne(new Document("_id", samsId),
+        new Document("$set", new Document("owner", "Not Sam")));
+    Context secondCtx = mock(Context.class);
+    when(secondCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    cachingController.getTodoByID(secondCtx);
+    verify(secondCtx).json(todoCaptor.capture());
+    assertEquals("Sam", todoCaptor.getValue().owner);
+
+    Context deleteCtx = mock(Context.class);
+    when(deleteCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    cachingController.deleteTodoByID(deleteCtx);
+    Context afterCtx = mock(Context.class);
+    when(afterCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    assertThrows(NotFoundResponse.class, () -> {
+      cachingController.getTodoByID(afterCtx);
+    });
+
+    Context metricsCtx = mock(Context.class);
+    metrics.getMetrics(metricsCtx);
+    ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+    verify(metricsCtx).result(body.capture());
+    assertTrue(body.getValue().contains("todo_by_id_cache_hits_total 1"));
+    assertTrue(body.getValue().contains("todo_by_id_cache_misses_total 2"));
+  }
 }
@@ -0,0 +1,207 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.json.JavalinJackson;
+import io.javalin.validation.BodyValidator;
+
+/**
+ * Tests that `ReactiveUserController` gives the same answers as
+ * `UserController`, through the reactive-streams driver.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ReactiveUserControllerSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+  private static com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+
+  private ReactiveUserController userController;
+  private ObjectId samsId;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    MongoClientSettings settings = MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .build();
+    mongoClient = MongoClients.create(settings);
+    reactiveClient = com.mongodb.reactivestreams.client.MongoClients.create(settings);
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    reactiveClient.close();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("users").drop();
+    samsId = new ObjectId();
+    db.getCollection("users").insertMany(List.of(
+        new Document("name", "Chris").append("age", 25).append("company", "UMM")
+            .append("email", "chris@this.that").append("role", "admin"),
+        new Document("name", "Pat").append("age", 37).append("company", "IBM")
+            .append("email", "pat@something.com").append("role", "editor"),
+        new Document("name", "Jamie").append("age", 37).append("company", "OHMNET")
+            .append("email", "jamie@frogs.com").append("role", "viewer"),
+        new Document("_id", samsId).append("name", "Sam").append("age", 45).append("company", "OHMNET")
+            .append("email", "sam@frogs.com").append("role", "viewer")));
+
+    userController = new ReactiveUserController(db, reactiveClient.getDatabase("test"));
+  }
+
+  private static Context contextWithQueryParams(Map<String, String> params) {
+    Context queryCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    params.forEach((key, value) -> {
+      queryParams.put(key, List.of(value));
+      when(queryCtx.queryParam(key)).thenReturn(value);
+    });
+    when(queryCtx.queryParamMap()).thenReturn(queryParams);
+    return queryCtx;
+  }
+
+  /**
+   * Wait for the future a handler gave `ctx.future()` to finish, the way
+   * Javalin would before sending the response.
+   */
+  @SuppressWarnings("unchecked")
+  private static void finish(Context ctx) throws Exception {
+    ArgumentCaptor<Supplier<CompletableFuture<?>>> futureCaptor = ArgumentCaptor.forClass(Supplier.class);
+    verify(ctx).future(futureCaptor.capture());
+    futureCaptor.getValue().get().get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void addsTheSameRoutesAsTheSyncController() {
+    Javalin mockServer = mock(Javalin.class);
+    userController.addRoutes(mockServer);
+    verify(mockServer, Mockito.atLeast(3)).get(any(), any());
+    verify(mockServer, Mockito.atLeastOnce()).post(any(), any());
+    verify(mockServer, Mockito.atLeastOnce()).delete(any(), any());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canGetUsersByCompany() throws Exception {
+    Context ctx = contextWithQueryParams(Map.of(UserController.COMPANY_KEY, "ohmnet"));
+
+    userController.getUsers(ctx);
+    finish(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    ArgumentCaptor<List<User>> usersCaptor = ArgumentCaptor.forClass(List.class);
+    verify(ctx).json(usersCaptor.capture());
+    assertEquals(List.of("Jamie", "Sam"), usersCaptor.getValue().stream().map(user -> user.name).toList());
+  }
+
+  @Test
+  void canCountUsers() throws Exception {
+    Context ctx = contextWithQueryParams(Map.of(UserController.COMPANY_KEY, "OHMNET"));
+
+    userController.getUserCount(ctx);
+    finish(ctx);
+
+    verify(ctx).json(Map.of("count", 2L));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canGetUsersGroupedByCompany() throws Exception {
+    Context ctx = contextWithQueryParams(Map.of("sortBy", "count", "sortOrder", "desc"));
+
+    userController.getUsersGroupedByCompany(ctx);
+    finish(ctx);
+
+    ArgumentCaptor<List<UserByCompany>> groupsCaptor = ArgumentCaptor.forClass(List.class);
+    verify(ctx).json(groupsCaptor.capture());
+    List<UserByCompany> groups = groupsCaptor.getValue();
+    assertEquals(List.of("OHMNET", "UMM", "IBM"), groups.stream().map(group -> group._id).toList());
+    assertEquals(2, groups.get(0).count);
+  }
+
+  @Test
+  void userThatDoesNotExistIsNotFound() {
+    Context ctx = mock(Context.class);
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    userController.getUser(ctx);
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> finish(ctx));
+    assertTrue(thrown.getCause() instanceof NotFoundResponse);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canAddGetAndDeleteUsers() throws Exception {
+    String newUserJson = """
+        {"name": "Test User", "age": 25, "company": "testers", "email": "test@example.com", "role": "viewer"}""";
+    JavalinJackson javalinJackson = new JavalinJackson();
+    Context addCtx = mock(Context.class);
+    when(addCtx.bodyValidator(User.class))
+        .thenReturn(new BodyValidator<User>(newUserJson, User.class,
+            () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+
+    userController.addNewUser(addCtx);
+    finish(addCtx);
+
+    verify(addCtx).status(HttpStatus.CREATED);
+    ArgumentCaptor<Map<String, String>> idCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(addCtx).json(idCaptor.capture());
+    String id = idCaptor.getValue().get("id");
+
+    Context getCtx = mock(Context.class);
+    when(getCtx.pathParam("id")).thenReturn(id);
+    userController.getUser(getCtx);
+    finish(getCtx);
+    ArgumentCaptor<User> userCaptor = ArgumentCaptor.forClass(User.class);
+    verify(getCtx).json(userCaptor.capture());
+    assertEquals("Test User", userCaptor.getValue().name);
+    assertTrue(userCaptor.getValue().avatar.startsWith("https://gravatar.com/avatar/"));
+
+    Context deleteCtx = mock(Context.class);
+    when(deleteCtx.pathParam("id")).thenReturn(id);
+    userController.deleteUser(deleteCtx);
+    finish(deleteCtx);
+    verify(deleteCtx).status(HttpStatus.OK);
+    assertEquals(0, db.getCollection("users").countDocuments(new Document("_id", new ObjectId(id))));
+  }
+}
@@ -2,16 +2,20 @@ package umm3601.user;
 
 import static com.mongodb.client.model.Filters.eq;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -21,6 +25,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -37,6 +42,8 @@ import org.mockito.MockitoAnnotations;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
@@ -47,6 +54,7 @@ import com.mongodb.client.MongoDatabase;
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
@@ -55,6 +63,11 @@ import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationError;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import umm3601.Config;
+import umm3601.FieldProjection;
+import umm3601.IdBatch;
+import umm3601.KeysetPage;
+import umm3601.ListResponses;
 
 /**
  * Tests the logic of the UserController
@@ -222,6 +235,93 @@ class UserControllerSpec {
         userArrayListCaptor.getValue().size());
   }
 
+  @Test
+  void canStreamAllUsers() throws IOException {
+    UserController streamingController = new UserController(db, Config.builder().streamBatchSize(1).build());
+
+    // Collect whatever gets written to the (mocked) JSON stream. We have
+    // to consume the stream inside the call, since the controller closes
+    // the database cursor as soon as `writeJsonStream` returns.
+    List<User> streamedUsers = new ArrayList<>();
+    doAnswer(invocation -> {
+      Stream<?> stream = invocation.getArgument(0);
+      stream.forEach(user -> streamedUsers.add((User) user));
+      return null;
+    }).when(ctx).writeJsonStream(any());
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    streamingController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    // Users come back sorted by name by default
+    assertEquals(
+        Arrays.asList("Chris", "Jamie", "Pat", "Sam"),
+        streamedUsers.stream().map(user -> user.name).collect(Collectors.toList()));
+  }
+
+  @Test
+  void canPageThroughUsers() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(KeysetPage.PAGE_SIZE_KEY, Arrays.asList(new String[] {"3"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(KeysetPage.PAGE_SIZE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(KeysetPage.PAGE_SIZE_KEY, Integer.class, "3"));
+
+    userController.getUsers(ctx);
+
+    // The first page should be the first three users by name, and
+    // should tell us how to get the next page.
+    verify(ctx).json(userArrayListCaptor.capture());
+    assertEquals(
+        Arrays.asList("Chris", "Jamie", "Pat"),
+        userArrayListCaptor.getValue().stream().map(user -> user.name).collect(Collectors.toList()));
+    ArgumentCaptor<String> tokenCaptor = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(Mockito.eq(KeysetPage.NEXT_PAGE_TOKEN_HEADER), tokenCaptor.capture());
+    String pageToken = tokenCaptor.getValue();
+
+    // Now ask for the next page, using the token we were handed
+    Context nextCtx = mock(Context.class);
+    queryParams.put(KeysetPage.PAGE_TOKEN_KEY, Arrays.asList(new String[] {pageToken}));
+    when(nextCtx.queryParamMap()).thenReturn(queryParams);
+    when(nextCtx.queryParam(KeysetPage.PAGE_TOKEN_KEY)).thenReturn(pageToken);
+    when(nextCtx.queryParamAsClass(KeysetPage.PAGE_SIZE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(KeysetPage.PAGE_SIZE_KEY, Integer.class, "3"));
+
+    userController.getUsers(nextCtx);
+
+    // The second page should just have Sam, and there shouldn't be a next page
+    verify(nextCtx).json(userArrayListCaptor.capture());
+    assertEquals(
+        Arrays.asList("Sam"),
+        userArrayListCaptor.getValue().stream().map(user -> user.name).collect(Collectors.toList()));
+    verify(nextCtx, never()).header(Mockito.eq(KeysetPage.NEXT_PAGE_TOKEN_HEADER), any());
+  }
+
+  @Test
+  void respondsAppropriatelyToBogusPageToken() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(KeysetPage.PAGE_TOKEN_KEY, Arrays.asList(new String[] {"not-a-token"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(KeysetPage.PAGE_TOKEN_KEY)).thenReturn("not-a-token");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  @Test
+  void respondsAppropriatelyToPagingOnUnpageableField() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(KeysetPage.PAGE_SIZE_KEY, Arrays.asList(new String[] {"2"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.SORT_BY_KEY)).thenReturn("avatar");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
   /**
    * Confirm that if we process a request for users with age 37,
    * that all returned users have that age, and we get the correct
@@ -1183,4 +1283,375 @@ class UserControllerSpec {
     // Assert
     assertEquals("https://gravatar.com/avatar/?d=mp", avatar);
   }
+
+  @Test
+  void everyFilterShapeUsesAnIndex() {
+    userController.reconcileIndexes();
+
+    List<Map<String, String>> shapes = List.of(
+        Map.of(UserController.AGE_KEY, "25"),
+        Map.of(UserController.COMPANY_KEY, "OHMNET"),
+        Map.of(UserController.ROLE_KEY, "viewer"),
+        Map.of(UserController.AGE_KEY, "37", UserController.ROLE_KEY, "admin"),
+        Map.of(UserController.COMPANY_KEY, "IBM", UserController.ROLE_KEY, "editor"));
+
+    for (Map<String, String> shape : shapes) {
+      Context queryCtx = mock(Context.class);
+      Map<String, List<String>> queryParams = new HashMap<>();
+      shape.forEach((key, value) -> {
+        queryParams.put(key, List.of(value));
+        when(queryCtx.queryParam(key)).thenReturn(value);
+      });
+      when(queryCtx.queryParamMap()).thenReturn(queryParams);
+      when(queryCtx.queryParamAsClass(UserController.AGE_KEY, Integer.class))
+          .thenReturn(new Validation().validator(UserController.AGE_KEY, Integer.class,
+              shape.get(UserController.AGE_KEY)));
+      when(queryCtx.queryParamAsClass(UserController.ROLE_KEY, String.class))
+          .thenReturn(new Validation().validator(UserController.ROLE_KEY, String.class,
+              shape.get(UserController.ROLE_KEY)));
+
+      Document explain = db.getCollection("users")
+          .find(userController.constructFilter(queryCtx))
+          .explain();
+      String winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class).toJson();
+      assertTrue(winningPlan.contains("IXSCAN"), "No index used for " + shape + ": " + winningPlan);
+      assertFalse(winningPlan.contains("COLLSCAN"), "Collection scan for " + shape + ": " + winningPlan);
+    }
+  }
+
+  /**
+   * Get the users grouped by company from `controller`, sorted by `sortBy`
+   * in `sortOrder` order.
+   */
+  @SuppressWarnings("unchecked")
+  private List<UserByCompany> groupedByCompany(UserController controller, String sortBy, String sortOrder) {
+    Context groupCtx = mock(Context.class);
+    when(groupCtx.queryParam("sortBy")).thenReturn(sortBy);
+    when(groupCtx.queryParam("sortOrder")).thenReturn(sortOrder);
+    controller.getUsersGroupedByCompany(groupCtx);
+    ArgumentCaptor<List<UserByCompany>> groupCaptor = ArgumentCaptor.forClass(List.class);
+    verify(groupCtx).json(groupCaptor.capture());
+    verify(groupCtx).status(HttpStatus.OK);
+    return groupCaptor.getValue();
+  }
+
+  private static List<String> companies(List<UserByCompany> groups) {
+    return groups.stream().map(group -> group._id).collect(Collectors.toList());
+  }
+
+  @Test
+  void inMemoryGroupsMatchTheDatabase() {
+    UserController viewController = new UserController(db, Config.builder().usersByCompanyView(true).build());
+
+    assertEquals(Arrays.asList("IBM", "OHMNET", "UMM"), companies(groupedByCompany(viewController, "company", "asc")));
+    assertEquals(Arrays.asList("UMM", "OHMNET", "IBM"), companies(groupedByCompany(viewController, "company", "desc")));
+    // Ties in the count are broken by company name
+    assertEquals(Arrays.asList("IBM", "UMM", "OHMNET"), companies(groupedByCompany(viewController, "count", "asc")));
+    assertEquals(Arrays.asList("OHMNET", "UMM", "IBM"), companies(groupedByCompany(viewController, "count", "desc")));
+
+    UserByCompany ohmnet = groupedByCompany(viewController, "count", "desc").get(0);
+    assertEquals(2, ohmnet.count);
+    assertEquals(Arrays.asList("Jamie", "Sam"),
+        ohmnet.users.stream().map(user -> user.name).sorted().collect(Collectors.toList()));
+  }
+
+  @Test
+  void inMemoryGroupsFollowAddsAndDeletes() throws IOException {
+    UserController viewController = new UserController(db, Config.builder().usersByCompanyView(true).build());
+
+    // Add a second user at IBM...
+    String newUserJson = """
+        {"name": "Lee", "age": 30, "company": "IBM", "email": "lee@ibm.com", "role": "viewer"}
+        """;
+    when(ctx.bodyValidator(User.class))
+        .thenReturn(new BodyValidator<User>(newUserJson, User.class,
+            () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    viewController.addNewUser(ctx);
+
+    // ...and delete the only user at UMM
+    String chrisId = db.getCollection("users").find(eq("name", "Chris")).first().getObjectId("_id").toHexString();
+    Context deleteCtx = mock(Context.class);
+    when(deleteCtx.pathParam("id")).thenReturn(chrisId);
+    viewController.deleteUser(deleteCtx);
+
+    List<UserByCompany> groups = groupedByCompany(viewController, "company", "asc");
+    assertEquals(Arrays.asList("IBM", "OHMNET"), companies(groups));
+    assertEquals(2, groups.get(0).count);
+    assertEquals(Arrays.asList("Pat", "Lee"),
+        groups.get(0).users.stream().map(user -> user.name).collect(Collectors.toList()));
+  }
+
+  private List<UserByCompany> groupPage(UserController controller, Map<String, String> limits) {
+    Context groupCtx = mock(Context.class);
+    when(groupCtx.queryParam("sortBy")).thenReturn("count");
+    when(groupCtx.queryParam("sortOrder")).thenReturn("desc");
+    Map<String, List<String>> queryParams = new HashMap<>();
+    limits.forEach((key, value) -> {
+      queryParams.put(key, Arrays.asList(new String[] {value}));
+      when(groupCtx.queryParamAsClass(key, Integer.class))
+          .thenReturn(new Validation().validator(key, Integer.class, value));
+    });
+    when(groupCtx.queryParamMap()).thenReturn(queryParams);
+    controller.getUsersGroupedByCompany(groupCtx);
+    ArgumentCaptor<List<UserByCompany>> groupCaptor = ArgumentCaptor.forClass(List.class);
+    verify(groupCtx).json(groupCaptor.capture());
+    return groupCaptor.getValue();
+  }
+
+  @Test
+  void canCapUsersPerGroupAndPageThroughGroups() {
+    UserController viewController = new UserController(db, Config.builder().usersByCompanyView(true).build());
+
+    // The database and the in-memory groups should agree on every page
+    for (UserController controller : List.of(userController, viewController)) {
+      List<UserByCompany> firstPage = groupPage(controller, Map.of(
+          UserController.USERS_PER_GROUP_KEY, "1",
+          UserController.GROUP_LIMIT_KEY, "2"));
+      assertEquals(Arrays.asList("OHMNET", "UMM"), companies(firstPage));
+      // OHMNET still counts both its users, but only lists the first by name
+      assertEquals(2, firstPage.get(0).count);
+      assertEquals(Arrays.asList("Jamie"),
+          firstPage.get(0).users.stream().map(user -> user.name).collect(Collectors.toList()));
+
+      List<UserByCompany> secondPage = groupPage(controller, Map.of(
+          UserController.USERS_PER_GROUP_KEY, "1",
+          UserController.GROUP_SKIP_KEY, "2",
+          UserController.GROUP_LIMIT_KEY, "2"));
+      assertEquals(Arrays.asList("IBM"), companies(secondPage));
+      assertEquals(Arrays.asList("Pat"),
+          secondPage.get(0).users.stream().map(user -> user.name).collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  void rejectsGroupCapsLessThanOne() {
+    assertThrows(ValidationException.class, () -> {
+      groupPage(userController, Map.of(UserController.USERS_PER_GROUP_KEY, "0"));
+    });
+    assertThrows(ValidationException.class, () -> {
+      groupPage(userController, Map.of(UserController.GROUP_SKIP_KEY, "-1"));
+    });
+  }
+
+  @Test
+  void codecCollectionReadsAndWritesUsersLikeMongoJack() throws IOException {
+    UserController codecController = new UserController(db, Config.builder().bsonCodecs(true).build());
+
+    // Both ways of reading the users should give the same users...
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    userController.getUsers(ctx);
+    Context codecCtx = mock(Context.class);
+    when(codecCtx.queryParamMap()).thenReturn(Collections.emptyMap());
+    codecController.getUsers(codecCtx);
+    ArgumentCaptor<ArrayList<User>> codecCaptor = ArgumentCaptor.forClass(ArrayList.class);
+    verify(ctx).json(userArrayListCaptor.capture());
+    verify(codecCtx).json(codecCaptor.capture());
+    assertEquals(describe(userArrayListCaptor.getValue()), describe(codecCaptor.getValue()));
+
+    // ...and the same groups
+    List<UserByCompany> groups = groupedByCompany(codecController, "count", "desc");
+    assertEquals(Arrays.asList("OHMNET", "UMM", "IBM"), companies(groups));
+    assertEquals(2, groups.get(0).count);
+    assertEquals(Arrays.asList("Jamie", "Sam"),
+        groups.get(0).users.stream().map(user -> user.name).sorted().collect(Collectors.toList()));
+
+    // A new user gets an (ObjectId) `_id` from the codec when it's inserted
+    String newUserJson = """
+        {"name": "Lee", "age": 30, "company": "IBM", "email": "lee@ibm.com", "role": "viewer"}
+        """;
+    Context addCtx = mock(Context.class);
+    when(addCtx.bodyValidator(User.class))
+        .thenReturn(new BodyValidator<User>(newUserJson, User.class,
+            () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    codecController.addNewUser(addCtx);
+    verify(addCtx).json(mapCaptor.capture());
+    Document addedUser = db.getCollection("users")
+        .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Lee", addedUser.get("name"));
+    assertEquals(30, addedUser.get(UserController.AGE_KEY));
+    assertNotNull(addedUser.get("avatar"));
+  }
+
+  private static List<String> describe(List<User> users) {
+    return users.stream()
+        .map(user -> String.join("|", user._id, user.name, String.valueOf(user.age), user.company,
+            user.email, user.avatar, user.role))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  void canSendUsersStraightFromTheirBson() throws IOException {
+    UserController rawController = new UserController(db, Config.builder().rawJson(true).build());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(bytes);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.AGE_KEY, Arrays.asList(new String[] {"37"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass(UserController.AGE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(UserController.AGE_KEY, Integer.class, "37"));
+    rawController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    JsonNode users = new ObjectMapper().readTree(bytes.toByteArray());
+    assertEquals(2, users.size());
+    // Sorted by name, with `_id`s as plain hex strings
+    assertEquals("Jamie", users.get(0).get("name").asText());
+    assertEquals("Pat", users.get(1).get("name").asText());
+    assertEquals(37, users.get(1).get(UserController.AGE_KEY).asInt());
+    assertTrue(ObjectId.isValid(users.get(0).get("_id").asText()));
+  }
+
+  @Test
+  void canAskForJustSomeUserFields() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(bytes);
+    when(ctx.queryParamMap()).thenReturn(Map.of(FieldProjection.FIELDS_KEY, List.of("name,company")));
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("name,company");
+
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    JsonNode users = new ObjectMapper().readTree(bytes.toByteArray());
+    assertEquals(4, users.size());
+    assertEquals("Chris", users.get(0).get("name").asText());
+    assertEquals("UMM", users.get(0).get(UserController.COMPANY_KEY).asText());
+    assertFalse(users.get(0).has("email"));
+    assertFalse(users.get(0).has(UserController.AGE_KEY));
+  }
+
+  @Test
+  void unknownUserFieldsAreRejected() {
+    when(ctx.queryParamMap()).thenReturn(Map.of(FieldProjection.FIELDS_KEY, List.of("name,salary")));
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("name,salary");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  @Test
+  void canCountUsers() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    userController.getUserCount(ctx);
+    verify(ctx).json(Map.of("count", 4L));
+
+    Context ageCtx = mock(Context.class);
+    when(ageCtx.queryParamMap()).thenReturn(Map.of(UserController.AGE_KEY, List.of("37")));
+    when(ageCtx.queryParamAsClass(UserController.AGE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(UserController.AGE_KEY, Integer.class, "37"));
+    userController.getUserCount(ageCtx);
+    verify(ageCtx).json(Map.of("count", 2L));
+    verify(ageCtx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void canGetUsersAlongWithTheirTotal() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(bytes);
+    when(ctx.queryParamMap()).thenReturn(Map.of(
+        UserController.AGE_KEY, List.of("37"),
+        ListResponses.LIMIT_KEY, List.of("10"),
+        ListResponses.WITH_TOTAL_KEY, List.of("true")));
+    when(ctx.queryParam(ListResponses.WITH_TOTAL_KEY)).thenReturn("true");
+    when(ctx.queryParamAsClass(UserController.AGE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(UserController.AGE_KEY, Integer.class, "37"));
+    when(ctx.queryParamAsClass(ListResponses.LIMIT_KEY, Integer.class))
+        .thenReturn(new Validation().validator(ListResponses.LIMIT_KEY, Integer.class, "10"));
+
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    JsonNode response = new ObjectMapper().readTree(bytes.toByteArray());
+    assertEquals(2, response.get("total").asInt());
+    JsonNode users = response.get("items");
+    assertEquals(2, users.size());
+    assertEquals("Jamie", users.get(0).get("name").asText());
+    assertEquals("Pat", users.get(1).get("name").asText());
+  }
+
+  @Test
+  void canSkipToLaterPagesOfUsersWithTheirTotal() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(bytes);
+    when(ctx.queryParamMap()).thenReturn(Map.of(
+        UserController.AGE_KEY, List.of("37"),
+        ListResponses.SKIP_KEY, List.of("1"),
+        ListResponses.LIMIT_KEY, List.of("1"),
+        ListResponses.WITH_TOTAL_KEY, List.of("true")));
+    when(ctx.queryParam(ListResponses.WITH_TOTAL_KEY)).thenReturn("true");
+    when(ctx.queryParamAsClass(UserController.AGE_KEY, Integer.class))
+        .thenReturn(new Validation().validator(UserController.AGE_KEY, Integer.class, "37"));
+    when(ctx.queryParamAsClass(ListResponses.SKIP_KEY, Integer.class))
+        .thenReturn(new Validation().validator(ListResponses.SKIP_KEY, Integer.class, "1"));
+    when(ctx.queryParamAsClass(ListResponses.LIMIT_KEY, Integer.class))
+        .thenReturn(new Validation().validator(ListResponses.LIMIT_KEY, Integer.class, "1"));
+
+    userController.getUsers(ctx);
+
+    JsonNode response = new ObjectMapper().readTree(bytes.toByteArray());
+    assertEquals(2, response.get("total").asInt());
+    JsonNode users = response.get("items");
+    assertEquals(1, users.size());
+    assertEquals("Pat", users.get(0).get("name").asText());
+  }
+
+  @Test
+  void usersWithTheirTotalNeedALimit() {
+    when(ctx.queryParamMap()).thenReturn(Map.of(ListResponses.WITH_TOTAL_KEY, List.of("true")));
+    when(ctx.queryParam(ListResponses.WITH_TOTAL_KEY)).thenReturn("true");
+
+    assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canGetABatchOfUsersByIdInTheOrderAskedFor() {
+    String chrisId = db.getCollection("users").find(new Document("name", "Chris")).first()
+        .getObjectId("_id").toHexString();
+    String missingId = new ObjectId().toHexString();
+    String ids = String.join(",", missingId, samsId.toHexString(), chrisId);
+    when(ctx.queryParamMap()).thenReturn(Map.of(IdBatch.IDS_KEY, List.of(ids)));
+    when(ctx.queryParam(IdBatch.IDS_KEY)).thenReturn(ids);
+
+    userController.getUsers(ctx);
+
+    ArgumentCaptor<IdBatch.Result<User>> resultCaptor = ArgumentCaptor.forClass(IdBatch.Result.class);
+    verify(ctx).json(resultCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    IdBatch.Result<User> result = resultCaptor.getValue();
+    assertEquals(List.of("Sam", "Chris"), result.items().stream().map(user -> user.name).toList());
+    assertEquals(List.of(missingId), result.missing());
+  }
+
+  @Test
+  void unchangedUsersByCompanyAreNotSentAgain() throws IOException {
+    UserController taggingController = new UserController(db, Config.builder().etags(true).build());
+
+    Context firstCtx = mock(Context.class);
+    taggingController.getUsersGroupedByCompany(firstCtx);
+    verify(firstCtx).json(any());
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(firstCtx).header(Mockito.eq(Header.ETAG), etag.capture());
+
+    // Asking again with that tag gets a 304, and nothing else
+    Context againCtx = mock(Context.class);
+    when(againCtx.header(Header.IF_NONE_MATCH)).thenReturn(etag.getValue());
+    taggingController.getUsersGroupedByCompany(againCtx);
+    verify(againCtx).status(HttpStatus.NOT_MODIFIED);
+    verify(againCtx, never()).json(any());
+
+    // Once a user has been deleted, the old tag is stale
+    Context deleteCtx = mock(Context.class);
+    when(deleteCtx.pathParam("id")).thenReturn(samsId.toHexString());
+    taggingController.deleteUser(deleteCtx);
+    Context afterCtx = mock(Context.class);
+    when(afterCtx.header(Header.IF_NONE_MATCH)).thenReturn(etag.getValue());
+    taggingController.getUsersGroupedByCompany(afterCtx);
+    verify(afterCtx, never()).status(HttpStatus.NOT_MODIFIED);
+    verify(afterCtx).json(any());
+  }
 }